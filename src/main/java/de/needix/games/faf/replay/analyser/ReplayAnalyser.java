@@ -1,44 +1,151 @@
 package de.needix.games.faf.replay.analyser;
 
-import com.github.luben.zstd.ZstdInputStream;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdException;
+import de.needix.games.faf.replay.analyser.eventanalyser.CommandAnalyser;
+import de.needix.games.faf.replay.analyser.eventanalyser.CommandStreamWriter;
 import de.needix.games.faf.replay.analyser.eventanalyser.LuaAnalyser;
+import de.needix.games.faf.replay.analyser.parser.Command;
+import de.needix.games.faf.replay.analyser.parser.CommandLogReader;
+import de.needix.games.faf.replay.analyser.parser.CommandLogWriter;
+import de.needix.games.faf.replay.analyser.parser.MappedBuffers;
+import de.needix.games.faf.replay.analyser.parser.ReplayByteReader;
 import de.needix.games.faf.replay.analyser.parser.ReplayParser;
+import de.needix.games.faf.replay.analyser.parser.ReplayParserOptions;
 import de.needix.games.faf.replay.api.entities.replay.Replay;
+import de.needix.games.faf.replay.api.entities.replay.ReplaySeekPoint;
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
 import de.needix.games.faf.replay.exceptions.UnsupportedReplayException;
 import lombok.ToString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.util.Base64;
-import java.util.Date;
-import java.util.Objects;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 @ToString
 public class ReplayAnalyser {
     private static final Logger LOGGER = LoggerFactory.getLogger(ReplayAnalyser.class);
+    private static final int INFLATER_BUFFER_SIZE = 16 * 1024;
+    private static final int COMPRESSED_CHUNK_SIZE = 128 * 1024;
+    // Larger replays are streamed, so the buffers per analysis thread stay this small
+    private static final int ONE_SHOT_MAX_SIZE = ReplayByteReader.DEFAULT_STREAM_BUFFER_SIZE;
     private final File file;
     private final Replay replayToFill;
     private final LuaAnalyser luaAnalyser;
+    private final ReplayAnalyserOptions options;
 
     public ReplayAnalyser(File file, Replay replayToFill) {
+        this(file, replayToFill, ReplayAnalyserOptions.DEFAULT);
+    }
+
+    public ReplayAnalyser(File file, Replay replayToFill, ReplayAnalyserOptions options) {
         this.file = Objects.requireNonNull(file, "file must not be null");
         this.replayToFill = Objects.requireNonNull(replayToFill, "replayToFill must not be null");
+        this.options = Objects.requireNonNull(options, "options must not be null");
         this.luaAnalyser = new LuaAnalyser(replayToFill);
     }
 
     public static long getReplayId(File file) throws IOException {
-        String jsonHeaderasString = getJsonHeader(file);
-        JsonObject jsonHeader = getJsonHeaderAsJsonObject(jsonHeaderasString);
+        return ReplayJsonHeader.read(file).getUid();
+    }
 
-        return jsonHeader.get("uid").getAsLong();
+    /**
+     * @return the names of the analysers whose current version differs from the one the stored results of the replay
+     * were produced with
+     */
+    public static Set<String> getOutdatedAnalysers(Replay replay) {
+        Set<String> outdatedAnalysers = new HashSet<>();
+        for (CommandAnalyser commandAnalyser : ReplayParser.createCommandAnalysers(new Replay())) {
+            Integer storedVersion = replay.getAnalyserVersions().get(commandAnalyser.getName());
+            if (storedVersion == null || storedVersion != commandAnalyser.getVersion()) {
+                outdatedAnalysers.add(commandAnalyser.getName());
+            }
+        }
+        return outdatedAnalysers;
+    }
+
+    /**
+     * Replaces the results of the given analysers in the stored replay with the ones of a new analysis, see
+     * {@link CommandAnalyser#copyResults(Replay, Replay)}.
+     */
+    public static void copyAnalyserResults(Set<String> analyserNames, Replay analysed, Replay target) {
+        for (CommandAnalyser commandAnalyser : ReplayParser.createCommandAnalysers(new Replay())) {
+            String name = commandAnalyser.getName();
+            if (!analyserNames.contains(name)) {
+                continue;
+            }
+            commandAnalyser.copyResults(analysed, target);
+            Integer version = analysed.getAnalyserVersions().get(name);
+            if (version != null) {
+                target.getAnalyserVersions().put(name, version);
+            }
+        }
+    }
+
+    /**
+     * Checks that a replay file is complete without analysing it: its JSON header has to parse and its body has to
+     * decompress up to the end of the last frame. Replays with an unsupported compression are not checked further,
+     * their analysis rejects them anyway.
+     *
+     * @throws IOException if the file is truncated or corrupt
+     */
+    public static void verifyReplayFile(Path path) throws IOException {
+        Objects.requireNonNull(path, "path must not be null");
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ReplayJsonHeader jsonHeader = ReplayJsonHeader.read(path.toFile());
+            int headerLength = (int) jsonHeader.getLength();
+            String compression = jsonHeader.getCompression();
+            if ("zstd".equalsIgnoreCase(compression)) {
+                try (ZstdDecompressionPool.Lease lease = ZstdDecompressionPool.acquire();
+                     ZstdDirectChannel decompressedData = openZstdBody(channel, null, headerLength, lease)) {
+                    while (decompressedData.read(lease.getWindow()) != -1) {
+                        // Only the frame matters, not the data
+                    }
+                    if (!decompressedData.isFrameComplete()) {
+                        throw new EOFException("The zstd frame of " + path + " is truncated");
+                    }
+                }
+            } else if ("zlib".equalsIgnoreCase(compression) && jsonHeader.getVersion() == 1) {
+                // The inflater throws an EOFException for a truncated stream
+                try (InputStream decompressedStream = openDecompressedStream(openBodyStream(channel, null, headerLength),
+                        compression, jsonHeader.getVersion())) {
+                    decompressedStream.transferTo(OutputStream.nullOutputStream());
+                }
+            } else {
+                LOGGER.debug("Not verifying the body of {} with compression {}, version {}", path, compression, jsonHeader.getVersion());
+            }
+        } catch (UnsupportedReplayException | ReplayParseException e) {
+            throw new IOException("The replay " + path + " is corrupt: " + e.getMessage(), e);
+        } finally {
+            // The file is usually verified under a temporary name
+            ReplayJsonHeader.evict(path.toFile());
+        }
     }
 
     public void analyzeFAFReplay() throws IOException {
+        analyse(createCommandAnalysers());
+    }
+
+    /**
+     * Passes every decoded command of the replay to the given analyser instead of the analysers filling the replay.
+     * The commands are handed over while the replay is parsed, e.g. to stream them with a {@link CommandStreamWriter}.
+     */
+    public void streamCommands(CommandAnalyser commandConsumer) throws IOException {
+        Objects.requireNonNull(commandConsumer, "commandConsumer must not be null");
+        analyse(List.of(commandConsumer));
+    }
+
+    private void analyse(List<CommandAnalyser> commandAnalysers) throws IOException {
         long startTime = System.currentTimeMillis();
 
         String filePath = file.getAbsolutePath();
@@ -46,96 +153,393 @@ public class ReplayAnalyser {
         LOGGER.info("Analyzing file: {}", filePath);
         LOGGER.info("File size: {} bytes", file.length());
 
-        String jsonHeaderasString = getJsonHeader(file);
-        JsonObject jsonHeader = getJsonHeaderAsJsonObject(jsonHeaderasString);
+        MappedByteBuffer mappedFile = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ReplayJsonHeader jsonHeader;
+            if (options.isMemoryMapped()) {
+                mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                jsonHeader = ReplayJsonHeader.read(file.toPath(), mappedFile);
+            } else {
+                jsonHeader = ReplayJsonHeader.read(file);
+            }
+            fillReplayFromHeader(jsonHeader);
 
-        int replayVersion = jsonHeader.get("version").getAsInt();
-        String compression = jsonHeader.get("compression").getAsString();
+            if (options.isCommandLog()) {
+                try (CommandLogReader logReader = CommandLogReader.open(file, jsonHeader.getUid(), options.isMemoryMapped())) {
+                    if (logReader != null) {
+                        LOGGER.debug("Analysing commands from the command log");
+                        new ReplayParser(logReader, replayToFill, parserOptions(null, commandAnalysers));
+                        return;
+                    }
+                }
+            }
 
-        replayToFill.setId(jsonHeader.get("uid").getAsLong());
-        replayToFill.setImportDate(new Date());
-        replayToFill.setReplayCompression(compression);
-        replayToFill.setReplayVersion(replayVersion);
-        replayToFill.setReplayTitle(jsonHeader.get("title").getAsString());
-        replayToFill.setComplete(jsonHeader.get("complete").getAsBoolean());
-        replayToFill.setFeaturedMod(jsonHeader.get("featured_mod").getAsString());
-        replayToFill.setGameType(jsonHeader.get("game_type").getAsString());
-        replayToFill.setGameStart(jsonHeader.get("launched_at").getAsLong());
-        replayToFill.setGameEnd(jsonHeader.get("game_end").getAsLong());
-        replayToFill.setNumberOfPlayers(jsonHeader.get("num_players").getAsInt());
-        replayToFill.setRecorder(jsonHeader.get("recorder").getAsString());
+            try (CommandLogWriter logWriter = options.isCommandLog() ? createCommandLogWriter(jsonHeader.getUid()) : null) {
+                parseBody(channel, mappedFile, jsonHeader, parserOptions(logWriter, commandAnalysers));
+                if (logWriter != null) {
+                    commitCommandLog(logWriter);
+                }
+            }
+        } finally {
+            // The parser is done with the mapping, every value it decoded was copied out of it
+            MappedBuffers.release(mappedFile);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.info("Parsed replay in {} ms", System.currentTimeMillis() - startTime);
+            }
+        }
+    }
+
+    private CommandLogWriter createCommandLogWriter(long replayId) {
+        try {
+            return CommandLogWriter.create(file, replayId);
+        } catch (IOException e) {
+            LOGGER.warn("Could not create the command log for {}, analysing without it", file, e);
+            return null;
+        }
+    }
+
+    private void commitCommandLog(CommandLogWriter logWriter) {
+        try {
+            logWriter.commit();
+        } catch (IOException e) {
+            LOGGER.warn("Could not write the command log for {}", file, e);
+        }
+    }
+
+    private ReplayParserOptions parserOptions(CommandLogWriter logWriter, List<CommandAnalyser> commandAnalysers) {
+        return ReplayParserOptions.builder()
+                .pipelined(options.isPipelined())
+                .logWriter(logWriter)
+                .budget(options.getParseBudget())
+                .commandAnalysers(commandAnalysers)
+                .build();
+    }
+
+    private void parseBody(FileChannel channel, MappedByteBuffer mappedFile, ReplayJsonHeader jsonHeader,
+                           ReplayParserOptions parserOptions) throws IOException {
+        int headerLength = (int) jsonHeader.getLength();
+        String compression = jsonHeader.getCompression();
+        if ("zstd".equalsIgnoreCase(compression)) {
+            try (ZstdDecompressionPool.Lease lease = ZstdDecompressionPool.acquire()) {
+                parseZstdBody(channel, mappedFile, headerLength, lease, parserOptions);
+            }
+        } else {
+            // Stream the rest of the file through the decompressor into the parser, skipping the header and newline
+            InputStream bodyStream = openBodyStream(channel, mappedFile, headerLength);
+            try (InputStream decompressedStream = openDecompressedStream(bodyStream, compression, jsonHeader.getVersion())) {
+                new ReplayParser(Channels.newChannel(decompressedStream), replayToFill, parserOptions);
+            }
+        }
+    }
+
+    /**
+     * Decodes only the commands of a tick range. The replay is decompressed as a stream up to the end of the range,
+     * the commands before the seek point closest to the range are skipped without being decoded.
+     *
+     * @param seekPoints the seek points stored for this replay, see {@link Replay#getSeekPoints()}. If there are none,
+     *                   the commands are read from the start.
+     * @return the fully decoded commands with ticks between fromTick and toTick, including both
+     */
+    public List<Command> readCommands(List<ReplaySeekPoint> seekPoints, int fromTick, int toTick) throws IOException {
+        Objects.requireNonNull(seekPoints, "seekPoints must not be null");
+        if (fromTick > toTick) {
+            throw new IllegalArgumentException("fromTick " + fromTick + " is after toTick " + toTick);
+        }
+
+        ReplaySeekPoint seekPoint = null;
+        for (ReplaySeekPoint candidate : seekPoints) {
+            if (seekPoint == null || candidate.getTick() < fromTick) {
+                seekPoint = candidate;
+            } else {
+                break;
+            }
+        }
+        LOGGER.debug("Reading commands from tick {} to {} starting at {}", fromTick, toTick, seekPoint);
+
+        MappedByteBuffer mappedFile = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (options.isMemoryMapped()) {
+                mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            ReplayJsonHeader jsonHeader = mappedFile != null ? ReplayJsonHeader.read(file.toPath(), mappedFile) : ReplayJsonHeader.read(file);
+            fillReplayFromHeader(jsonHeader);
+
+            int headerLength = (int) jsonHeader.getLength();
+            String compression = jsonHeader.getCompression();
+            if ("zstd".equalsIgnoreCase(compression)) {
+                try (ZstdDecompressionPool.Lease lease = ZstdDecompressionPool.acquire();
+                     ZstdDirectChannel decompressedData = openZstdBody(channel, mappedFile, headerLength, lease)) {
+                    return ReplayParser.parseRange(decompressedData, lease.getWindow(), replayToFill, seekPoint, fromTick, toTick);
+                }
+            }
+            InputStream bodyStream = openBodyStream(channel, mappedFile, headerLength);
+            try (InputStream decompressedStream = openDecompressedStream(bodyStream, compression, jsonHeader.getVersion())) {
+                return ReplayParser.parseRange(Channels.newChannel(decompressedStream), replayToFill, seekPoint, fromTick, toTick);
+            }
+        } finally {
+            MappedBuffers.release(mappedFile);
+        }
+    }
 
-        // Read the rest of the file
-        byte[] decompressedData;
-        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
-            inputStream.skip(jsonHeaderasString.length() + 1); // Skip the header and newline
-            decompressedData = decompressData(file, inputStream, compression, replayVersion);
+    /**
+     * @return a direct buffer with the complete compressed data after the JSON header
+     */
+    private static ByteBuffer readCompressedBody(FileChannel channel, MappedByteBuffer mappedFile, int headerLength,
+                                                 ZstdDecompressionPool.Lease lease) throws IOException {
+        if (mappedFile != null) {
+            return mappedFile.slice(headerLength, mappedFile.limit() - headerLength);
         }
-        new ReplayParser(decompressedData, replayToFill);
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.info("Parsed replay in {} ms", System.currentTimeMillis() - startTime);
+        ByteBuffer compressedBody = lease.getSourceBuffer((int) (channel.size() - headerLength));
+        channel.position(headerLength);
+        while (compressedBody.hasRemaining() && channel.read(compressedBody) != -1) {
+            // Read the complete compressed data
         }
+        return compressedBody.flip();
     }
 
-    private static String getJsonHeader(File file) throws IOException {
-        Objects.requireNonNull(file, "file must not be null");
+    /**
+     * @return a channel decompressing the data after the JSON header. A mapped file is decompressed straight from the
+     * mapping, otherwise the compressed data is read in chunks. Neither is copied as a whole.
+     */
+    private static ZstdDirectChannel openZstdBody(FileChannel channel, MappedByteBuffer mappedFile, int headerLength,
+                                                  ZstdDecompressionPool.Lease lease) throws IOException {
+        if (mappedFile != null) {
+            return new ZstdDirectChannel(lease.getContext(), mappedFile.slice(headerLength, mappedFile.limit() - headerLength));
+        }
+        return new ZstdDirectChannel(lease.getContext(), channel.position(headerLength),
+                lease.getSourceBuffer(COMPRESSED_CHUNK_SIZE));
+    }
+
+    private static InputStream openBodyStream(FileChannel channel, MappedByteBuffer mappedFile, int headerLength) throws IOException {
+        return mappedFile != null
+                ? new ByteBufferInputStream(mappedFile.slice(headerLength, mappedFile.limit() - headerLength))
+                : Channels.newInputStream(channel.position(headerLength));
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            return reader.readLine();
+    private List<CommandAnalyser> createCommandAnalysers() {
+        List<CommandAnalyser> commandAnalysers = new ArrayList<>(ReplayParser.createCommandAnalysers(replayToFill));
+        if (options.getAnalysers() != null) {
+            commandAnalysers.removeIf(commandAnalyser -> !options.getAnalysers().contains(commandAnalyser.getName()));
         }
+        return commandAnalysers;
     }
 
-    private static JsonObject getJsonHeaderAsJsonObject(String jsonHeader) {
-        Objects.requireNonNull(jsonHeader, "jsonHeader must not be null");
-        return JsonParser.parseString(jsonHeader).getAsJsonObject();
+    private void fillReplayFromHeader(ReplayJsonHeader jsonHeader) {
+        replayToFill.setId(jsonHeader.getUid());
+        replayToFill.setImportDate(new Date());
+        replayToFill.setReplayCompression(jsonHeader.getCompression());
+        replayToFill.setReplayVersion(jsonHeader.getVersion());
+        replayToFill.setReplayTitle(jsonHeader.getTitle());
+        replayToFill.setComplete(jsonHeader.isComplete());
+        replayToFill.setFeaturedMod(jsonHeader.getFeaturedMod());
+        replayToFill.setGameType(jsonHeader.getGameType());
+        replayToFill.setGameStart(jsonHeader.getLaunchedAt());
+        replayToFill.setGameEnd(jsonHeader.getGameEnd());
+        replayToFill.setNumberOfPlayers(jsonHeader.getNumPlayers());
+        replayToFill.setRecorder(jsonHeader.getRecorder());
     }
 
-    private byte[] decompressData(File file, InputStream inputStream, String compression, int version) throws IOException {
-        Objects.requireNonNull(file, "file must not be null");
+    /**
+     * Streams the decompressed data through the parser's window, so the memory used does not grow with the replay.
+     * Only replays which fit into the window anyway are decompressed in one go, which saves the streaming overhead
+     * for them.
+     */
+    private void parseZstdBody(FileChannel channel, MappedByteBuffer mappedFile, int headerLength,
+                               ZstdDecompressionPool.Lease lease, ReplayParserOptions parserOptions) throws IOException {
+        if (channel.size() - headerLength <= ONE_SHOT_MAX_SIZE) {
+            ByteBuffer compressedBody = readCompressedBody(channel, mappedFile, headerLength, lease);
+            long contentSize = Zstd.decompressedDirectByteBufferSize(compressedBody, compressedBody.position(), compressedBody.remaining());
+            if (contentSize > 0 && contentSize <= ONE_SHOT_MAX_SIZE) {
+                LOGGER.debug("Decompressing {} bytes with Zstandard...", contentSize);
+                ByteBuffer decompressedData = lease.getOutputBuffer((int) contentSize);
+                try {
+                    lease.getContext().decompress(decompressedData, compressedBody.duplicate());
+                    new ReplayParser(decompressedData.flip(), replayToFill, parserOptions);
+                    return;
+                } catch (ZstdException e) {
+                    // E.g. more than one frame, the content size only covers the first one
+                    LOGGER.debug("Decompressing in one go failed, streaming instead: {}", e.getMessage());
+                    lease.getContext().reset();
+                }
+            }
+        }
+
+        LOGGER.debug("Decompressing with Zstandard while parsing...");
+        // The decompressor writes straight into the parser's window, so both have to be direct buffers
+        try (ZstdDirectChannel decompressedData = openZstdBody(channel, mappedFile, headerLength, lease)) {
+            new ReplayParser(decompressedData, replayToFill,
+                    parserOptions.toBuilder().streamBuffer(lease.getWindow()).build());
+        }
+    }
+
+    private static InputStream openDecompressedStream(InputStream inputStream, String compression, int version) throws IOException {
         Objects.requireNonNull(inputStream, "inputStream must not be null");
         Objects.requireNonNull(compression, "compression must not be null");
 
-        InputStream decompressedStream;
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-        if ("zstd".equalsIgnoreCase(compression)) {
-            LOGGER.debug("Decompressing with Zstandard...");
-            decompressedStream = new ZstdInputStream(inputStream);
-        } else if ("zlib".equalsIgnoreCase(compression) && version == 1) {
+        if ("zlib".equalsIgnoreCase(compression) && version == 1) {
             LOGGER.debug("Decompressing with zlib...");
-            decompressedStream = new InflaterInputStream(new Base64InputStream(file));
-        } else {
-            throw new UnsupportedReplayException("Unsupported compression or version: " + compression + ", version: " + version);
+            InputStream decodedStream = new Base64InputStream(inputStream);
+            // The zlib data is preceded by the uncompressed size as big-endian integer
+            int uncompressedSize = new DataInputStream(decodedStream).readInt();
+            LOGGER.debug("Uncompressed size: {} bytes", uncompressedSize);
+            return new InflaterInputStream(decodedStream, new Inflater(), INFLATER_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // Not done by InflaterInputStream for inflaters passed in
+                        inf.end();
+                    }
+                }
+            };
+        }
+        throw new UnsupportedReplayException("Unsupported compression or version: " + compression + ", version: " + version);
+    }
+
+    // Reads a (mapped) buffer without copying it to the heap first
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = Objects.requireNonNull(buffer, "buffer must not be null");
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
         }
 
-        byte[] buffer = new byte[1024];
-        int bytesRead;
-        while ((bytesRead = decompressedStream.read(buffer)) != -1) {
-            byteArrayOutputStream.write(buffer, 0, bytesRead);
+        @Override
+        public int available() {
+            return buffer.remaining();
         }
-        decompressedStream.close();
-        return byteArrayOutputStream.toByteArray();
     }
 
-    // Helper class for Base64 decoding
-    private static class Base64InputStream extends InputStream {
-        private final Base64.Decoder decoder = Base64.getDecoder();
-        private final File file;
-        private ByteArrayInputStream decodedStream;
+    /**
+     * Decodes the Base64 text of legacy replays while it is read. The encoded text is read in blocks, line breaks are
+     * skipped and decoding stops at the padding.
+     */
+    static class Base64InputStream extends InputStream {
+        static final int ENCODED_BLOCK_SIZE = 16 * 1024;
+        private static final int SKIPPED = -2;
+        private static final int PADDING = -3;
+        private static final int[] DECODE_TABLE = new int[256];
 
-        public Base64InputStream(File file) {
-            Objects.requireNonNull(file, "file must not be null");
-            this.file = file;
+        static {
+            Arrays.fill(DECODE_TABLE, -1);
+            String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+            for (int i = 0; i < alphabet.length(); i++) {
+                DECODE_TABLE[alphabet.charAt(i)] = i;
+            }
+            DECODE_TABLE['\r'] = SKIPPED;
+            DECODE_TABLE['\n'] = SKIPPED;
+            DECODE_TABLE[' '] = SKIPPED;
+            DECODE_TABLE['\t'] = SKIPPED;
+            DECODE_TABLE['='] = PADDING;
+        }
+
+        private final InputStream encodedStream;
+        private final byte[] encoded = new byte[ENCODED_BLOCK_SIZE];
+        // A block might complete a quantum started in the previous block
+        private final byte[] decoded = new byte[ENCODED_BLOCK_SIZE / 4 * 3 + 3];
+        private int decodedPosition;
+        private int decodedLimit;
+
+        private int quantum;
+        private int quantumLength;
+        private boolean finished;
+
+        public Base64InputStream(InputStream encodedStream) {
+            this.encodedStream = Objects.requireNonNull(encodedStream, "encodedStream must not be null");
         }
 
         @Override
         public int read() throws IOException {
-            if (decodedStream == null || decodedStream.available() == 0) {
-                byte[] buffer = Files.readAllBytes(file.toPath());
-                if (buffer.length == 0) return -1;
-                decodedStream = new ByteArrayInputStream(decoder.decode(buffer));
+            if (decodedPosition == decodedLimit && !decodeNextBlock()) {
+                return -1;
+            }
+            return decoded[decodedPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            Objects.checkFromIndexSize(offset, length, bytes.length);
+            if (length == 0) {
+                return 0;
+            }
+            if (decodedPosition == decodedLimit && !decodeNextBlock()) {
+                return -1;
+            }
+            int read = Math.min(length, decodedLimit - decodedPosition);
+            System.arraycopy(decoded, decodedPosition, bytes, offset, read);
+            decodedPosition += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            encodedStream.close();
+        }
+
+        /**
+         * @return false, if there is no more data
+         */
+        private boolean decodeNextBlock() throws IOException {
+            decodedPosition = 0;
+            decodedLimit = 0;
+            while (decodedLimit == 0 && !finished) {
+                int read = encodedStream.readNBytes(encoded, 0, encoded.length);
+                if (read < encoded.length) {
+                    finished = true;
+                }
+                decodeBlock(read);
+            }
+            return decodedLimit > 0;
+        }
+
+        private void decodeBlock(int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                int value = DECODE_TABLE[encoded[i] & 0xFF];
+                if (value >= 0) {
+                    quantum = (quantum << 6) | value;
+                    if (++quantumLength == 4) {
+                        decoded[decodedLimit++] = (byte) (quantum >> 16);
+                        decoded[decodedLimit++] = (byte) (quantum >> 8);
+                        decoded[decodedLimit++] = (byte) quantum;
+                        quantum = 0;
+                        quantumLength = 0;
+                    }
+                } else if (value == PADDING) {
+                    finished = true;
+                    break;
+                } else if (value != SKIPPED) {
+                    throw new ReplayParseException("Illegal base64 character " + Integer.toHexString(encoded[i] & 0xFF));
+                }
+            }
+            if (finished) {
+                // Flush an incomplete last quantum
+                if (quantumLength == 2) {
+                    decoded[decodedLimit++] = (byte) (quantum >> 4);
+                } else if (quantumLength == 3) {
+                    decoded[decodedLimit++] = (byte) (quantum >> 10);
+                    decoded[decodedLimit++] = (byte) (quantum >> 2);
+                }
+                quantumLength = 0;
             }
-            return decodedStream.read();
         }
     }
 }
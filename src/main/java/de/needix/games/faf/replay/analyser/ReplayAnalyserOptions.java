@@ -0,0 +1,57 @@
+package de.needix.games.faf.replay.analyser;
+
+import de.needix.games.faf.replay.analyser.eventanalyser.CommandAnalyser;
+import de.needix.games.faf.replay.analyser.parser.CommandLog;
+import de.needix.games.faf.replay.analyser.parser.ParseBudget;
+import de.needix.games.faf.replay.exceptions.ReplayBudgetExceededException;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Set;
+
+/**
+ * Tunes how {@link ReplayAnalyser} reads replay files.
+ */
+@Getter
+@Builder
+@ToString
+public class ReplayAnalyserOptions {
+    public static final ReplayAnalyserOptions DEFAULT = ReplayAnalyserOptions.builder().build();
+
+    /**
+     * Maps the replay file into memory instead of reading it through a stream. The header is scanned from the mapped
+     * region and the compressed data is decompressed from it without being copied to the heap. This keeps the I/O in
+     * the page cache, which helps when analysing many replays from disk. The file is unmapped once its analysis is done.
+     */
+    @Builder.Default
+    private final boolean memoryMapped = false;
+
+    /**
+     * Runs every analyser on its own thread, fed through a ring buffer while the commands are parsed. Decoding and
+     * analysing then overlap, which lowers the latency for large replays on machines with spare cores.
+     */
+    @Builder.Default
+    private final boolean pipelined = false;
+
+    /**
+     * Keeps a command log next to every analysed replay, see {@link CommandLog}. Reanalysing a replay then reads the
+     * already decoded commands from its log instead of decompressing and parsing the replay again. Writing the log
+     * costs a full decode on the first analysis and disk space in the order of the decompressed replay.
+     */
+    @Builder.Default
+    private final boolean commandLog = false;
+
+    /**
+     * Names of the analysers to run, see {@link CommandAnalyser#getName()}. All analysers run if this is null.
+     */
+    @Builder.Default
+    private final Set<String> analysers = null;
+
+    /**
+     * Limits the work spent on parsing the commands of a replay. Exceeding it aborts the analysis with a
+     * {@link ReplayBudgetExceededException}.
+     */
+    @Builder.Default
+    private final ParseBudget parseBudget = ParseBudget.UNLIMITED;
+}
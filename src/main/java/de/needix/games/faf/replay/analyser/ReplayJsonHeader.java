@@ -0,0 +1,182 @@
+package de.needix.games.faf.replay.analyser;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import de.needix.games.faf.replay.exceptions.UnsupportedReplayException;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The JSON line in front of the compressed replay data.
+ * <p>
+ * Only the header line is read from the file, through a small buffer, and its fields are pulled out with a streaming
+ * {@link JsonReader} without building a JSON tree. Headers are cached per file (path, size and modification time), so
+ * that one import reads and parses the header only once, even if the replay id is looked up before the analysis.
+ */
+@Getter
+@ToString
+public class ReplayJsonHeader {
+    private static final int READ_BUFFER_SIZE = 4 * 1024;
+    private static final int CACHE_SIZE = 128;
+
+    private static final Map<Path, CachedHeader> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, CachedHeader> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private long uid = -1;
+    private int version;
+    private String compression;
+    private String title;
+    private boolean complete;
+    private String featuredMod;
+    private String gameType;
+    private long launchedAt;
+    private long gameEnd;
+    private int numPlayers;
+    private String recorder;
+    /**
+     * Number of bytes in front of the compressed replay data, including the terminating newline of the header.
+     */
+    private long length;
+
+    private ReplayJsonHeader() {
+    }
+
+    public static ReplayJsonHeader read(File file) throws IOException {
+        Objects.requireNonNull(file, "file must not be null");
+        return read(file.toPath());
+    }
+
+    public static ReplayJsonHeader read(Path file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * @param mappedFile the complete file mapped into memory. If given, the header is scanned from it instead of
+     *                   being read from the file again. May be null.
+     */
+    public static ReplayJsonHeader read(Path file, ByteBuffer mappedFile) throws IOException {
+        Objects.requireNonNull(file, "file must not be null");
+
+        Path key = file.toAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        synchronized (CACHE) {
+            CachedHeader cached = CACHE.get(key);
+            if (cached != null && cached.size() == size && cached.lastModified() == lastModified) {
+                return cached.header();
+            }
+        }
+
+        ReplayJsonHeader header = parse(mappedFile != null ? readHeaderLine(key, mappedFile) : readHeaderLine(key));
+        synchronized (CACHE) {
+            CACHE.put(key, new CachedHeader(size, lastModified, header));
+        }
+        return header;
+    }
+
+    /**
+     * Removes the cached header of the given file, e.g. because the file is deleted.
+     */
+    public static void evict(File file) {
+        Objects.requireNonNull(file, "file must not be null");
+        synchronized (CACHE) {
+            CACHE.remove(file.toPath().toAbsolutePath());
+        }
+    }
+
+    /**
+     * @return the bytes of the first line of the file, without the newline
+     */
+    private static byte[] readHeaderLine(Path file) throws IOException {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer.clear()) != -1) {
+                byte[] chunk = buffer.array();
+                for (int i = 0; i < buffer.position(); i++) {
+                    if (chunk[i] == '\n') {
+                        headerBytes.write(chunk, 0, i);
+                        return headerBytes.toByteArray();
+                    }
+                }
+                headerBytes.write(chunk, 0, buffer.position());
+            }
+        }
+        throw new UnsupportedReplayException("Replay " + file + " has no header line");
+    }
+
+    private static byte[] readHeaderLine(Path file, ByteBuffer mappedFile) {
+        for (int i = mappedFile.position(); i < mappedFile.limit(); i++) {
+            if (mappedFile.get(i) == '\n') {
+                byte[] headerLine = new byte[i - mappedFile.position()];
+                mappedFile.get(mappedFile.position(), headerLine);
+                return headerLine;
+            }
+        }
+        throw new UnsupportedReplayException("Replay " + file + " has no header line");
+    }
+
+    private static ReplayJsonHeader parse(byte[] headerLine) throws IOException {
+        ReplayJsonHeader header = new ReplayJsonHeader();
+        header.length = headerLine.length + 1L;
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(headerLine), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "uid" -> header.uid = reader.nextLong();
+                    case "version" -> header.version = reader.nextInt();
+                    case "compression" -> header.compression = reader.nextString();
+                    case "title" -> header.title = reader.nextString();
+                    case "complete" -> header.complete = reader.nextBoolean();
+                    case "featured_mod" -> header.featuredMod = reader.nextString();
+                    case "game_type" -> header.gameType = reader.nextString();
+                    case "launched_at" -> header.launchedAt = nextTimestamp(reader);
+                    case "game_end" -> header.gameEnd = nextTimestamp(reader);
+                    case "num_players" -> header.numPlayers = reader.nextInt();
+                    case "recorder" -> header.recorder = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        if (header.uid == -1) {
+            throw new UnsupportedReplayException("Replay header has no uid");
+        }
+        return header;
+    }
+
+    /**
+     * Timestamps are written as fractional seconds by some clients, only the whole seconds are kept.
+     */
+    private static long nextTimestamp(JsonReader reader) throws IOException {
+        return (long) reader.nextDouble();
+    }
+
+    private record CachedHeader(long size, long lastModified, ReplayJsonHeader header) {
+    }
+}
@@ -0,0 +1,160 @@
+package de.needix.games.faf.replay.analyser;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import de.needix.games.faf.replay.analyser.parser.ReplayByteReader;
+import lombok.ToString;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps one zstd decompression context and its direct buffers per worker thread, so that analysing many replays does
+ * not set up a native context and grow new buffers for every replay.
+ * <p>
+ * A {@link Lease} hands out the resources of the current thread. If they are already leased on this thread, the lease
+ * gets its own resources which are freed again when it is closed; this is counted as a miss.
+ */
+public final class ZstdDecompressionPool {
+    /**
+     * Buffers up to this size are kept for the next replay, larger ones are only used once.
+     */
+    public static final int MAX_POOLED_BUFFER_SIZE = 32 * 1024 * 1024;
+
+    private static final ThreadLocal<Resources> THREAD_RESOURCES = new ThreadLocal<>();
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder BUFFER_ALLOCATIONS = new LongAdder();
+    private static final AtomicLong BUFFER_HIGH_WATER_MARK = new AtomicLong();
+
+    private ZstdDecompressionPool() {
+    }
+
+    public static Lease acquire() {
+        Resources resources = THREAD_RESOURCES.get();
+        if (resources != null && !resources.leased) {
+            HITS.increment();
+            resources.leased = true;
+            resources.context.reset();
+            return new Lease(resources, true);
+        }
+
+        MISSES.increment();
+        Resources newResources = new Resources();
+        newResources.leased = true;
+        if (resources == null) {
+            // First lease on this thread, keep the resources for the next one
+            THREAD_RESOURCES.set(newResources);
+            return new Lease(newResources, true);
+        }
+        return new Lease(newResources, false);
+    }
+
+    public static Statistics getStatistics() {
+        return new Statistics(HITS.sum(), MISSES.sum(), BUFFER_ALLOCATIONS.sum(), BUFFER_HIGH_WATER_MARK.get());
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        BUFFER_ALLOCATIONS.increment();
+        BUFFER_HIGH_WATER_MARK.accumulateAndGet(capacity, Math::max);
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * @param hits                leases served with the resources kept for the thread
+     * @param misses              leases which had to create a new context
+     * @param bufferAllocations   direct buffers allocated because no pooled buffer was large enough
+     * @param bufferHighWaterMark capacity of the largest buffer allocated so far, in bytes
+     */
+    public record Statistics(long hits, long misses, long bufferAllocations, long bufferHighWaterMark) {
+    }
+
+    private static class Resources {
+        private final ZstdDecompressCtx context = new ZstdDecompressCtx();
+        private ByteBuffer window;
+        private ByteBuffer sourceBuffer;
+        private ByteBuffer outputBuffer;
+        private boolean leased;
+
+        private void free() {
+            context.close();
+            window = null;
+            sourceBuffer = null;
+            outputBuffer = null;
+        }
+    }
+
+    /**
+     * Access to the pooled resources of one analysis. Buffers handed out are only valid until the lease is closed.
+     */
+    @ToString(onlyExplicitlyIncluded = true)
+    public static class Lease implements AutoCloseable {
+        private final Resources resources;
+        @ToString.Include
+        private final boolean pooled;
+        private boolean closed;
+
+        private Lease(Resources resources, boolean pooled) {
+            this.resources = resources;
+            this.pooled = pooled;
+        }
+
+        public ZstdDecompressCtx getContext() {
+            return resources.context;
+        }
+
+        /**
+         * @return a cleared direct buffer to use as the parser's window into streamed data
+         */
+        public ByteBuffer getWindow() {
+            if (resources.window == null) {
+                resources.window = allocate(ReplayByteReader.DEFAULT_STREAM_BUFFER_SIZE);
+            }
+            return resources.window.clear();
+        }
+
+        /**
+         * @return a cleared direct buffer with a limit of the given capacity, for the compressed data
+         */
+        public ByteBuffer getSourceBuffer(int capacity) {
+            resources.sourceBuffer = ensureCapacity(resources.sourceBuffer, capacity);
+            return resources.sourceBuffer.clear().limit(capacity);
+        }
+
+        /**
+         * @return a cleared direct buffer with a limit of the given capacity, for the decompressed data
+         */
+        public ByteBuffer getOutputBuffer(int capacity) {
+            resources.outputBuffer = ensureCapacity(resources.outputBuffer, capacity);
+            return resources.outputBuffer.clear().limit(capacity);
+        }
+
+        private ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+            if (buffer != null && buffer.capacity() >= capacity) {
+                return buffer;
+            }
+            return allocate(capacity);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!pooled) {
+                resources.free();
+                return;
+            }
+            resources.leased = false;
+            // Oversized buffers are only used once
+            if (resources.sourceBuffer != null && resources.sourceBuffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+                resources.sourceBuffer = null;
+            }
+            if (resources.outputBuffer != null && resources.outputBuffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+                resources.outputBuffer = null;
+            }
+        }
+    }
+}
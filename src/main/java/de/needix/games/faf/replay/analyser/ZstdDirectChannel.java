@@ -0,0 +1,123 @@
+package de.needix.games.faf.replay.analyser;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdException;
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Objects;
+
+/**
+ * Decompresses zstd data from a direct buffer (e.g. a memory-mapped file) straight into the direct buffers it is read
+ * into. Neither the compressed nor the decompressed data is copied to the heap. Compressed data which is not in memory
+ * is read from a channel chunk by chunk into the source buffer.
+ * <p>
+ * The decompression context belongs to the caller and is not closed with the channel.
+ */
+class ZstdDirectChannel implements ReadableByteChannel {
+    private final ZstdDecompressCtx context;
+    private final ByteBuffer source;
+    private final ReadableByteChannel input;
+    private boolean inputEnded;
+    private boolean open = true;
+    private boolean frameComplete;
+
+    /**
+     * @param source the compressed data, has to be a direct buffer. It is consumed from its position to its limit.
+     */
+    ZstdDirectChannel(ZstdDecompressCtx context, ByteBuffer source) {
+        this.context = Objects.requireNonNull(context, "context must not be null");
+        this.source = Objects.requireNonNull(source, "source must not be null");
+        this.input = null;
+        if (!source.isDirect()) {
+            throw new IllegalArgumentException("source has to be a direct buffer");
+        }
+    }
+
+    /**
+     * @param input        the compressed data, read up to its end
+     * @param sourceBuffer has to be a direct buffer, it is refilled from the input whenever it is consumed
+     */
+    ZstdDirectChannel(ZstdDecompressCtx context, ReadableByteChannel input, ByteBuffer sourceBuffer) {
+        this.context = Objects.requireNonNull(context, "context must not be null");
+        this.input = Objects.requireNonNull(input, "input must not be null");
+        this.source = Objects.requireNonNull(sourceBuffer, "sourceBuffer must not be null").clear().flip();
+        if (!sourceBuffer.isDirect()) {
+            throw new IllegalArgumentException("sourceBuffer has to be a direct buffer");
+        }
+    }
+
+    /**
+     * @param target has to be a direct buffer
+     */
+    @Override
+    public int read(ByteBuffer target) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (!target.isDirect()) {
+            throw new IllegalArgumentException("target has to be a direct buffer");
+        }
+
+        if (!target.hasRemaining()) {
+            return 0;
+        }
+
+        int start = target.position();
+        while (target.hasRemaining()) {
+            if (!source.hasRemaining()) {
+                refill();
+            }
+            int targetPosition = target.position();
+            int sourcePosition = source.position();
+            boolean complete;
+            try {
+                complete = context.decompressDirectByteBufferStream(target, source);
+            } catch (ZstdException e) {
+                throw new ReplayParseException("Corrupt zstd data: " + e.getMessage(), e);
+            }
+            if (target.position() == targetPosition && source.position() == sourcePosition) {
+                // Neither input left nor output pending
+                break;
+            }
+            frameComplete = complete;
+        }
+        int read = target.position() - start;
+        return read == 0 ? -1 : read;
+    }
+
+    private void refill() throws IOException {
+        if (input == null || inputEnded) {
+            return;
+        }
+        source.clear();
+        while (source.hasRemaining()) {
+            if (input.read(source) == -1) {
+                inputEnded = true;
+                break;
+            }
+        }
+        source.flip();
+    }
+
+    /**
+     * @return whether the last frame read was decompressed and flushed completely. Once the channel returned -1, false
+     * means the compressed data ended in the middle of a frame.
+     */
+    boolean isFrameComplete() {
+        return frameComplete;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
@@ -1,93 +1,208 @@
 package de.needix.games.faf.replay.analyser.eventanalyser;
 
 import de.needix.games.faf.replay.analyser.parser.Command;
+import de.needix.games.faf.replay.analyser.parser.CommandData;
 import de.needix.games.faf.replay.analyser.parser.CommandType;
 import de.needix.games.faf.replay.api.entities.replay.Replay;
 import de.needix.games.faf.replay.api.entities.replay.ReplayPlayer;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
+/**
+ * Counts the actions of every player per game minute while the commands stream in, so only a few counters per minute
+ * are kept and results are available even if the replay ends without {@link CommandType#END_GAME}.
+ * <p>
+ * Besides the APM per minute it calculates the effective APM, which ignores issue commands repeating the previous
+ * order of the player within a second, and the APM over a rolling one minute window. The rolling window advances in
+ * steps of ten seconds, its maximum is the peak APM and its values are collected in a histogram.
+ */
 public class ApmAnalyser implements CommandAnalyser {
+    /**
+     * The simulation runs with ten ticks per game second.
+     */
+    public static final int TICKS_PER_MINUTE = 600;
+    public static final int WINDOW_STEP_SECONDS = 10;
+    public static final int HISTOGRAM_BUCKET_WIDTH = 10;
+
+    private static final int WINDOW_STEP_TICKS = WINDOW_STEP_SECONDS * TICKS_PER_MINUTE / 60;
+    private static final int WINDOW_STEPS = TICKS_PER_MINUTE / WINDOW_STEP_TICKS;
+    private static final int SPAM_TICKS = TICKS_PER_MINUTE / 60;
+
+    private static final Set<CommandType> ACTION_COMMAND_TYPES = EnumSet.complementOf(EnumSet.of(
+            CommandType.SET_COMMAND_SOURCE, CommandType.ADVANCE, CommandType.VERIFY_CHECKSUM,
+            CommandType.COMMAND_SOURCE_TERMINATED));
+    private static final Set<CommandType> SUBSCRIBED_COMMAND_TYPES = EnumSet.complementOf(EnumSet.of(
+            CommandType.SET_COMMAND_SOURCE, CommandType.VERIFY_CHECKSUM, CommandType.COMMAND_SOURCE_TERMINATED));
 
     private final Replay replay;
-    private final Map<Integer, List<Integer>> playerTickActions = new HashMap<>();
-    private final long realTimeDurationInSeconds;
+    /**
+     * Indexed by the command source of the player
+     */
+    private PlayerApm[] players = new PlayerApm[0];
+    private int lastTick;
 
     public ApmAnalyser(Replay replay) {
         this.replay = replay;
-        this.realTimeDurationInSeconds = replay.getGameEnd() - replay.getGameStart();
+    }
+
+    @Override
+    public Set<CommandType> getSubscribedCommandTypes() {
+        // Advances are needed to know the length of the game
+        return SUBSCRIBED_COMMAND_TYPES;
+    }
+
+    @Override
+    public Set<CommandType> getDecodedCommandTypes() {
+        // Issue commands are compared with the previous one to detect spam, otherwise only the tick and the player of
+        // an action matter
+        return EnumSet.of(CommandType.ISSUE_COMMAND, CommandType.ISSUE_FACTORY_COMMAND);
+    }
+
+    @Override
+    public boolean needsIssueCells() {
+        return false;
     }
 
     @Override
     public void analyseCommand(Command command) {
-        int playerId = command.getPlayerId();
         int tick = command.getTick();
+        lastTick = tick;
 
-        if (command.getCommandType() == CommandType.SET_COMMAND_SOURCE
-                || command.getCommandType() == CommandType.ADVANCE
-                || command.getCommandType() == CommandType.VERIFY_CHECKSUM
-                || command.getCommandType() == CommandType.COMMAND_SOURCE_TERMINATED) {
+        int playerId = command.getPlayerId();
+        if (!ACTION_COMMAND_TYPES.contains(command.getCommandType()) || playerId < 0) {
             return;
         }
 
-        // Update the playerTickActions map with the tick where the action occurred
-        playerTickActions
-                .computeIfAbsent(playerId, k -> new ArrayList<>())
-                .add(tick);
-
-        // Capture the last tick from the last parsed command
-        if (command.getCommandType() == CommandType.END_GAME) {
-            calculateFinalApm(tick);
+        if (playerId >= players.length) {
+            players = Arrays.copyOf(players, playerId + 1);
         }
+        if (players[playerId] == null) {
+            players[playerId] = new PlayerApm();
+        }
+        players[playerId].addAction(tick, command.getData());
     }
 
-    private void calculateFinalApm(int lastTick) {
-        // After parsing, calculate ticksPerMinute
-        double ticksPerMinute = (double) lastTick / (realTimeDurationInSeconds / 60.0);
-
-        // Map to store APM buckets for each player
-        Map<Integer, List<Double>> playerApms = new HashMap<>();
+    @Override
+    public void copyResults(Replay analysed, Replay target) {
+        CommandAnalyser.forEachPlayer(analysed, target, (analysedPlayer, targetPlayer) -> {
+            targetPlayer.getApmPerMinute().clear();
+            targetPlayer.getApmPerMinute().addAll(analysedPlayer.getApmPerMinute());
+            targetPlayer.setPeakApm(analysedPlayer.getPeakApm());
+            targetPlayer.setApmHistogram(analysedPlayer.getApmHistogram());
+        });
+    }
 
-        // Loop over each player's raw tick list and bucket their actions into minutes
-        for (Map.Entry<Integer, List<Integer>> entry : playerTickActions.entrySet()) {
-            int playerId = entry.getKey();
-            List<Integer> playerTicks = entry.getValue();
+    @Override
+    public void finalizeAnalysis() {
+        int minutes = lastTick / TICKS_PER_MINUTE + 1;
+        List<ReplayPlayer> replayPlayers = replay.getPlayers();
+        for (int playerId = 0; playerId < replayPlayers.size(); playerId++) {
+            PlayerApm playerApm = playerId < players.length && players[playerId] != null ? players[playerId] : new PlayerApm();
+            playerApm.finish(lastTick);
+
+            ReplayPlayer player = replayPlayers.get(playerId);
+            for (int minute = 0; minute < minutes; minute++) {
+                player.addApmPerMinute(minute, playerApm.actions(minute), playerApm.effectiveActions(minute));
+            }
+            player.setPeakApm(playerApm.peakApm);
 
-            // Prepare APM buckets (default all 0 APMs initially)
-            int totalMinutes = (int) Math.ceil((double) lastTick / ticksPerMinute);
-            int[] actionsPerMinute = new int[totalMinutes + 1];
+            Map<String, Object> histogram = new HashMap<>();
+            histogram.put("windowStepSeconds", WINDOW_STEP_SECONDS);
+            histogram.put("bucketWidth", HISTOGRAM_BUCKET_WIDTH);
+            histogram.put("counts", playerApm.histogram());
+            player.setApmHistogram(histogram);
+        }
+    }
 
-            // Populate actions per minute bucket
-            for (int tick : playerTicks) {
-                int currentMinute = (int) (tick / ticksPerMinute);
-                actionsPerMinute[currentMinute]++;
+    private static class PlayerApm {
+        private int[] actionsPerMinute = new int[16];
+        private int[] effectiveActionsPerMinute = new int[16];
+
+        private final int[] windowStepActions = new int[WINDOW_STEPS];
+        private int windowStep;
+        private int windowActions;
+        private int[] histogram = new int[8];
+        private int histogramSize;
+        private int peakApm;
+
+        private CommandData.IssueCommand lastIssue;
+        private int lastIssueTick;
+
+        private void addAction(int tick, CommandData data) {
+            advanceWindow(tick / WINDOW_STEP_TICKS);
+            windowStepActions[windowStep % WINDOW_STEPS]++;
+            windowActions++;
+
+            int minute = tick / TICKS_PER_MINUTE;
+            if (minute >= actionsPerMinute.length) {
+                int length = Math.max(minute + 1, actionsPerMinute.length * 2);
+                actionsPerMinute = Arrays.copyOf(actionsPerMinute, length);
+                effectiveActionsPerMinute = Arrays.copyOf(effectiveActionsPerMinute, length);
             }
+            actionsPerMinute[minute]++;
+            if (!isSpam(tick, data)) {
+                effectiveActionsPerMinute[minute]++;
+            }
+        }
 
-            // Convert actions to APM and store them
-            List<Double> apms = new ArrayList<>();
-            for (int actions : actionsPerMinute) {
-                double apm = (double) actions * 60 / (ticksPerMinute / 10); // Scale actions to APM
-                apms.add(apm);
+        private boolean isSpam(int tick, CommandData data) {
+            if (!(data instanceof CommandData.IssueCommand issue)) {
+                return false;
             }
+            CommandData.IssueCommand previous = lastIssue;
+            int previousTick = lastIssueTick;
+            lastIssue = issue;
+            lastIssueTick = tick;
+            return previous != null && tick - previousTick <= SPAM_TICKS
+                    && previous.factory() == issue.factory()
+                    && previous.orderType() == issue.orderType()
+                    && Objects.equals(previous.target(), issue.target())
+                    && Objects.equals(previous.blueprintId(), issue.blueprintId())
+                    && Arrays.equals(previous.unitIds(), issue.unitIds());
+        }
 
-            playerApms.put(playerId, apms);
+        /**
+         * Closes all window steps before the given one. Each closed step ends a window, whose actions are the APM.
+         */
+        private void advanceWindow(int step) {
+            while (windowStep < step) {
+                recordWindow(windowActions);
+                windowStep++;
+                int slot = windowStep % WINDOW_STEPS;
+                windowActions -= windowStepActions[slot];
+                windowStepActions[slot] = 0;
+            }
         }
 
-        // Persist the calculated APMs back to ReplayPlayer objects
-        for (ReplayPlayer player : replay.getPlayers()) {
-            int playerId = player.getPlayerIdInReplay();
-            List<Double> playerApmsList = playerApms.getOrDefault(playerId, new ArrayList<>());
-            for (int minute = 0; minute < playerApmsList.size(); minute++) {
-                player.addApmPerMinute(minute, playerApmsList.get(minute));
+        private void recordWindow(int apm) {
+            peakApm = Math.max(peakApm, apm);
+            int bucket = apm / HISTOGRAM_BUCKET_WIDTH;
+            if (bucket >= histogram.length) {
+                histogram = Arrays.copyOf(histogram, Math.max(bucket + 1, histogram.length * 2));
             }
+            histogram[bucket]++;
+            histogramSize = Math.max(histogramSize, bucket + 1);
         }
-    }
 
-    @Override
-    public void finalizeAnalysis() {
+        private void finish(int lastTick) {
+            // Also close the step of the last tick, even if it is incomplete
+            advanceWindow(lastTick / WINDOW_STEP_TICKS + 1);
+        }
+
+        private int actions(int minute) {
+            return minute < actionsPerMinute.length ? actionsPerMinute[minute] : 0;
+        }
 
+        private int effectiveActions(int minute) {
+            return minute < effectiveActionsPerMinute.length ? effectiveActionsPerMinute[minute] : 0;
+        }
+
+        private List<Integer> histogram() {
+            List<Integer> counts = new ArrayList<>(histogramSize);
+            for (int i = 0; i < histogramSize; i++) {
+                counts.add(histogram[i]);
+            }
+            return counts;
+        }
     }
 }
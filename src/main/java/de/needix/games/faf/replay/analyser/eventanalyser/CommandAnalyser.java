@@ -1,9 +1,89 @@
 package de.needix.games.faf.replay.analyser.eventanalyser;
 
 import de.needix.games.faf.replay.analyser.parser.Command;
+import de.needix.games.faf.replay.analyser.parser.CommandType;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import de.needix.games.faf.replay.api.entities.replay.ReplayPlayer;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 public interface CommandAnalyser {
     void analyseCommand(Command command);
 
     void finalizeAnalysis();
+
+    /**
+     * @return the command types which are passed to {@link #analyseCommand(Command)}. Defaults to all types.
+     */
+    default Set<CommandType> getSubscribedCommandTypes() {
+        return EnumSet.allOf(CommandType.class);
+    }
+
+    /**
+     * @return the subscribed command types whose payload is read by this analyser. For all other types
+     * {@link Command#getData()} may be null, because the payload is skipped if no analyser needs it. Defaults to all
+     * subscribed types.
+     */
+    default Set<CommandType> getDecodedCommandTypes() {
+        return getSubscribedCommandTypes();
+    }
+
+    /**
+     * Only asked if {@link CommandType#LUA_SIM_CALLBACK} payloads are decoded for this analyser.
+     *
+     * @return true, if the Lua table of callbacks with the given name is needed
+     */
+    default boolean isLuaCallbackSubscribed(String luaName) {
+        return true;
+    }
+
+    /**
+     * Only asked if issue command payloads are decoded for this analyser.
+     *
+     * @return true, if the Lua cells of issue commands are needed
+     */
+    default boolean needsIssueCells() {
+        return true;
+    }
+
+    /**
+     * @return the name under which the version of this analyser is stored with a replay
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * @return the version of the results of this analyser. Increase it whenever the results change, so that stored
+     * replays can be reanalysed with only the changed analysers.
+     */
+    default int getVersion() {
+        return 1;
+    }
+
+    /**
+     * Replaces the results of this analyser in a stored replay with the ones of a new analysis. Only the fields owned by
+     * this analyser are touched, so the other results of the stored replay stay as they are.
+     *
+     * @param analysed a replay analysed with this analyser
+     * @param target   the stored replay to update
+     */
+    default void copyResults(Replay analysed, Replay target) {
+    }
+
+    /**
+     * Calls the action for every player of the target with the same player of the analysed replay.
+     */
+    static void forEachPlayer(Replay analysed, Replay target, BiConsumer<ReplayPlayer, ReplayPlayer> action) {
+        for (ReplayPlayer targetPlayer : target.getPlayers()) {
+            for (ReplayPlayer analysedPlayer : analysed.getPlayers()) {
+                if (analysedPlayer.getId().equals(targetPlayer.getId())) {
+                    action.accept(analysedPlayer, targetPlayer);
+                    break;
+                }
+            }
+        }
+    }
 }
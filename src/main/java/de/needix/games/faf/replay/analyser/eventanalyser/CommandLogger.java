@@ -5,20 +5,24 @@ import de.needix.games.faf.replay.analyser.parser.CommandType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Set;
 
 public class CommandLogger implements CommandAnalyser {
     private static final Logger LOGGER = LoggerFactory.getLogger(CommandLogger.class);
-    private static final Set<CommandType> COMMAND_TYPE_NOT_TO_LOG = new HashSet<>(
-            Arrays.asList(CommandType.ADVANCE, CommandType.SET_COMMAND_SOURCE));
+    private static final Set<CommandType> COMMAND_TYPE_TO_LOG = EnumSet.complementOf(
+            EnumSet.of(CommandType.ADVANCE, CommandType.SET_COMMAND_SOURCE));
+
+    @Override
+    public Set<CommandType> getSubscribedCommandTypes() {
+        // Without debug logging nothing would be logged, so nothing has to be decoded for this analyser
+        return LOGGER.isDebugEnabled() ? COMMAND_TYPE_TO_LOG : Collections.emptySet();
+    }
 
     @Override
     public void analyseCommand(Command command) {
-        if (LOGGER.isDebugEnabled() && !COMMAND_TYPE_NOT_TO_LOG.contains(command.getCommandType())) {
-            LOGGER.debug("Command: {}", command);
-        }
+        LOGGER.debug("Command: {}", command);
     }
 
     @Override
@@ -0,0 +1,108 @@
+package de.needix.games.faf.replay.analyser.eventanalyser;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.needix.games.faf.replay.analyser.parser.Command;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+
+/**
+ * Writes every command as one line of JSON (NDJSON) to an output stream while the replay is parsed, so the decoded
+ * command stream of a replay never has to be held in memory. Each line contains the tick, the player, the command type,
+ * the desync flag and the decoded payload.
+ * <p>
+ * The first command is flushed right away, afterwards the output is only flushed whenever the buffer of the JSON
+ * generator is full and at the end.
+ * <p>
+ * The last line is a status record, see {@link #writeCompleted()} and {@link #writeFailed(String)}. As the response is
+ * already committed once the first command was written, it is the only way to tell a client whether the stream is
+ * complete.
+ */
+public class CommandStreamWriter implements CommandAnalyser {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final JsonGenerator generator;
+    private long writtenCommands;
+
+    public CommandStreamWriter(OutputStream outputStream) {
+        Objects.requireNonNull(outputStream, "outputStream must not be null");
+        try {
+            this.generator = objectMapper.getFactory().createGenerator(outputStream)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // The lines are separated by the newlines written after each command
+            this.generator.setRootValueSeparator(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void analyseCommand(Command command) {
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField("tick", command.getTick());
+            generator.writeNumberField("playerId", command.getPlayerId());
+            generator.writeStringField("commandType", command.getCommandType().name());
+            generator.writeBooleanField("desync", command.isDesyncCommand());
+            generator.writeObjectField("data", command.getCommandData());
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            if (writtenCommands++ == 0) {
+                generator.flush();
+            }
+        } catch (IOException e) {
+            // Most likely the client went away, which aborts the parsing
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void finalizeAnalysis() {
+        try {
+            generator.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Ends the stream with <code>{"status":"completed","commands":...}</code>.
+     */
+    public void writeCompleted() {
+        writeStatus("completed", null);
+    }
+
+    /**
+     * Ends the stream with <code>{"status":"failed","commands":...,"error":...}</code>, the commands written before
+     * are only a part of the replay.
+     */
+    public void writeFailed(String error) {
+        writeStatus("failed", error);
+    }
+
+    private void writeStatus(String status, String error) {
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("status", status);
+            generator.writeNumberField("commands", writtenCommands);
+            if (error != null) {
+                generator.writeStringField("error", error);
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            generator.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the number of commands written so far
+     */
+    public long getWrittenCommands() {
+        return writtenCommands;
+    }
+}
@@ -1,13 +1,17 @@
 package de.needix.games.faf.replay.analyser.eventanalyser;
 
 import de.needix.games.faf.replay.analyser.parser.Command;
+import de.needix.games.faf.replay.analyser.parser.CommandData;
 import de.needix.games.faf.replay.analyser.parser.CommandType;
+import de.needix.games.faf.replay.analyser.parser.LuaTable;
 import de.needix.games.faf.replay.api.entities.replay.Replay;
 import de.needix.games.faf.replay.api.entities.replay.ReplayPlayer;
 import lombok.ToString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -15,6 +19,72 @@ import java.util.Set;
 @ToString
 public class LuaAnalyser implements CommandAnalyser {
     private static final Logger LOGGER = LoggerFactory.getLogger(LuaAnalyser.class);
+    /**
+     * Handlers by the name of the Lua callback. Callbacks which are known, but not evaluated yet are only decoded for
+     * trace logging, unknown callbacks are decoded and reported.
+     */
+    private static final Map<String, LuaCallback> LUA_CALLBACKS = new HashMap<>();
+
+    static {
+        evaluated("GiveResourcesToPlayer", LuaAnalyser::handleGiveResourcesToPlayer);
+        unevaluated("CopyOrders", LuaAnalyser::handleCopyOrders);
+        unevaluated("OnControlGroupAssign", LuaAnalyser::handleOnControlGroupAssign);
+        unevaluated("Rebuild", LuaAnalyser::handleRebuild);
+        unevaluated("RingWithStorages", LuaAnalyser::handleRingWithStorages);
+        unevaluated("AttackMove", LuaAnalyser::handleAttackMove);
+        unevaluated("ToggleSelfDestruct", LuaAnalyser::handleToggleSelfDestruct);
+        evaluated("ModeratorEvent", (analyser, command, lua) -> analyser.moderatorEventAnalyser.handleModeratorEvent(command, lua));
+        unevaluated("SetRecallVote", LuaAnalyser::handleSetRecallVote);
+        unevaluated("GiveUnitsToPlayer", LuaAnalyser::handleGiveUnitsToPlayer);
+        unevaluated("SpawnSpecialPing", LuaAnalyser::handleSpawnSpecialPing);
+        unevaluated("SpawnPing", LuaAnalyser::handleSpawnPing);
+        unevaluated("ImmediateHiveUpgrade", LuaAnalyser::handleImmediateHiveUpgrade);
+        unevaluated("UpdateMarker", LuaAnalyser::handleUpdateMarker);
+        unevaluated("AutoOvercharge", LuaAnalyser::handleAutoOvercharge);
+        unevaluated("DistributeOrders", LuaAnalyser::handleDistributeOrders);
+        unevaluated("RingWithFabricators", LuaAnalyser::handleRingWithFabricators);
+        unevaluated("ValidateAssist", LuaAnalyser::handleValidateAssist);
+        unevaluated("WeaponPriorities", LuaAnalyser::handleWeaponPriorities);
+        unevaluated("RingRadar", LuaAnalyser::handleRingRadar);
+        unevaluated("RingArtilleryTech2", LuaAnalyser::handleRingArtilleryTech2);
+        unevaluated("FlagShield", LuaAnalyser::handleFlagShield);
+        unevaluated("ClearCommands", LuaAnalyser::handleClearCommands);
+        unevaluated("SetResourceSharing", LuaAnalyser::handleSetResourceSharing);
+        unevaluated("CheatSpawnUnit", LuaAnalyser::handleCheatSpawnUnit);
+        unevaluated("ExtendAttackOrder", LuaAnalyser::handleExtendAttackOrder);
+        unevaluated("SelectHighestEngineerAndAssist", LuaAnalyser::handleSelectHighestEngineerAndAssist);
+        unevaluated("AbortNavigation", LuaAnalyser::handleAbortNavigation);
+        unevaluated("RingArtilleryTech3Exp", LuaAnalyser::handleRingArtilleryTech3Exp);
+        // TODO: PingGroupClick : {ID=1.0, Location={1.0=311.02167, 2.0=19.835938, 3.0=877.73975}}
+        unevaluated("PingGroupClick", null);
+        // TODO: DiplomacyHandler : {Action=offer, To=1.0, From=2.0}
+        unevaluated("DiplomacyHandler", null);
+        // TODO: SetOfferDraw : {Army=4.0, Value=true}
+        unevaluated("SetOfferDraw", null);
+        // TODO: OnPlayerQuery : {Args={ID=4.0, Volunteered=1.0}, To=-1.0, From=4.0, MsgId=2.0, Name=VolunteerVote}
+        unevaluated("OnPlayerQuery", null);
+        // TODO LoadIntoTransports : {ClearCommands=true}
+        unevaluated("LoadIntoTransports", null);
+        // TODO RequestAlliedVictory : {Army=6.0, Value=false}
+        unevaluated("RequestAlliedVictory", null);
+        // TODO GiveOrders : {From=1.0, unit_orders={1.0={CommandType=Move, Position={1.0=216.43355, 2.0=18.972656, 3.0=648.32074}}, 2.0={CommandType=Move, Position={1.0=214.43355, 2.0=18.972656, 3.0=650.32074}}, 3.0={CommandType=Move, Position={1.0=214.43355, 2.0=18.972656, 3.0=646.32074}}, 4.0={CommandType=Move, Position={1.0=218.43355, 2.0=18.972656, 3.0=646.32074}}, 5.0={CommandType=Move, Position={1.0=218.43355, 2.0=18.972656, 3.0=650.32074}}, 6.0={CommandType=Move, Position={1.0=214.43355, 2.0=18.972656, 3.0=650.32074}}, 7.0={EntityId=18, CommandType=Guard}}, unit_id=5}
+        unevaluated("GiveOrders", null);
+        // TODO SetStatByCallback : {AutoDeploy=true}
+        unevaluated("SetStatByCallback", null);
+        // TODO SimDialogueButtonPress : {presser=7.0, buttonID=1.0, ID=1.0}
+        unevaluated("SimDialogueButtonPress", null);
+        // TODO ToggleVeteranBuilding2 : {owner=1.0, units={1.0=247, 2.0=62, 3.0=241, 4.0=54, 6.0=88, 8.0=244, 12.0=50, 16.0=251, 17.0=94, 9.0=136, 13.0=180, 18.0=252, 19.0=207, 5.0=32, 7.0=25, 10.0=214, 14.0=176, 20.0=212, 11.0=48, 15.0=239}}
+        unevaluated("ToggleVeteranBuilding2", null);
+        // TODO BoxFormationSpawn : {army=1.0, MeshOnly=false, pos={1.0=448.92157, 2.0=23.0, 3.0=686.98254}, UnitIconCameraMode=false, veterancy=0.0, bpId=led0019, count=1.0, CreateTarmac=true, yaw=360.0}
+        unevaluated("BoxFormationSpawn", null);
+        // TODO SyncValueFromUi : {Specialization=ALL, id=36, AffectName=ArmorPerc}
+        unevaluated("SyncValueFromUi", null);
+        // TODO SpawnFireSupport : {ArmyIndex=4.0, pos={1.0=603.9528, 2.0=20.070312, 3.0=420.832}, yes=true, id=uafsas1001}
+        unevaluated("SpawnFireSupport", null);
+        // TODO ShareablePainting={PaintingAdapterIdentifier=table: 20B52500, ShareId=1.0, PeerName=flyingpancake, Samples={2.0=29.28595, 8.0=31.242249, 32.0=31.46875, 33.0=803.8864, 34.0=686.038, 35.0=31.484375, 9.0=876.1807, 36.0=784.9886, 37.0=684.3175, 38.0=31.476562, 39.0=778.08746, 10.0=651.0537, 40.0=685.19116, 41.0=31.460938, 42.0=771.6006, 43.0=687.8022, 11.0=31.34375, 44.0=31.434814, 45.0=764.6601, 46.0=688.2467, 47.0=31.390747, 3.0=875.5052, 12.0=874.9199, 48.0=759.0112, 49.0=687.828, 50.0=31.308289, 51.0=750.73157, 13.0=662.09814, 52.0=683.051, 53.0=31.258179, 54.0=745.0475, 55.0=665.2069, 14.0=31.343018, 56.0=31.320312, 57.0=737.1775, 58.0=607.667, 59.0=31.300781, 15.0=872.8294, 60.0=732.79224, 61.0=592.94885, 62.0=31.273438, 63.0=739.80023, 4.0=593.54016, 1.0=592.5736, 16.0=671.0253, 64.0=568.0009, 65.0=31.257812, 66.0=755.51697, 67.0=556.3766, 17.0=31.335938, 68.0=31.197327, 69.0=760.7332, 70.0=542.6323, 71.0=30.683472, 18.0=869.0661, 72.0=770.6821, 73.0=537.4807, 74.0=30.015076, 75.0=778.00757, 19.0=673.1522, 76.0=536.848, 77.0=30.658691, 78.0=782.36206, 79.0=536.1017, 5.0=30.187927, 20.0=31.335938, 80.0=30.978577, 81.0=802.1598, 82.0=531.7509, 83.0=30.941345, 21.0=866.1372, 84.0=817.5486, 85.0=531.0696, 86.0=30.907959, 87.0=824.78937, 22.0=676.9804, 88.0=532.11127, 89.0=30.901917, 90.0=832.012, 91.0=534.4702, 23.0=31.34375, 92.0=31.00946, 93.0=839.63403, 94.0=538.0826, 95.0=31.141846, 6.0=875.8472, 24.0=858.1631, 96.0=846.387, 97.0=544.6581, 98.0=31.232788, 99.0=852.70435, 25.0=687.2763, 100.0=570.9406, 101.0=31.265625, 102.0=865.30237, 103.0=578.2623, 26.0=31.43335, 104.0=31.273438, 105.0=869.9096, 106.0=586.78394, 107.0=30.985535, 27.0=820.5325, 108.0=872.8576, 109.0=588.6523, 110.0=28.94757, 111.0=873.0183, 7.0=595.79315, 28.0=688.15027, 112.0=594.3026, 113.0=29.837097, 114.0=872.9481, 115.0=599.14905, 29.0=31.453125, 116.0=31.290283, 117.0=872.4174, 30.0=812.00616, 31.0=688.1647}}
+        unevaluated("SharePaintingBrushStroke", null);
+    }
+
     private final Replay replayToFill;
     private final ModeratorEventAnalyser moderatorEventAnalyser;
 
@@ -23,162 +93,68 @@ public class LuaAnalyser implements CommandAnalyser {
         this.moderatorEventAnalyser = new ModeratorEventAnalyser(replayToFill);
     }
 
+    @Override
+    public Set<CommandType> getSubscribedCommandTypes() {
+        return EnumSet.of(CommandType.LUA_SIM_CALLBACK);
+    }
+
+    @Override
+    public boolean isLuaCallbackSubscribed(String luaName) {
+        // Unknown callbacks are still decoded, so that they are reported
+        LuaCallback luaCallback = LUA_CALLBACKS.get(luaName);
+        return LOGGER.isTraceEnabled() || luaCallback == null || luaCallback.evaluated();
+    }
+
     @Override
     public void analyseCommand(Command command) {
-        if (command.getCommandType() != CommandType.LUA_SIM_CALLBACK) {
+        if (!(command.getData() instanceof CommandData.LuaSimCallbackCommand luaSimCallback)) {
             return;
         }
 
-        Map<String, Object> commandData = command.getCommandData();
-        Object luaObject = commandData.get("lua");
-        if (!(luaObject instanceof Map)) {
-            LOGGER.debug("Lua object is not a map and will not be handled: {}", luaObject);
+        Object luaObject = luaSimCallback.lua();
+        if (!(luaObject instanceof LuaTable lua)) {
+            LOGGER.debug("Lua object is not a table and will not be handled: {}", luaObject);
             return;
         }
-        Map<Object, Object> lua = (Map<Object, Object>) luaObject;
-        String luaName = commandData.get("lua_name").toString();
-        switch (luaName) {
-            case "GiveResourcesToPlayer":
-                handleGiveResourcesToPlayer(command, lua);
-                break;
-            case "CopyOrders":
-                handleCopyOrders(command, lua);
-                break;
-            case "OnControlGroupAssign":
-                handleOnControlGroupAssign(command, lua);
-                break;
-            case "Rebuild":
-                handleRebuild(command, lua);
-                break;
-            case "RingWithStorages":
-                handleRingWithStorages(command, lua);
-                break;
-            case "AttackMove":
-                handleAttackMove(command, lua);
-                break;
-            case "ToggleSelfDestruct":
-                handleToggleSelfDestruct(command, lua);
-                break;
-            case "ModeratorEvent":
-                moderatorEventAnalyser.handleModeratorEvent(command, lua);
-                break;
-            case "SetRecallVote":
-                handleSetRecallVote(command, lua);
-                break;
-            case "GiveUnitsToPlayer":
-                handleGiveUnitsToPlayer(command, lua);
-                break;
-            case "SpawnSpecialPing":
-                handleSpawnSpecialPing(command, lua);
-                break;
-            case "SpawnPing":
-                handleSpawnPing(command, lua);
-                break;
-            case "ImmediateHiveUpgrade":
-                handleImmediateHiveUpgrade(command, lua);
-                break;
-            case "UpdateMarker":
-                handleUpdateMarker(command, lua);
-                break;
-            case "AutoOvercharge":
-                handleAutoOvercharge(command, lua);
-                break;
-            case "DistributeOrders":
-                handleDistributeOrders(command, lua);
-                break;
-            case "RingWithFabricators":
-                handleRingWithFabricators(command, lua);
-                break;
-            case "ValidateAssist":
-                handleValidateAssist(command, lua);
-                break;
-            case "WeaponPriorities":
-                handleWeaponPriorities(command, lua);
-                break;
-            case "RingRadar":
-                handleRingRadar(command, lua);
-                break;
-            case "RingArtilleryTech2":
-                handleRingArtilleryTech2(command, lua);
-                break;
-            case "FlagShield":
-                handleFlagShield(command, lua);
-                break;
-            case "ClearCommands":
-                handleClearCommands(command, lua);
-                break;
-            case "SetResourceSharing":
-                handleSetResourceSharing(command, lua);
-                break;
-            case "CheatSpawnUnit":
-                handleCheatSpawnUnit(command, lua);
-                break;
-            case "ExtendAttackOrder":
-                handleExtendAttackOrder(command, lua);
-                break;
-            case "SelectHighestEngineerAndAssist":
-                handleSelectHighestEngineerAndAssist(command, lua);
-                break;
-            case "AbortNavigation":
-                handleAbortNavigation(command, lua);
-                break;
-            case "RingArtilleryTech3Exp":
-                handleRingArtilleryTech3Exp(command, lua);
-                break;
-            case "PingGroupClick":
-                // TODO: PingGroupClick : {ID=1.0, Location={1.0=311.02167, 2.0=19.835938, 3.0=877.73975}}
-                break;
-            case "DiplomacyHandler":
-                // TODO: DiplomacyHandler : {Action=offer, To=1.0, From=2.0}
-                break;
-            case "SetOfferDraw":
-                // TODO: SetOfferDraw : {Army=4.0, Value=true}
-                break;
-            case "OnPlayerQuery":
-                // TODO: OnPlayerQuery : {Args={ID=4.0, Volunteered=1.0}, To=-1.0, From=4.0, MsgId=2.0, Name=VolunteerVote}
-                break;
-            case "LoadIntoTransports":
-                // TODO LoadIntoTransports : {ClearCommands=true}
-                break;
-            case "RequestAlliedVictory":
-                // TODO RequestAlliedVictory : {Army=6.0, Value=false}
-                break;
-            case "GiveOrders":
-                // TODO GiveOrders : {From=1.0, unit_orders={1.0={CommandType=Move, Position={1.0=216.43355, 2.0=18.972656, 3.0=648.32074}}, 2.0={CommandType=Move, Position={1.0=214.43355, 2.0=18.972656, 3.0=650.32074}}, 3.0={CommandType=Move, Position={1.0=214.43355, 2.0=18.972656, 3.0=646.32074}}, 4.0={CommandType=Move, Position={1.0=218.43355, 2.0=18.972656, 3.0=646.32074}}, 5.0={CommandType=Move, Position={1.0=218.43355, 2.0=18.972656, 3.0=650.32074}}, 6.0={CommandType=Move, Position={1.0=214.43355, 2.0=18.972656, 3.0=650.32074}}, 7.0={EntityId=18, CommandType=Guard}}, unit_id=5}
-                break;
-            case "SetStatByCallback":
-                // TODO SetStatByCallback : {AutoDeploy=true}
-                break;
-            case "SimDialogueButtonPress":
-                // TODO SimDialogueButtonPress : {presser=7.0, buttonID=1.0, ID=1.0}
-                break;
-            case "ToggleVeteranBuilding2":
-                // TODO ToggleVeteranBuilding2 : {owner=1.0, units={1.0=247, 2.0=62, 3.0=241, 4.0=54, 6.0=88, 8.0=244, 12.0=50, 16.0=251, 17.0=94, 9.0=136, 13.0=180, 18.0=252, 19.0=207, 5.0=32, 7.0=25, 10.0=214, 14.0=176, 20.0=212, 11.0=48, 15.0=239}}
-                break;
-            case "BoxFormationSpawn":
-                // TODO BoxFormationSpawn : {army=1.0, MeshOnly=false, pos={1.0=448.92157, 2.0=23.0, 3.0=686.98254}, UnitIconCameraMode=false, veterancy=0.0, bpId=led0019, count=1.0, CreateTarmac=true, yaw=360.0}
-                break;
-            case "SyncValueFromUi":
-                // TODO SyncValueFromUi : {Specialization=ALL, id=36, AffectName=ArmorPerc}
-                break;
-            case "SpawnFireSupport":
-                // TODO SpawnFireSupport : {ArmyIndex=4.0, pos={1.0=603.9528, 2.0=20.070312, 3.0=420.832}, yes=true, id=uafsas1001}
-                break;
-            case "SharePaintingBrushStroke":
-                // TODO ShareablePainting={PaintingAdapterIdentifier=table: 20B52500, ShareId=1.0, PeerName=flyingpancake, Samples={2.0=29.28595, 8.0=31.242249, 32.0=31.46875, 33.0=803.8864, 34.0=686.038, 35.0=31.484375, 9.0=876.1807, 36.0=784.9886, 37.0=684.3175, 38.0=31.476562, 39.0=778.08746, 10.0=651.0537, 40.0=685.19116, 41.0=31.460938, 42.0=771.6006, 43.0=687.8022, 11.0=31.34375, 44.0=31.434814, 45.0=764.6601, 46.0=688.2467, 47.0=31.390747, 3.0=875.5052, 12.0=874.9199, 48.0=759.0112, 49.0=687.828, 50.0=31.308289, 51.0=750.73157, 13.0=662.09814, 52.0=683.051, 53.0=31.258179, 54.0=745.0475, 55.0=665.2069, 14.0=31.343018, 56.0=31.320312, 57.0=737.1775, 58.0=607.667, 59.0=31.300781, 15.0=872.8294, 60.0=732.79224, 61.0=592.94885, 62.0=31.273438, 63.0=739.80023, 4.0=593.54016, 1.0=592.5736, 16.0=671.0253, 64.0=568.0009, 65.0=31.257812, 66.0=755.51697, 67.0=556.3766, 17.0=31.335938, 68.0=31.197327, 69.0=760.7332, 70.0=542.6323, 71.0=30.683472, 18.0=869.0661, 72.0=770.6821, 73.0=537.4807, 74.0=30.015076, 75.0=778.00757, 19.0=673.1522, 76.0=536.848, 77.0=30.658691, 78.0=782.36206, 79.0=536.1017, 5.0=30.187927, 20.0=31.335938, 80.0=30.978577, 81.0=802.1598, 82.0=531.7509, 83.0=30.941345, 21.0=866.1372, 84.0=817.5486, 85.0=531.0696, 86.0=30.907959, 87.0=824.78937, 22.0=676.9804, 88.0=532.11127, 89.0=30.901917, 90.0=832.012, 91.0=534.4702, 23.0=31.34375, 92.0=31.00946, 93.0=839.63403, 94.0=538.0826, 95.0=31.141846, 6.0=875.8472, 24.0=858.1631, 96.0=846.387, 97.0=544.6581, 98.0=31.232788, 99.0=852.70435, 25.0=687.2763, 100.0=570.9406, 101.0=31.265625, 102.0=865.30237, 103.0=578.2623, 26.0=31.43335, 104.0=31.273438, 105.0=869.9096, 106.0=586.78394, 107.0=30.985535, 27.0=820.5325, 108.0=872.8576, 109.0=588.6523, 110.0=28.94757, 111.0=873.0183, 7.0=595.79315, 28.0=688.15027, 112.0=594.3026, 113.0=29.837097, 114.0=872.9481, 115.0=599.14905, 29.0=31.453125, 116.0=31.290283, 117.0=872.4174, 30.0=812.00616, 31.0=688.1647}}
-                break;
-            default:
-                LOGGER.warn("Unknown Lua function: {} : {}", luaName, lua);
-                break;
+        String luaName = luaSimCallback.luaName();
+        LuaCallback luaCallback = LUA_CALLBACKS.get(luaName);
+        if (luaCallback == null) {
+            LOGGER.warn("Unknown Lua function: {} : {}", luaName, lua);
+        } else if (luaCallback.handler() != null) {
+            luaCallback.handler().handle(this, command, lua);
         }
     }
 
+    private static void evaluated(String luaName, LuaCallbackHandler handler) {
+        LUA_CALLBACKS.put(luaName, new LuaCallback(true, handler));
+    }
+
+    /**
+     * @param handler null, if the callback is not handled at all yet
+     */
+    private static void unevaluated(String luaName, LuaCallbackHandler handler) {
+        LUA_CALLBACKS.put(luaName, new LuaCallback(false, handler));
+    }
+
     @Override
     public void finalizeAnalysis() {
 
     }
 
-    private void handleGiveResourcesToPlayer(Command command, Map<Object, Object> lua) {
+    @Override
+    public void copyResults(Replay analysed, Replay target) {
+        target.getChatMessages().clear();
+        target.getChatMessages().addAll(analysed.getChatMessages());
+        CommandAnalyser.forEachPlayer(analysed, target, (analysedPlayer, targetPlayer) -> {
+            targetPlayer.setVictory(analysedPlayer.getVictory());
+            targetPlayer.setMassShared(analysedPlayer.getMassShared());
+            targetPlayer.setEnergyShared(analysedPlayer.getEnergyShared());
+            targetPlayer.setMassReceived(analysedPlayer.getMassReceived());
+            targetPlayer.setEnergyReceived(analysedPlayer.getEnergyReceived());
+        });
+    }
+
+    private void handleGiveResourcesToPlayer(Command command, LuaTable lua) {
         Map<String, Object> msgData = (Map<String, Object>) lua.get("Msg");
         Object sender = lua.get("Sender");
 
@@ -189,18 +165,18 @@ public class LuaAnalyser implements CommandAnalyser {
                 LOGGER.warn("Sender is null for GiveResourcesToPlayer: {}", msgData);
             }
         } else {
-            int toId = ((Float) lua.get("To")).intValue();
-            int fromId = ((Float) lua.get("From")).intValue();
-            float energy = (float) lua.get("Energy");
-            float mass = (float) lua.get("Mass");
+            int toId = (int) lua.getNumber("To", 0);
+            int fromId = (int) lua.getNumber("From", 0);
+            float energy = lua.getNumber("Energy", 0);
+            float mass = lua.getNumber("Mass", 0);
 
-            ReplayPlayer fromPlayer = fromId - 1 < replayToFill.getPlayers().size() ? replayToFill.getPlayers().get(fromId - 1) : null;
+            ReplayPlayer fromPlayer = fromId > 0 && fromId - 1 < replayToFill.getPlayers().size() ? replayToFill.getPlayers().get(fromId - 1) : null;
             if (fromPlayer != null) {
                 fromPlayer.increaseEnergyShared(energy);
                 fromPlayer.increaseMassShared(mass);
                 LOGGER.debug("Increased energy and mass shared by player {} by {} and {} respectively", fromId, energy, mass);
             }
-            ReplayPlayer toPlayer = toId - 1 < replayToFill.getPlayers().size() ? replayToFill.getPlayers().get(toId - 1) : null;
+            ReplayPlayer toPlayer = toId > 0 && toId - 1 < replayToFill.getPlayers().size() ? replayToFill.getPlayers().get(toId - 1) : null;
             if (toPlayer != null) {
                 toPlayer.increaseMassReceived(mass);
                 toPlayer.increaseEnergyReceived(energy);
@@ -209,7 +185,7 @@ public class LuaAnalyser implements CommandAnalyser {
         }
     }
 
-    private void handleCopyOrders(Command command, Map<Object, Object> lua) {
+    private void handleCopyOrders(Command command, LuaTable lua) {
         // TODO:
         /*
         "ClearCommands" -> {Boolean@1505} true
@@ -222,7 +198,7 @@ public class LuaAnalyser implements CommandAnalyser {
         }
     }
 
-    private void handleOnControlGroupAssign(Command command, Map<Object, Object> lua) {
+    private void handleOnControlGroupAssign(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("OnControlGroupAssign: {}", lua);
         /*
@@ -232,7 +208,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleRebuild(Command command, Map<Object, Object> lua) {
+    private void handleRebuild(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("Rebuild: {}", lua);
         /*
@@ -241,7 +217,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleRingWithStorages(Command command, Map<Object, Object> lua) {
+    private void handleRingWithStorages(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("RingWithStorages: {}", lua);
         /*
@@ -249,7 +225,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleAttackMove(Command command, Map<Object, Object> lua) {
+    private void handleAttackMove(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("AttackMove: {}", lua);
         /*
@@ -257,7 +233,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleToggleSelfDestruct(Command command, Map<Object, Object> lua) {
+    private void handleToggleSelfDestruct(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("ToggleSelfDestruct: {}", lua);
         /*
@@ -265,7 +241,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleSetRecallVote(Command command, Map<Object, Object> lua) {
+    private void handleSetRecallVote(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("SetRecallVote: {}", lua);
         /*
@@ -273,7 +249,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleGiveUnitsToPlayer(Command command, Map<Object, Object> lua) {
+    private void handleGiveUnitsToPlayer(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("GiveUnitsToPlayer: {}", lua);
         /*
@@ -281,7 +257,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleSpawnSpecialPing(Command command, Map<Object, Object> lua) {
+    private void handleSpawnSpecialPing(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("SpawnSpecialPing: {}", lua);
         /*
@@ -289,7 +265,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleSpawnPing(Command command, Map<Object, Object> lua) {
+    private void handleSpawnPing(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("SpawnPing: {}", lua);
         /*
@@ -297,7 +273,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleImmediateHiveUpgrade(Command command, Map<Object, Object> lua) {
+    private void handleImmediateHiveUpgrade(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("ImmediateHiveUpgrade: {}", lua);
         /*
@@ -305,7 +281,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleUpdateMarker(Command command, Map<Object, Object> lua) {
+    private void handleUpdateMarker(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("UpdateMarker: {}", lua);
         /*
@@ -313,7 +289,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleAutoOvercharge(Command command, Map<Object, Object> lua) {
+    private void handleAutoOvercharge(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("AutoOvercharge: {}", lua);
         /*
@@ -321,7 +297,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleDistributeOrders(Command command, Map<Object, Object> lua) {
+    private void handleDistributeOrders(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("DistributeOrders: {}", lua);
         /*
@@ -329,7 +305,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleRingWithFabricators(Command command, Map<Object, Object> lua) {
+    private void handleRingWithFabricators(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("RingWithFabricators: {}", lua);
         /*
@@ -337,7 +313,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleValidateAssist(Command command, Map<Object, Object> lua) {
+    private void handleValidateAssist(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("ValidateAssist: {}", lua);
         /*
@@ -345,7 +321,7 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleWeaponPriorities(Command command, Map<Object, Object> lua) {
+    private void handleWeaponPriorities(Command command, LuaTable lua) {
         // TODO:
         LOGGER.trace("WeaponPriorities: {}", lua);
         /*
@@ -353,52 +329,62 @@ public class LuaAnalyser implements CommandAnalyser {
          */
     }
 
-    private void handleRingRadar(Command command, Map<Object, Object> lua) {
+    private void handleRingRadar(Command command, LuaTable lua) {
         // TODO:
 
     }
 
-    private void handleRingArtilleryTech2(Command command, Map<Object, Object> lua) {
+    private void handleRingArtilleryTech2(Command command, LuaTable lua) {
         // TODO:
     }
 
-    private void handleFlagShield(Command command, Map<Object, Object> lua) {
+    private void handleFlagShield(Command command, LuaTable lua) {
         // TODO:
         // {target=150}
     }
 
-    private void handleClearCommands(Command command, Map<Object, Object> lua) {
+    private void handleClearCommands(Command command, LuaTable lua) {
         // TODO:
         // {ids={}}
     }
 
-    private void handleSetResourceSharing(Command command, Map<Object, Object> lua) {
+    private void handleSetResourceSharing(Command command, LuaTable lua) {
         // TODO:
         // {Army=4.0, Value=false}
     }
 
-    private void handleCheatSpawnUnit(Command command, Map<Object, Object> lua) {
+    private void handleCheatSpawnUnit(Command command, LuaTable lua) {
         // TODO:
         // {rand=0.0, army=1.0, pos={1.0=394.5, 2.0=74.259766, 3.0=962.5}, bpId=xrl0302, veterancy=0.0, count=1.0, yaw=6.283185}
     }
 
-    private void handleExtendAttackOrder(Command command, Map<Object, Object> lua) {
+    private void handleExtendAttackOrder(Command command, LuaTable lua) {
         // TODO:
         // {Origin={1.0=968.8932, 2.0=17.5, 3.0=570.55066}, Radius=4.2142015}
     }
 
-    private void handleSelectHighestEngineerAndAssist(Command command, Map<Object, Object> lua) {
+    private void handleSelectHighestEngineerAndAssist(Command command, LuaTable lua) {
         // TODO:
         //{TargetId=9437213}
     }
 
-    private void handleAbortNavigation(Command command, Map<Object, Object> lua) {
+    private void handleAbortNavigation(Command command, LuaTable lua) {
         // TODO:
         // {}
     }
 
-    private void handleRingArtilleryTech3Exp(Command command, Map<Object, Object> lua) {
+    private void handleRingArtilleryTech3Exp(Command command, LuaTable lua) {
         // TODO:
         // {target=7340072}
     }
+
+    private interface LuaCallbackHandler {
+        void handle(LuaAnalyser analyser, Command command, LuaTable lua);
+    }
+
+    /**
+     * @param evaluated whether the handler contributes to the analysis, otherwise the callback is skipped undecoded
+     */
+    private record LuaCallback(boolean evaluated, LuaCallbackHandler handler) {
+    }
 }
@@ -1,12 +1,15 @@
 package de.needix.games.faf.replay.analyser.eventanalyser;
 
 import de.needix.games.faf.replay.analyser.parser.Command;
+import de.needix.games.faf.replay.analyser.parser.CommandData;
 import de.needix.games.faf.replay.analyser.parser.CommandParser;
 import de.needix.games.faf.replay.analyser.parser.CommandType;
+import de.needix.games.faf.replay.analyser.parser.Vector3;
 import de.needix.games.faf.replay.api.entities.order.TargetOrder;
 import de.needix.games.faf.replay.api.entities.replay.Replay;
 
-import java.util.Map;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class MoveOrderAnalyser implements CommandAnalyser {
     private final Replay replay;
@@ -16,32 +19,31 @@ public class MoveOrderAnalyser implements CommandAnalyser {
     }
 
     @Override
-    public void analyseCommand(Command command) {
-        if (command.getCommandType() != CommandType.ISSUE_COMMAND) {
-            return;
-        }
-
-        Map<String, Object> commandData = command.getCommandData();
-        Map<String, Object> completeCommandData = (Map<String, Object>) commandData.get("cmd_data");
-        if (completeCommandData == null) {
-            return;
-        }
+    public Set<CommandType> getSubscribedCommandTypes() {
+        return EnumSet.of(CommandType.ISSUE_COMMAND);
+    }
 
-        CommandParser.CommandOrderType commandOrderType = (CommandParser.CommandOrderType) completeCommandData.get("command_type");
+    @Override
+    public boolean needsIssueCells() {
+        return false;
+    }
 
-        Map<String, Object> targetData = (Map<String, Object>) completeCommandData.get("target");
-        if (targetData == null) {
+    @Override
+    public void analyseCommand(Command command) {
+        if (command.getCommandType() != CommandType.ISSUE_COMMAND
+                || !(command.getData() instanceof CommandData.IssueCommand issueCommand)) {
             return;
         }
 
-        Map<String, Object> targetPositionData = (Map<String, Object>) targetData.get("position");
-        if (targetPositionData == null) {
+        Vector3 targetPosition = issueCommand.target().position();
+        if (targetPosition == null) {
             return;
         }
 
-        float x = (float) targetPositionData.get("x");
-        float y = (float) targetPositionData.get("y");
-        float z = (float) targetPositionData.get("z");
+        CommandParser.CommandOrderType commandOrderType = issueCommand.orderType();
+        float x = targetPosition.x();
+        float y = targetPosition.y();
+        float z = targetPosition.z();
 
         TargetOrder targetOrder = TargetOrder.builder()
                 .orderType(commandOrderType).targetX(x).targetY(y).targetZ(z).tick(command.getTick())
@@ -49,6 +51,14 @@ public class MoveOrderAnalyser implements CommandAnalyser {
         replay.getPlayers().get(command.getPlayerId()).addTargetOrder(targetOrder);
     }
 
+    @Override
+    public void copyResults(Replay analysed, Replay target) {
+        CommandAnalyser.forEachPlayer(analysed, target, (analysedPlayer, targetPlayer) -> {
+            targetPlayer.getTargetOrders().clear();
+            targetPlayer.getTargetOrders().addAll(analysedPlayer.getTargetOrders());
+        });
+    }
+
     @Override
     public void finalizeAnalysis() {
 
@@ -3,6 +3,7 @@ package de.needix.games.faf.replay.analyser.parser;
 import lombok.Getter;
 import lombok.ToString;
 
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -14,14 +15,24 @@ public class Command {
     private final int tick;
     private final CommandType commandType;
     private final int playerId;
-    private final Map<String, Object> commandData;
+    /**
+     * The decoded payload. Null, if no analyser needed the payload and it was skipped.
+     */
+    private final CommandData data;
     private final boolean isDesyncCommand;
 
-    public Command(int tick, boolean isDesyncCommand, CommandType commandType, int playerId, Map<String, Object> commandData) {
+    public Command(int tick, boolean isDesyncCommand, CommandType commandType, int playerId, CommandData data) {
         this.tick = tick;
         this.isDesyncCommand = isDesyncCommand;
         this.commandType = commandType;
         this.playerId = playerId;
-        this.commandData = commandData;
+        this.data = data;
+    }
+
+    /**
+     * @return the payload in its untyped map form, which is built on every call. Prefer {@link #getData()}.
+     */
+    public Map<String, Object> getCommandData() {
+        return data == null ? Collections.emptyMap() : data.toMap();
     }
 }
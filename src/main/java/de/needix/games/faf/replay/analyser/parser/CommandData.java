@@ -0,0 +1,347 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import java.util.*;
+
+/**
+ * Typed payload of a replay command. There is one record per {@link CommandType}; payloads without any data are
+ * singletons.
+ * <p>
+ * {@link #toMap()} converts the payload into the untyped map form which was used before the typed model existed. It is
+ * only meant for consumers which still need that form, the parser itself never builds these maps.
+ */
+public sealed interface CommandData {
+
+    /**
+     * @return the payload in its untyped, map based form
+     */
+    Map<String, Object> toMap();
+
+    private static Map<String, Object> typedMap(String type) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("type", type);
+        return result;
+    }
+
+    private static Map<String, Object> entityIdsSetMap(int[] unitIds) {
+        List<Integer> unitIdList = new ArrayList<>(unitIds.length);
+        for (int unitId : unitIds) {
+            unitIdList.add(unitId);
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("units_number", unitIds.length);
+        result.put("unit_ids", unitIdList);
+        return result;
+    }
+
+    record AdvanceCommand(int advance) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("advance");
+            result.put("advance", advance);
+            return result;
+        }
+    }
+
+    record SetCommandSourceCommand(int playerId) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("set_command_source");
+            result.put("player_id", playerId);
+            return result;
+        }
+    }
+
+    record CommandSourceTerminatedCommand() implements CommandData {
+        public static final CommandSourceTerminatedCommand INSTANCE = new CommandSourceTerminatedCommand();
+
+        @Override
+        public Map<String, Object> toMap() {
+            return typedMap("command_source_terminated");
+        }
+    }
+
+    /**
+     * @param checksumHigh the first 8 of the 16 checksum bytes, big-endian
+     * @param checksumLow  the last 8 of the 16 checksum bytes, big-endian
+     */
+    record VerifyChecksumCommand(long checksumHigh, long checksumLow, int tick) implements CommandData {
+        private static final HexFormat HEX_FORMAT = HexFormat.of().withUpperCase();
+
+        /**
+         * @return true, if both commands carry the same checksum
+         */
+        public boolean hasSameChecksum(VerifyChecksumCommand other) {
+            return checksumHigh == other.checksumHigh && checksumLow == other.checksumLow;
+        }
+
+        /**
+         * @return the checksum as 32 upper case hex digits, built on every call
+         */
+        public String checksum() {
+            return HEX_FORMAT.toHexDigits(checksumHigh) + HEX_FORMAT.toHexDigits(checksumLow);
+        }
+
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("verify_checksum");
+            result.put("checksum", checksum());
+            result.put("tick", tick);
+            return result;
+        }
+    }
+
+    record RequestPauseCommand() implements CommandData {
+        public static final RequestPauseCommand INSTANCE = new RequestPauseCommand();
+
+        @Override
+        public Map<String, Object> toMap() {
+            return typedMap("request_pause");
+        }
+    }
+
+    record ResumeCommand() implements CommandData {
+        public static final ResumeCommand INSTANCE = new ResumeCommand();
+
+        @Override
+        public Map<String, Object> toMap() {
+            return typedMap("resume");
+        }
+    }
+
+    record SingleStepCommand() implements CommandData {
+        public static final SingleStepCommand INSTANCE = new SingleStepCommand();
+
+        @Override
+        public Map<String, Object> toMap() {
+            return typedMap("single_step");
+        }
+    }
+
+    record CreateUnitCommand(int armyIndex, String blueprintId, Vector3 position) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("create_unit");
+            result.put("army_index", armyIndex);
+            result.put("blueprint_id", blueprintId);
+            result.put("vector", position.toMap());
+            return result;
+        }
+    }
+
+    record CreatePropCommand(String name, Vector3 position) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("create_prop");
+            result.put("name", name);
+            result.put("vector", position.toMap());
+            return result;
+        }
+    }
+
+    record DestroyEntityCommand(int entityId) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("destroy_entity");
+            result.put("entity_id", entityId);
+            return result;
+        }
+    }
+
+    record WarpEntityCommand(int entityId, Vector3 position) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("warp_entity");
+            result.put("entity_id", entityId);
+            result.put("vector", position.toMap());
+            return result;
+        }
+    }
+
+    record ProcessInfoPairCommand(int entityId, String arg1, String arg2) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("process_info_pair");
+            result.put("entity_id", entityId);
+            result.put("arg1", arg1);
+            result.put("arg2", arg2);
+            return result;
+        }
+    }
+
+    /**
+     * Used for {@link CommandType#ISSUE_COMMAND} and {@link CommandType#ISSUE_FACTORY_COMMAND}.
+     *
+     * @param formation may be null, if the order was not given in formation
+     * @param arg4      null, if the cells were not decoded
+     * @param cells     the decoded Lua cells, may be null
+     */
+    record IssueCommand(boolean factory, int[] unitIds, int commandId, int arg1,
+                        CommandParser.CommandOrderType orderType, int arg2, Target target, boolean arg3,
+                        Formation formation, String blueprintId, byte[] arg4, Object cells) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> commandData = new HashMap<>();
+            commandData.put("command_id", commandId);
+            commandData.put("arg1", arg1);
+            commandData.put("command_type", orderType);
+            commandData.put("arg2", arg2);
+            commandData.put("target", target.toMap());
+            commandData.put("arg3", arg3);
+            commandData.put("formation", formation == null ? null : formation.toMap());
+            commandData.put("blueprint_id", blueprintId);
+            commandData.put("arg4", arg4);
+            commandData.put("arg5", null);
+            commandData.put("cells", cells);
+
+            Map<String, Object> result = typedMap(factory ? "factory_issue" : "issue");
+            result.put("entity_ids_set", entityIdsSetMap(unitIds));
+            result.put("cmd_data", commandData);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "IssueCommand[factory=" + factory + ", unitIds=" + Arrays.toString(unitIds) + ", commandId=" + commandId
+                    + ", orderType=" + orderType + ", target=" + target + ", formation=" + formation
+                    + ", blueprintId=" + blueprintId + ", cells=" + cells + "]";
+        }
+    }
+
+    record IncreaseCommandCountCommand(int commandId, int delta) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("command_count_increase");
+            result.put("command_id", commandId);
+            result.put("delta", delta);
+            return result;
+        }
+    }
+
+    record DecreaseCommandCountCommand(int commandId, int delta) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("command_count_decrease");
+            result.put("command_id", commandId);
+            result.put("delta", delta);
+            return result;
+        }
+    }
+
+    record SetCommandTargetCommand(int commandId, Target target) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("set_command_target");
+            result.put("command_id", commandId);
+            result.put("target", target.toMap());
+            return result;
+        }
+    }
+
+    record SetCommandTypeCommand(int commandId, int targetId) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("set_command_type");
+            result.put("command_id", commandId);
+            result.put("target_id", targetId);
+            return result;
+        }
+    }
+
+    record SetCommandCellsCommand(int commandId, Object cells, Vector3 position) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("set_command_cells");
+            result.put("command_id", commandId);
+            result.put("cells", cells);
+            result.put("vector", position.toMap());
+            return result;
+        }
+    }
+
+    record RemoveCommandFromQueueCommand(int commandId, int unitId) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("remove_from_queue");
+            result.put("command_id", commandId);
+            result.put("unit_id", unitId);
+            return result;
+        }
+    }
+
+    record DebugCommand(String debugCommand, Vector3 position, int focusArmyIndex,
+                        int[] unitIds) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("debug_command");
+            result.put("debug_command", debugCommand);
+            result.put("vector", position.toMap());
+            result.put("focus_army_index", focusArmyIndex);
+            result.put("entity_ids_set", entityIdsSetMap(unitIds));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "DebugCommand[debugCommand=" + debugCommand + ", position=" + position
+                    + ", focusArmyIndex=" + focusArmyIndex + ", unitIds=" + Arrays.toString(unitIds) + "]";
+        }
+    }
+
+    record ExecuteLuaInSimCommand(String lua) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("execute_lua_in_sim");
+            result.put("lua", lua);
+            return result;
+        }
+    }
+
+    record LuaSimCallbackCommand(String luaName, Object lua) implements CommandData {
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = typedMap("lua_sim_callback");
+            result.put("lua_name", luaName);
+            result.put("lua", lua);
+            return result;
+        }
+    }
+
+    record EndGameCommand() implements CommandData {
+        public static final EndGameCommand INSTANCE = new EndGameCommand();
+
+        @Override
+        public Map<String, Object> toMap() {
+            return typedMap("end_game");
+        }
+    }
+
+    /**
+     * @param type     see {@link CommandParser.TargetType}
+     * @param entityId only set for entity targets, -1 otherwise
+     * @param position only set for position targets, null otherwise
+     */
+    record Target(int type, int entityId, Vector3 position) {
+        public static final Target NONE = new Target(0, -1, null);
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = new HashMap<>();
+            result.put("target", type);
+            if (type == CommandParser.TargetType.ENTITY) {
+                result.put("entity_id", entityId);
+            } else if (type == CommandParser.TargetType.POSITION) {
+                result.put("position", position.toMap());
+            }
+            return result;
+        }
+    }
+
+    record Formation(float w, Vector3 position, float scale) {
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = new HashMap<>();
+            result.put("w", w);
+            result.put("position", position.toMap());
+            result.put("scale", scale);
+            return result;
+        }
+    }
+}
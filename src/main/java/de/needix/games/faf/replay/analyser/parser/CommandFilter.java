@@ -0,0 +1,111 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.analyser.eventanalyser.CommandAnalyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Combines the subscriptions of all {@link CommandAnalyser}s of a parse run. It decides which analysers receive a
+ * command and which payloads have to be decoded at all. Everything else is skipped using the length prefix of the
+ * command.
+ */
+public class CommandFilter {
+    /**
+     * Commands the body itself depends on to keep track of the tick, the current player and desyncs.
+     */
+    private static final Set<CommandType> ALWAYS_DECODED = Set.of(CommandType.ADVANCE, CommandType.SET_COMMAND_SOURCE,
+            CommandType.COMMAND_SOURCE_TERMINATED, CommandType.VERIFY_CHECKSUM);
+
+    private static final CommandType[] COMMAND_TYPES = CommandType.values();
+
+    private final CommandAnalyser[][] subscribers;
+    private final boolean[] decoded;
+    private final List<CommandAnalyser> luaCallbackAnalysers;
+    private final boolean issueCellsDecoded;
+    private final boolean decodeAll;
+
+    public CommandFilter(List<CommandAnalyser> analysers) {
+        this(analysers, false);
+    }
+
+    /**
+     * @param decodeAll decodes every payload completely, regardless of the analysers. Used to write a
+     *                  {@link CommandLog}, which has to serve every analyser later on.
+     */
+    public CommandFilter(List<CommandAnalyser> analysers, boolean decodeAll) {
+        Objects.requireNonNull(analysers, "analysers must not be null");
+
+        this.subscribers = new CommandAnalyser[COMMAND_TYPES.length][];
+        this.decoded = new boolean[COMMAND_TYPES.length];
+        this.luaCallbackAnalysers = new ArrayList<>();
+
+        boolean issueCells = false;
+        for (CommandType commandType : COMMAND_TYPES) {
+            List<CommandAnalyser> typeSubscribers = new ArrayList<>();
+            boolean typeDecoded = ALWAYS_DECODED.contains(commandType);
+            for (CommandAnalyser analyser : analysers) {
+                if (!analyser.getSubscribedCommandTypes().contains(commandType)) {
+                    continue;
+                }
+                typeSubscribers.add(analyser);
+                if (analyser.getDecodedCommandTypes().contains(commandType)) {
+                    typeDecoded = true;
+                    if (commandType == CommandType.LUA_SIM_CALLBACK) {
+                        luaCallbackAnalysers.add(analyser);
+                    } else if (commandType == CommandType.ISSUE_COMMAND || commandType == CommandType.ISSUE_FACTORY_COMMAND) {
+                        issueCells |= analyser.needsIssueCells();
+                    }
+                }
+            }
+            subscribers[commandType.ordinal()] = typeSubscribers.toArray(new CommandAnalyser[0]);
+            decoded[commandType.ordinal()] = typeDecoded || decodeAll;
+        }
+        this.issueCellsDecoded = issueCells || decodeAll;
+        this.decodeAll = decodeAll;
+    }
+
+    /**
+     * @return the analysers which want to receive commands of the given type, in registration order
+     */
+    public CommandAnalyser[] getSubscribers(CommandType commandType) {
+        return subscribers[commandType.ordinal()];
+    }
+
+    /**
+     * @return true, if the payload of the given type has to be decoded
+     */
+    public boolean isDecoded(CommandType commandType) {
+        return decoded[commandType.ordinal()];
+    }
+
+    /**
+     * @return true, if any analyser wants the Lua table of a {@link CommandType#LUA_SIM_CALLBACK} with the given name
+     */
+    public boolean isLuaCallbackDecoded(String luaName) {
+        if (decodeAll) {
+            return true;
+        }
+        for (CommandAnalyser analyser : luaCallbackAnalysers) {
+            if (analyser.isLuaCallbackSubscribed(luaName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true, if the Lua cells and the raw arguments of issue commands have to be decoded
+     */
+    public boolean isIssueCellsDecoded() {
+        return issueCellsDecoded;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandFilter{decoded=" + Arrays.toString(decoded) + ", issueCellsDecoded=" + issueCellsDecoded + ", decodeAll=" + decodeAll + "}";
+    }
+}
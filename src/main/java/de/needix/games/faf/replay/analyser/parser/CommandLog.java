@@ -0,0 +1,72 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.api.entities.replay.ReplaySeekPoint;
+
+import java.io.File;
+
+/**
+ * Compact binary copy of the parsed commands of a replay, stored next to the replay file. Reanalysing a replay from its
+ * command log neither decompresses the replay nor decodes its raw commands again. All payloads are stored fully
+ * decoded, so a log serves every combination of analysers.
+ * <p>
+ * Format, all numbers little-endian:
+ * <pre>
+ * u32     magic "FAFC"
+ * u8      format version
+ * i64     replay id
+ * i64     size of the replay file
+ * i64     last modification of the replay file, in milliseconds
+ * varuint length of the binary replay header, followed by the header without the mods
+ * record* until the end marker
+ * u8      0xFF end marker
+ * </pre>
+ * A record is a type byte, a varuint payload length and the payload, so readers can skip records they do not need. The
+ * type byte is either the ordinal of a {@link CommandType} or {@value #STRING_DEFINITION}, which appends a UTF-8 string
+ * to the string table of the log. Every string in a payload refers to that table, a string is defined once before the
+ * first command using it. References are varuints, 0 stands for null and n for the n-th string. Records of type
+ * {@value #SEEK_POINT} carry the seek points of the replay, see {@link ReplaySeekPoint}: the tick as varuint, the offset
+ * in the decompressed replay as 8 bytes and the player as varint.
+ * <p>
+ * Payloads contain the fields of their {@link CommandData} in declaration order:
+ * <ul>
+ *     <li>varuint: unsigned LEB128, e.g. advances and the tick of a checksum</li>
+ *     <li>varint: zigzag encoded LEB128, e.g. entity and command ids</li>
+ *     <li>float: 4 bytes, checksum halves: 8 bytes each</li>
+ *     <li>boolean: 1 byte, also used as flag in front of optional values like formations</li>
+ *     <li>Lua value: a tag byte, see {@link LuaTag}, followed by the value. Tables contain a varuint with the size of
+ *     their array part and its values, followed by key value pairs and an {@link LuaTag#END} tag.</li>
+ * </ul>
+ * The raw arguments and the Lua cells of issue commands come last in their payload, so readers which do not need them
+ * skip the rest of the record.
+ */
+public final class CommandLog {
+    public static final String FILE_SUFFIX = ".cmdlog";
+
+    static final int MAGIC = 'F' | 'A' << 8 | 'F' << 16 | 'C' << 24;
+    static final int FORMAT_VERSION = 2;
+    static final int FILE_HEADER_SIZE = 4 + 1 + 8 + 8 + 8;
+
+    static final int SEEK_POINT = 0xFD;
+    static final int STRING_DEFINITION = 0xFE;
+    static final int END = 0xFF;
+
+    private CommandLog() {
+    }
+
+    /**
+     * @return the command log belonging to the given replay file, which might not exist
+     */
+    public static File getFile(File replayFile) {
+        return new File(replayFile.getParentFile(), replayFile.getName() + FILE_SUFFIX);
+    }
+
+    static class LuaTag {
+        static final int NUMBER = 0;
+        static final int STRING = 1;
+        static final int NIL = 2;
+        static final int FALSE = 3;
+        static final int TRUE = 4;
+        static final int TABLE = 5;
+        static final int END = 6;
+    }
+}
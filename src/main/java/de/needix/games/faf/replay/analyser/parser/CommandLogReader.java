@@ -0,0 +1,413 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.api.entities.replay.ReplaySeekPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Reads the commands of a {@link CommandLog}. Like parsing the replay itself, only the payloads a {@link CommandFilter}
+ * asks for are decoded, all other records are skipped using their length.
+ * <p>
+ * A mapped log stays mapped until the reader is closed.
+ */
+public class CommandLogReader implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommandLogReader.class);
+    private static final CommandType[] COMMAND_TYPES = CommandType.values();
+
+    private final MappedByteBuffer mapping;
+    private final ByteBuffer buffer;
+    private final ByteBuffer header;
+    private final List<String> strings = new ArrayList<>();
+    private final List<ReplaySeekPoint> seekPoints = new ArrayList<>();
+
+    private CommandType commandType;
+    private int recordLength;
+
+    private CommandLogReader(MappedByteBuffer mapping, ByteBuffer buffer, ByteBuffer header) {
+        this.mapping = mapping;
+        this.buffer = buffer;
+        this.header = header;
+    }
+
+    /**
+     * @param replayFile the replay the log has to belong to. Logs written for an older version of the file are ignored.
+     * @param mapped     maps the log into memory instead of reading it to the heap
+     * @return a reader for the log of the replay, or null if there is no valid log
+     */
+    public static CommandLogReader open(File replayFile, long replayId, boolean mapped) throws IOException {
+        Objects.requireNonNull(replayFile, "replayFile must not be null");
+
+        File logFile = CommandLog.getFile(replayFile);
+        if (!logFile.isFile()) {
+            return null;
+        }
+
+        MappedByteBuffer mapping = null;
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < CommandLog.FILE_HEADER_SIZE || size > Integer.MAX_VALUE) {
+                LOGGER.warn("Ignoring command log {} with invalid size {}", logFile, size);
+                return null;
+            }
+            if (mapped) {
+                // The mapping stays valid after the channel is closed
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                buffer = mapping;
+            } else {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // Read the complete log
+                }
+                buffer.flip();
+            }
+        }
+
+        CommandLogReader reader = null;
+        try {
+            reader = open(replayFile, replayId, logFile, mapping, buffer.order(ByteOrder.LITTLE_ENDIAN));
+            return reader;
+        } finally {
+            if (reader == null) {
+                MappedBuffers.release(mapping);
+            }
+        }
+    }
+
+    private static CommandLogReader open(File replayFile, long replayId, File logFile, MappedByteBuffer mapping,
+                                         ByteBuffer buffer) {
+        if (buffer.getInt() != CommandLog.MAGIC || (buffer.get() & 0xFF) != CommandLog.FORMAT_VERSION) {
+            LOGGER.info("Ignoring command log {} with unknown format", logFile);
+            return null;
+        }
+        long logReplayId = buffer.getLong();
+        long logReplayFileSize = buffer.getLong();
+        long logReplayLastModified = buffer.getLong();
+        if (logReplayId != replayId || logReplayFileSize != replayFile.length()
+                || logReplayLastModified != replayFile.lastModified()) {
+            LOGGER.info("Ignoring command log {}, it was written for another version of the replay", logFile);
+            return null;
+        }
+
+        if (!isWellFormed(buffer.duplicate())) {
+            LOGGER.warn("Ignoring damaged command log {}", logFile);
+            return null;
+        }
+        int headerLength = readVarUInt(buffer);
+        ByteBuffer header = buffer.slice(buffer.position(), headerLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(buffer.position() + headerLength);
+        return new CommandLogReader(mapping, buffer, header);
+    }
+
+    /**
+     * Walks the header and all records by their lengths, which catches truncated and overwritten logs before any
+     * command is handed out. The payloads themselves are not checked.
+     *
+     * @param records positioned behind the file header
+     */
+    private static boolean isWellFormed(ByteBuffer records) {
+        try {
+            if (!skipSized(records)) {
+                return false;
+            }
+            while (records.hasRemaining()) {
+                int type = records.get() & 0xFF;
+                if (type == CommandLog.END) {
+                    return !records.hasRemaining();
+                }
+                if (type >= COMMAND_TYPES.length && type != CommandLog.STRING_DEFINITION && type != CommandLog.SEEK_POINT) {
+                    return false;
+                }
+                if (!skipSized(records)) {
+                    return false;
+                }
+            }
+            return false;
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Skips a varuint length and as many bytes.
+     *
+     * @return false, if the length is invalid
+     */
+    private static boolean skipSized(ByteBuffer records) {
+        int length = readVarUInt(records);
+        if (length < 0 || length > records.remaining()) {
+            return false;
+        }
+        records.position(records.position() + length);
+        return true;
+    }
+
+    /**
+     * @return a reader for the binary replay header, see {@link ReplayHeader}
+     */
+    ReplayByteReader headerReader() {
+        return new ReplayByteReader(header.duplicate());
+    }
+
+    /**
+     * Releases the mapping of a mapped log. Nothing read from the log refers to it, the commands are copied out.
+     */
+    @Override
+    public void close() {
+        MappedBuffers.release(mapping);
+    }
+
+    /**
+     * Moves to the next command, reading the string definitions in front of it.
+     *
+     * @return false, if all commands were read
+     */
+    boolean nextCommand() {
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                throw new IllegalStateException("Command log ends without end marker");
+            }
+            int type = buffer.get() & 0xFF;
+            if (type == CommandLog.END) {
+                return false;
+            }
+            int length = readVarUInt();
+            if (type == CommandLog.STRING_DEFINITION) {
+                strings.add(StandardCharsets.UTF_8.decode(buffer.slice(buffer.position(), length)).toString());
+                buffer.position(buffer.position() + length);
+                continue;
+            }
+            if (type == CommandLog.SEEK_POINT) {
+                int end = buffer.position() + length;
+                seekPoints.add(new ReplaySeekPoint(readVarUInt(), buffer.getLong(), readVarInt()));
+                buffer.position(end);
+                continue;
+            }
+            if (type >= COMMAND_TYPES.length) {
+                throw new IllegalStateException("Unknown record type " + type + " in command log");
+            }
+            commandType = COMMAND_TYPES[type];
+            recordLength = length;
+            return true;
+        }
+    }
+
+    /**
+     * @return the seek points of the replay read so far, all of them once all commands were read
+     */
+    List<ReplaySeekPoint> getSeekPoints() {
+        return seekPoints;
+    }
+
+    /**
+     * @return the type of the current command
+     */
+    CommandType getCommandType() {
+        return commandType;
+    }
+
+    /**
+     * @return the size of the current command in the log, including its type and length
+     */
+    int getRecordSize() {
+        return 1 + varUIntSize(recordLength) + recordLength;
+    }
+
+    /**
+     * Decodes the payload of the current command as far as the filter asks for it and skips the rest.
+     *
+     * @return the decoded payload, or null if it is not needed at all
+     */
+    CommandData readCommandData(CommandFilter filter) {
+        int end = buffer.position() + recordLength;
+        try {
+            return filter.isDecoded(commandType) ? readCommandData(filter, end) : null;
+        } finally {
+            buffer.position(end);
+        }
+    }
+
+    private CommandData readCommandData(CommandFilter filter, int end) {
+        switch (commandType) {
+            case COMMAND_SOURCE_TERMINATED:
+                return CommandData.CommandSourceTerminatedCommand.INSTANCE;
+            case REQUEST_PAUSE:
+                return CommandData.RequestPauseCommand.INSTANCE;
+            case RESUME:
+                return CommandData.ResumeCommand.INSTANCE;
+            case SINGLE_STEP:
+                return CommandData.SingleStepCommand.INSTANCE;
+            case END_GAME:
+                return CommandData.EndGameCommand.INSTANCE;
+            default:
+                break;
+        }
+        if (buffer.position() == end) {
+            // The payload could not be decoded when the log was written
+            return null;
+        }
+        return switch (commandType) {
+            case ADVANCE -> new CommandData.AdvanceCommand(readVarUInt());
+            case SET_COMMAND_SOURCE -> new CommandData.SetCommandSourceCommand(readVarUInt());
+            case VERIFY_CHECKSUM ->
+                    new CommandData.VerifyChecksumCommand(buffer.getLong(), buffer.getLong(), readVarUInt());
+            case CREATE_UNIT -> new CommandData.CreateUnitCommand(readVarUInt(), readString(), readVector());
+            case CREATE_PROP -> new CommandData.CreatePropCommand(readString(), readVector());
+            case DESTROY_UNIT -> new CommandData.DestroyEntityCommand(readVarInt());
+            case WARP_ENTITY -> new CommandData.WarpEntityCommand(readVarInt(), readVector());
+            case PROCESS_INFO_PAIR ->
+                    new CommandData.ProcessInfoPairCommand(readVarInt(), readString(), readString());
+            case ISSUE_COMMAND -> readIssue(false, filter.isIssueCellsDecoded());
+            case ISSUE_FACTORY_COMMAND -> readIssue(true, filter.isIssueCellsDecoded());
+            case INCREASE_COMMAND_COUNT -> new CommandData.IncreaseCommandCountCommand(readVarInt(), readVarInt());
+            case DECREASE_COMMAND_COUNT -> new CommandData.DecreaseCommandCountCommand(readVarInt(), readVarInt());
+            case SET_COMMAND_TARGET -> new CommandData.SetCommandTargetCommand(readVarInt(), readTarget());
+            case SET_COMMAND_TYPE -> new CommandData.SetCommandTypeCommand(readVarInt(), readVarInt());
+            case SET_COMMAND_CELLS -> new CommandData.SetCommandCellsCommand(readVarInt(), readLua(), readVector());
+            case REMOVE_COMMAND_FROM_QUEUE ->
+                    new CommandData.RemoveCommandFromQueueCommand(readVarInt(), readVarInt());
+            case DEBUG_COMMAND ->
+                    new CommandData.DebugCommand(readString(), readVector(), readVarUInt(), readUnitIds());
+            case EXECUTE_LUA_IN_SIM -> new CommandData.ExecuteLuaInSimCommand(readString());
+            case LUA_SIM_CALLBACK -> {
+                String luaName = readString();
+                yield filter.isLuaCallbackDecoded(luaName) ? new CommandData.LuaSimCallbackCommand(luaName, readLua()) : null;
+            }
+            default -> null;
+        };
+    }
+
+    private CommandData.IssueCommand readIssue(boolean factory, boolean decodeCells) {
+        int[] unitIds = readUnitIds();
+        int commandId = readVarInt();
+        int arg1 = readVarInt();
+        CommandParser.CommandOrderType orderType = CommandParser.CommandOrderType.fromValue(readVarUInt());
+        int arg2 = readVarInt();
+        CommandData.Target target = readTarget();
+        boolean arg3 = buffer.get() != 0;
+        CommandData.Formation formation = null;
+        if (buffer.get() != 0) {
+            formation = new CommandData.Formation(buffer.getFloat(), readVector(), buffer.getFloat());
+        }
+        String blueprintId = readString();
+        byte[] arg4 = null;
+        Object cells = null;
+        if (decodeCells && buffer.get() != 0) {
+            arg4 = new byte[12];
+            buffer.get(arg4);
+            cells = readLua();
+        }
+        return new CommandData.IssueCommand(factory, unitIds, commandId, arg1, orderType, arg2, target, arg3,
+                formation, blueprintId, arg4, cells);
+    }
+
+    private int[] readUnitIds() {
+        int count = readVarUInt();
+        // Every id takes at least one byte
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalStateException("Invalid unit count " + count + " in command log");
+        }
+        int[] unitIds = new int[count];
+        for (int i = 0; i < unitIds.length; i++) {
+            unitIds[i] = readVarInt();
+        }
+        return unitIds;
+    }
+
+    private CommandData.Target readTarget() {
+        int type = readVarUInt();
+        if (type == CommandParser.TargetType.ENTITY) {
+            return new CommandData.Target(type, readVarInt(), null);
+        } else if (type == CommandParser.TargetType.POSITION) {
+            return new CommandData.Target(type, -1, readVector());
+        } else if (type == CommandData.Target.NONE.type()) {
+            return CommandData.Target.NONE;
+        }
+        return new CommandData.Target(type, -1, null);
+    }
+
+    private Vector3 readVector() {
+        return new Vector3(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+    }
+
+    private Object readLua() {
+        int tag = buffer.get();
+        return switch (tag) {
+            case CommandLog.LuaTag.NUMBER -> buffer.getFloat();
+            case CommandLog.LuaTag.STRING -> readString();
+            case CommandLog.LuaTag.NIL -> null;
+            case CommandLog.LuaTag.FALSE -> Boolean.FALSE;
+            case CommandLog.LuaTag.TRUE -> Boolean.TRUE;
+            case CommandLog.LuaTag.TABLE -> readTable();
+            default -> throw new IllegalStateException("Unknown Lua tag " + tag + " in command log");
+        };
+    }
+
+    private LuaTable readTable() {
+        LuaTable table = new LuaTable();
+        int arraySize = readVarUInt();
+        for (int index = 1; index <= arraySize; index++) {
+            if (buffer.get(buffer.position()) == CommandLog.LuaTag.NUMBER) {
+                buffer.get();
+                table.put(index, buffer.getFloat());
+            } else {
+                table.put((Object) (float) index, readLua());
+            }
+        }
+        while (buffer.get(buffer.position()) != CommandLog.LuaTag.END) {
+            Object key = readLua();
+            table.put(key, readLua());
+        }
+        buffer.get();
+        return table;
+    }
+
+    private String readString() {
+        int reference = readVarUInt();
+        return reference == 0 ? null : strings.get(reference - 1);
+    }
+
+    private int readVarInt() {
+        int value = readVarUInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readVarUInt() {
+        return readVarUInt(buffer);
+    }
+
+    private static int readVarUInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static int varUIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
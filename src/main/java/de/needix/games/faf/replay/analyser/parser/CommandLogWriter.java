@@ -0,0 +1,371 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.api.entities.replay.ReplaySeekPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Writes the {@link CommandLog} of a replay while it is parsed. The log is written to a temporary file and only moved
+ * next to the replay by {@link #commit()}, so a failed parse never leaves an incomplete log behind.
+ */
+public class CommandLogWriter implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommandLogWriter.class);
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final Path target;
+    private final Path temporaryFile;
+    private final OutputStream output;
+
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final ByteArrayOutputStream stringDefinitions = new ByteArrayOutputStream();
+    private byte[] payload = new byte[256];
+    private int payloadSize;
+    private final byte[] recordHeader = new byte[6];
+
+    private boolean headerWritten;
+    private boolean committed;
+
+    private CommandLogWriter(Path target, Path temporaryFile) throws IOException {
+        this.target = target;
+        this.temporaryFile = temporaryFile;
+        this.output = new BufferedOutputStream(Files.newOutputStream(temporaryFile), OUTPUT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param replayFile the replay whose commands are logged, the log is written next to it
+     * @param replayId   the id of the replay
+     */
+    public static CommandLogWriter create(File replayFile, long replayId) throws IOException {
+        Objects.requireNonNull(replayFile, "replayFile must not be null");
+
+        Path target = CommandLog.getFile(replayFile).toPath();
+        Path temporaryFile = Files.createTempFile(target.toAbsolutePath().getParent(), replayFile.getName(), ".tmp");
+        CommandLogWriter writer = new CommandLogWriter(target, temporaryFile);
+        try {
+            writer.writeFileHeader(replayId, replayFile.length(), replayFile.lastModified());
+        } catch (IOException | RuntimeException e) {
+            writer.close();
+            throw e;
+        }
+        return writer;
+    }
+
+    /**
+     * @param header the binary replay header, see {@link ReplayHeader#toBytes()}
+     */
+    void writeHeader(byte[] header) {
+        if (headerWritten) {
+            throw new IllegalStateException("Header was already written");
+        }
+        headerWritten = true;
+        payloadSize = 0;
+        writeVarUInt(header.length);
+        try {
+            output.write(payload, 0, payloadSize);
+            output.write(header);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a command, preceded by the definitions of the strings it uses for the first time.
+     *
+     * @param commandData the fully decoded payload, might be null if it could not be decoded
+     */
+    void write(CommandType commandType, CommandData commandData) {
+        if (!headerWritten) {
+            throw new IllegalStateException("Header has to be written first");
+        }
+        payloadSize = 0;
+        if (commandData != null) {
+            writeCommandData(commandData);
+        }
+        try {
+            if (stringDefinitions.size() > 0) {
+                stringDefinitions.writeTo(output);
+                stringDefinitions.reset();
+            }
+            recordHeader[0] = (byte) commandType.ordinal();
+            output.write(recordHeader, 0, 1 + writeVarUInt(recordHeader, 1, payloadSize));
+            output.write(payload, 0, payloadSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a seek point of the replay, which refers to the decompressed replay and not to the log.
+     */
+    void writeSeekPoint(ReplaySeekPoint seekPoint) {
+        if (!headerWritten) {
+            throw new IllegalStateException("Header has to be written first");
+        }
+        payloadSize = 0;
+        writeVarUInt(seekPoint.getTick());
+        writeLong(seekPoint.getOffset());
+        writeVarInt(seekPoint.getPlayerId());
+        try {
+            recordHeader[0] = (byte) CommandLog.SEEK_POINT;
+            output.write(recordHeader, 0, 1 + writeVarUInt(recordHeader, 1, payloadSize));
+            output.write(payload, 0, payloadSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Completes the log and moves it next to the replay, replacing an older log.
+     */
+    public void commit() throws IOException {
+        if (!headerWritten) {
+            throw new IllegalStateException("Nothing was logged");
+        }
+        output.write(CommandLog.END);
+        output.close();
+        Files.move(temporaryFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        committed = true;
+        LOGGER.debug("Wrote command log {} with {} strings", target, strings.size());
+    }
+
+    /**
+     * Discards the log, if it was not committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        try {
+            output.close();
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private void writeFileHeader(long replayId, long replayFileSize, long replayLastModified) throws IOException {
+        writeInt(CommandLog.MAGIC);
+        writeByte(CommandLog.FORMAT_VERSION);
+        writeLong(replayId);
+        writeLong(replayFileSize);
+        writeLong(replayLastModified);
+        output.write(payload, 0, payloadSize);
+    }
+
+    private void writeCommandData(CommandData commandData) {
+        if (commandData instanceof CommandData.AdvanceCommand advance) {
+            writeVarUInt(advance.advance());
+        } else if (commandData instanceof CommandData.SetCommandSourceCommand setCommandSource) {
+            writeVarUInt(setCommandSource.playerId());
+        } else if (commandData instanceof CommandData.VerifyChecksumCommand verifyChecksum) {
+            writeLong(verifyChecksum.checksumHigh());
+            writeLong(verifyChecksum.checksumLow());
+            writeVarUInt(verifyChecksum.tick());
+        } else if (commandData instanceof CommandData.CreateUnitCommand createUnit) {
+            writeVarUInt(createUnit.armyIndex());
+            writeString(createUnit.blueprintId());
+            writeVector(createUnit.position());
+        } else if (commandData instanceof CommandData.CreatePropCommand createProp) {
+            writeString(createProp.name());
+            writeVector(createProp.position());
+        } else if (commandData instanceof CommandData.DestroyEntityCommand destroyEntity) {
+            writeVarInt(destroyEntity.entityId());
+        } else if (commandData instanceof CommandData.WarpEntityCommand warpEntity) {
+            writeVarInt(warpEntity.entityId());
+            writeVector(warpEntity.position());
+        } else if (commandData instanceof CommandData.ProcessInfoPairCommand processInfoPair) {
+            writeVarInt(processInfoPair.entityId());
+            writeString(processInfoPair.arg1());
+            writeString(processInfoPair.arg2());
+        } else if (commandData instanceof CommandData.IssueCommand issue) {
+            writeIssue(issue);
+        } else if (commandData instanceof CommandData.IncreaseCommandCountCommand increase) {
+            writeVarInt(increase.commandId());
+            writeVarInt(increase.delta());
+        } else if (commandData instanceof CommandData.DecreaseCommandCountCommand decrease) {
+            writeVarInt(decrease.commandId());
+            writeVarInt(decrease.delta());
+        } else if (commandData instanceof CommandData.SetCommandTargetCommand setCommandTarget) {
+            writeVarInt(setCommandTarget.commandId());
+            writeTarget(setCommandTarget.target());
+        } else if (commandData instanceof CommandData.SetCommandTypeCommand setCommandType) {
+            writeVarInt(setCommandType.commandId());
+            writeVarInt(setCommandType.targetId());
+        } else if (commandData instanceof CommandData.SetCommandCellsCommand setCommandCells) {
+            writeVarInt(setCommandCells.commandId());
+            writeLua(setCommandCells.cells());
+            writeVector(setCommandCells.position());
+        } else if (commandData instanceof CommandData.RemoveCommandFromQueueCommand removeFromQueue) {
+            writeVarInt(removeFromQueue.commandId());
+            writeVarInt(removeFromQueue.unitId());
+        } else if (commandData instanceof CommandData.DebugCommand debug) {
+            writeString(debug.debugCommand());
+            writeVector(debug.position());
+            writeVarUInt(debug.focusArmyIndex());
+            writeUnitIds(debug.unitIds());
+        } else if (commandData instanceof CommandData.ExecuteLuaInSimCommand executeLua) {
+            writeString(executeLua.lua());
+        } else if (commandData instanceof CommandData.LuaSimCallbackCommand luaSimCallback) {
+            writeString(luaSimCallback.luaName());
+            writeLua(luaSimCallback.lua());
+        }
+        // The remaining commands have no payload
+    }
+
+    private void writeIssue(CommandData.IssueCommand issue) {
+        writeUnitIds(issue.unitIds());
+        writeVarInt(issue.commandId());
+        writeVarInt(issue.arg1());
+        writeVarUInt(issue.orderType().getValue());
+        writeVarInt(issue.arg2());
+        writeTarget(issue.target());
+        writeByte(issue.arg3() ? 1 : 0);
+        CommandData.Formation formation = issue.formation();
+        writeByte(formation == null ? 0 : 1);
+        if (formation != null) {
+            writeFloat(formation.w());
+            writeVector(formation.position());
+            writeFloat(formation.scale());
+        }
+        writeString(issue.blueprintId());
+        // The cells come last, so that readers not interested in them can skip the rest of the record
+        writeByte(issue.arg4() == null ? 0 : 1);
+        if (issue.arg4() != null) {
+            ensurePayloadCapacity(issue.arg4().length);
+            System.arraycopy(issue.arg4(), 0, payload, payloadSize, issue.arg4().length);
+            payloadSize += issue.arg4().length;
+            writeLua(issue.cells());
+        }
+    }
+
+    private void writeUnitIds(int[] unitIds) {
+        writeVarUInt(unitIds.length);
+        for (int unitId : unitIds) {
+            writeVarInt(unitId);
+        }
+    }
+
+    private void writeTarget(CommandData.Target target) {
+        writeVarUInt(target.type());
+        if (target.type() == CommandParser.TargetType.ENTITY) {
+            writeVarInt(target.entityId());
+        } else if (target.type() == CommandParser.TargetType.POSITION) {
+            writeVector(target.position());
+        }
+    }
+
+    private void writeVector(Vector3 vector) {
+        writeFloat(vector.x());
+        writeFloat(vector.y());
+        writeFloat(vector.z());
+    }
+
+    private void writeLua(Object value) {
+        if (value == null) {
+            writeByte(CommandLog.LuaTag.NIL);
+        } else if (value instanceof Float number) {
+            writeByte(CommandLog.LuaTag.NUMBER);
+            writeFloat(number);
+        } else if (value instanceof String string) {
+            writeByte(CommandLog.LuaTag.STRING);
+            writeString(string);
+        } else if (value instanceof Boolean bool) {
+            writeByte(bool ? CommandLog.LuaTag.TRUE : CommandLog.LuaTag.FALSE);
+        } else if (value instanceof LuaTable table) {
+            writeByte(CommandLog.LuaTag.TABLE);
+            int arraySize = table.arraySize();
+            writeVarUInt(arraySize);
+            for (Map.Entry<Object, Object> entry : table.entrySet()) {
+                // The array part is iterated first
+                if (arraySize > 0) {
+                    arraySize--;
+                } else {
+                    writeLua(entry.getKey());
+                }
+                writeLua(entry.getValue());
+            }
+            writeByte(CommandLog.LuaTag.END);
+        } else {
+            throw new IllegalArgumentException("Unsupported Lua value: " + value.getClass());
+        }
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeVarUInt(0);
+            return;
+        }
+        Integer reference = strings.get(value);
+        if (reference == null) {
+            reference = strings.size() + 1;
+            strings.put(value, reference);
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            byte[] definitionHeader = new byte[6];
+            definitionHeader[0] = (byte) CommandLog.STRING_DEFINITION;
+            stringDefinitions.write(definitionHeader, 0, 1 + writeVarUInt(definitionHeader, 1, bytes.length));
+            stringDefinitions.writeBytes(bytes);
+        }
+        writeVarUInt(reference);
+    }
+
+    private void writeVarInt(int value) {
+        writeVarUInt((value << 1) ^ (value >> 31));
+    }
+
+    private void writeVarUInt(int value) {
+        ensurePayloadCapacity(5);
+        payloadSize += writeVarUInt(payload, payloadSize, value);
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    private static int writeVarUInt(byte[] target, int offset, int value) {
+        int position = offset;
+        while ((value & ~0x7F) != 0) {
+            target[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[position++] = (byte) value;
+        return position - offset;
+    }
+
+    private void writeByte(int value) {
+        ensurePayloadCapacity(1);
+        payload[payloadSize++] = (byte) value;
+    }
+
+    private void writeFloat(float value) {
+        writeInt(Float.floatToRawIntBits(value));
+    }
+
+    private void writeInt(int value) {
+        ensurePayloadCapacity(4);
+        payload[payloadSize++] = (byte) value;
+        payload[payloadSize++] = (byte) (value >>> 8);
+        payload[payloadSize++] = (byte) (value >>> 16);
+        payload[payloadSize++] = (byte) (value >>> 24);
+    }
+
+    private void writeLong(long value) {
+        writeInt((int) value);
+        writeInt((int) (value >>> 32));
+    }
+
+    private void ensurePayloadCapacity(int bytes) {
+        if (payloadSize + bytes > payload.length) {
+            payload = Arrays.copyOf(payload, Math.max(payloadSize + bytes, payload.length * 2));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package de.needix.games.faf.replay.analyser.parser;
 
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
 import lombok.Getter;
 import lombok.ToString;
 import org.slf4j.Logger;
@@ -12,301 +13,264 @@ import java.util.stream.Collectors;
 @ToString
 public class CommandParser {
     private static final Logger LOGGER = LoggerFactory.getLogger(CommandParser.class);
-    private static final Map<CommandType, CommandFunction> COMMAND_PARSERS = new HashMap<>();
+    /**
+     * The length of a command is an unsigned short which includes its type and the length itself
+     */
+    static final int MAX_PAYLOAD_LENGTH = 0xFFFF - 3;
+    /**
+     * Indexed by {@link CommandType#ordinal()}
+     */
+    private static final CommandFunction[] COMMAND_PARSERS = new CommandFunction[CommandType.values().length];
 
-    private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
 
     static {
-        COMMAND_PARSERS.put(CommandType.ADVANCE, CommandParser::commandAdvance);
-        COMMAND_PARSERS.put(CommandType.SET_COMMAND_SOURCE, CommandParser::commandSetCommandSource);
-        COMMAND_PARSERS.put(CommandType.COMMAND_SOURCE_TERMINATED, CommandParser::commandSourceTerminated);
-        COMMAND_PARSERS.put(CommandType.VERIFY_CHECKSUM, CommandParser::commandVerifyChecksum);
-        COMMAND_PARSERS.put(CommandType.REQUEST_PAUSE, CommandParser::commandRequestPause);
-        COMMAND_PARSERS.put(CommandType.RESUME, CommandParser::commandResume);
-        COMMAND_PARSERS.put(CommandType.SINGLE_STEP, CommandParser::commandSingleStep);
-        COMMAND_PARSERS.put(CommandType.CREATE_UNIT, CommandParser::commandCreateUnit);
-        COMMAND_PARSERS.put(CommandType.CREATE_PROP, CommandParser::commandCreateProp);
-        COMMAND_PARSERS.put(CommandType.DESTROY_UNIT, CommandParser::commandDestroyEntity);
-        COMMAND_PARSERS.put(CommandType.WARP_ENTITY, CommandParser::commandWarpEntity);
-        COMMAND_PARSERS.put(CommandType.PROCESS_INFO_PAIR, CommandParser::commandProcessInfoPair);
-        COMMAND_PARSERS.put(CommandType.ISSUE_COMMAND, CommandParser::commandIssue);
-        COMMAND_PARSERS.put(CommandType.ISSUE_FACTORY_COMMAND, CommandParser::commandFactoryIssue);
-        COMMAND_PARSERS.put(CommandType.INCREASE_COMMAND_COUNT, CommandParser::commandCommandCountIncrease);
-        COMMAND_PARSERS.put(CommandType.DECREASE_COMMAND_COUNT, CommandParser::commandCommandCountDecrease);
-        COMMAND_PARSERS.put(CommandType.SET_COMMAND_TARGET, CommandParser::commandSetCommandTarget);
-        COMMAND_PARSERS.put(CommandType.SET_COMMAND_TYPE, CommandParser::commandSetCommandType);
-        COMMAND_PARSERS.put(CommandType.SET_COMMAND_CELLS, CommandParser::commandSetCommandCells);
-        COMMAND_PARSERS.put(CommandType.REMOVE_COMMAND_FROM_QUEUE, CommandParser::commandRemoveFromQueue);
-        COMMAND_PARSERS.put(CommandType.DEBUG_COMMAND, CommandParser::commandDebugCommand);
-        COMMAND_PARSERS.put(CommandType.EXECUTE_LUA_IN_SIM, CommandParser::commandExecuteLuaInSim);
-        COMMAND_PARSERS.put(CommandType.LUA_SIM_CALLBACK, CommandParser::commandLuaSimCallback);
-        COMMAND_PARSERS.put(CommandType.END_GAME, CommandParser::commandEndGame);
-    }
-
-    public static Map<String, Object> parseCommand(CommandType command, ReplayParser reader) {
-        CommandFunction commandFunction = COMMAND_PARSERS.get(command);
+        register(CommandType.ADVANCE, CommandParser::commandAdvance);
+        register(CommandType.SET_COMMAND_SOURCE, CommandParser::commandSetCommandSource);
+        register(CommandType.COMMAND_SOURCE_TERMINATED, CommandParser::commandSourceTerminated);
+        register(CommandType.VERIFY_CHECKSUM, CommandParser::commandVerifyChecksum);
+        register(CommandType.REQUEST_PAUSE, CommandParser::commandRequestPause);
+        register(CommandType.RESUME, CommandParser::commandResume);
+        register(CommandType.SINGLE_STEP, CommandParser::commandSingleStep);
+        register(CommandType.CREATE_UNIT, CommandParser::commandCreateUnit);
+        register(CommandType.CREATE_PROP, CommandParser::commandCreateProp);
+        register(CommandType.DESTROY_UNIT, CommandParser::commandDestroyEntity);
+        register(CommandType.WARP_ENTITY, CommandParser::commandWarpEntity);
+        register(CommandType.PROCESS_INFO_PAIR, CommandParser::commandProcessInfoPair);
+        register(CommandType.ISSUE_COMMAND, CommandParser::commandIssue);
+        register(CommandType.ISSUE_FACTORY_COMMAND, CommandParser::commandFactoryIssue);
+        register(CommandType.INCREASE_COMMAND_COUNT, CommandParser::commandCommandCountIncrease);
+        register(CommandType.DECREASE_COMMAND_COUNT, CommandParser::commandCommandCountDecrease);
+        register(CommandType.SET_COMMAND_TARGET, CommandParser::commandSetCommandTarget);
+        register(CommandType.SET_COMMAND_TYPE, CommandParser::commandSetCommandType);
+        register(CommandType.SET_COMMAND_CELLS, CommandParser::commandSetCommandCells);
+        register(CommandType.REMOVE_COMMAND_FROM_QUEUE, CommandParser::commandRemoveFromQueue);
+        register(CommandType.DEBUG_COMMAND, CommandParser::commandDebugCommand);
+        register(CommandType.EXECUTE_LUA_IN_SIM, CommandParser::commandExecuteLuaInSim);
+        register(CommandType.LUA_SIM_CALLBACK, CommandParser::commandLuaSimCallback);
+        register(CommandType.END_GAME, CommandParser::commandEndGame);
+    }
+
+    private static void register(CommandType commandType, CommandFunction commandFunction) {
+        COMMAND_PARSERS[commandType.ordinal()] = commandFunction;
+    }
+
+    public static CommandData parseCommand(CommandType command, ReplayByteReader reader) {
+        CommandFunction commandFunction = COMMAND_PARSERS[command.ordinal()];
         if (commandFunction == null) {
             LOGGER.warn("Command not handled by parser: {}", command);
-            return Collections.emptyMap();
+            return null;
         }
         return commandFunction.parse(reader);
     }
 
+    /**
+     * Like {@link #parseCommand(CommandType, ReplayByteReader)}, but only decodes the parts of the payload the filter
+     * asks for. Undecoded trailing bytes are left for the caller to skip.
+     *
+     * @return the decoded payload, or null if the payload is not needed at all
+     */
+    public static CommandData parseCommand(CommandType command, ReplayByteReader reader, CommandFilter filter) {
+        if (!filter.isDecoded(command)) {
+            return null;
+        }
+        if (command == CommandType.LUA_SIM_CALLBACK) {
+            String luaName = reader.readString();
+            if (!filter.isLuaCallbackDecoded(luaName)) {
+                return null;
+            }
+            return new CommandData.LuaSimCallbackCommand(luaName, reader.readLua(null));
+        }
+        if (!filter.isIssueCellsDecoded()) {
+            if (command == CommandType.ISSUE_COMMAND) {
+                return parseIssue(reader, false, false);
+            } else if (command == CommandType.ISSUE_FACTORY_COMMAND) {
+                return parseIssue(reader, true, false);
+            }
+        }
+        return parseCommand(command, reader);
+    }
+
     // Command parser methods
-    public static Map<String, Object> commandAdvance(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "advance");
-        result.put("advance", reader.readUnsignedInt());
-        return result;
+    public static CommandData commandAdvance(ReplayByteReader reader) {
+        return new CommandData.AdvanceCommand(reader.readUnsignedInt());
     }
 
-    public static Map<String, Object> commandSetCommandSource(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "set_command_source");
-        result.put("player_id", reader.readByte());
-        return result;
+    public static CommandData commandSetCommandSource(ReplayByteReader reader) {
+        return new CommandData.SetCommandSourceCommand(reader.readByte());
     }
 
-    public static Map<String, Object> commandSourceTerminated(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "command_source_terminated");
-        return result;
+    public static CommandData commandSourceTerminated(ReplayByteReader reader) {
+        return CommandData.CommandSourceTerminatedCommand.INSTANCE;
     }
 
-    public static Map<String, Object> commandVerifyChecksum(ReplayParser reader) {
-        char[] checksumChars = new char[32]; // Each byte produces 2 hex chars
-        for (int i = 0; i < 16; i++) {
-            byte value = ((Integer) reader.readByte()).byteValue();
-            checksumChars[i * 2] = HEX_ARRAY[(value >> 4) & 0xF]; // High nibble
-            checksumChars[i * 2 + 1] = HEX_ARRAY[value & 0xF]; // Low nibble
-        }
-        String checksum = new String(checksumChars);
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "verify_checksum");
-        result.put("checksum", checksum);
-        result.put("tick", reader.readUnsignedInt());
-        return result;
+    public static CommandData commandVerifyChecksum(ReplayByteReader reader) {
+        // The 16 checksum bytes are kept as two big-endian longs, so that comparing them does not allocate
+        long checksumHigh = Long.reverseBytes(reader.readLong());
+        long checksumLow = Long.reverseBytes(reader.readLong());
+        return new CommandData.VerifyChecksumCommand(checksumHigh, checksumLow, reader.readUnsignedInt());
     }
 
-    public static Map<String, Object> commandRequestPause(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "request_pause");
-        return result;
+    public static CommandData commandRequestPause(ReplayByteReader reader) {
+        return CommandData.RequestPauseCommand.INSTANCE;
     }
 
-    public static Map<String, Object> commandResume(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "resume");
-        return result;
+    public static CommandData commandResume(ReplayByteReader reader) {
+        return CommandData.ResumeCommand.INSTANCE;
     }
 
-    public static Map<String, Object> commandSingleStep(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "single_step");
-        return result;
+    public static CommandData commandSingleStep(ReplayByteReader reader) {
+        return CommandData.SingleStepCommand.INSTANCE;
     }
 
-    public static Map<String, Object> commandCreateUnit(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "create_unit");
-        result.put("army_index", reader.readByte());
-        result.put("blueprint_id", reader.readString());
-        result.put("vector", readVector(reader));
-        return result;
+    public static CommandData commandCreateUnit(ReplayByteReader reader) {
+        int armyIndex = reader.readByte();
+        String blueprintId = reader.readString();
+        return new CommandData.CreateUnitCommand(armyIndex, blueprintId, Vector3.read(reader));
     }
 
-    private static Map<String, Object> readVector(ReplayParser reader) {
-        Map<String, Object> vector = new HashMap<>();
-        vector.put("x", reader.readFloat());
-        vector.put("y", reader.readFloat());
-        vector.put("z", reader.readFloat());
-        return vector;
+    public static CommandData commandCreateProp(ReplayByteReader reader) {
+        String name = reader.readString();
+        return new CommandData.CreatePropCommand(name, Vector3.read(reader));
     }
 
-    public static Map<String, Object> commandCreateProp(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "create_prop");
-        result.put("name", reader.readString());
-        result.put("vector", readVector(reader));
-        return result;
+    public static CommandData commandDestroyEntity(ReplayByteReader reader) {
+        return new CommandData.DestroyEntityCommand(reader.readInt());
     }
 
-    public static Map<String, Object> commandDestroyEntity(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "destroy_entity");
-        result.put("entity_id", reader.readInt());
-        return result;
+    public static CommandData commandWarpEntity(ReplayByteReader reader) {
+        int entityId = reader.readInt();
+        return new CommandData.WarpEntityCommand(entityId, Vector3.read(reader));
     }
 
-    public static Map<String, Object> commandWarpEntity(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "warp_entity");
-        result.put("entity_id", reader.readInt());
-        result.put("vector", readVector(reader));
-        return result;
+    public static CommandData commandProcessInfoPair(ReplayByteReader reader) {
+        int entityId = reader.readInt();
+        String arg1 = reader.readString();
+        String arg2 = reader.readString();
+        return new CommandData.ProcessInfoPairCommand(entityId, arg1, arg2);
     }
 
-    public static Map<String, Object> commandProcessInfoPair(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "process_info_pair");
-        result.put("entity_id", reader.readInt());
-        result.put("arg1", reader.readString());
-        result.put("arg2", reader.readString());
-        return result;
+    public static CommandData commandIssue(ReplayByteReader reader) {
+        return parseIssue(reader, false, true);
     }
 
-    public static Map<String, Object> commandIssue(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "issue");
-        result.put("entity_ids_set", parseEntityIdsSet(reader));
-        result.put("cmd_data", parseCommandData(reader));
-        return result;
+    public static CommandData commandFactoryIssue(ReplayByteReader reader) {
+        return parseIssue(reader, true, true);
     }
 
-    private static Map<String, Object> parseEntityIdsSet(ReplayParser reader) {
+    private static int[] parseEntityIdsSet(ReplayByteReader reader) {
         int unitsNumber = reader.readUnsignedInt();
-        List<Integer> unitIds = new ArrayList<>();
+        // The count is untrusted, but every id takes 4 bytes of a payload of at most 64 KiB
+        if (unitsNumber < 0 || unitsNumber > MAX_PAYLOAD_LENGTH / 4) {
+            throw new ReplayParseException("Invalid number of units: " + Integer.toUnsignedString(unitsNumber));
+        }
+        int[] unitIds = new int[unitsNumber];
         for (int i = 0; i < unitsNumber; i++) {
-            unitIds.add(reader.readUnsignedInt());
+            unitIds[i] = reader.readUnsignedInt();
         }
-        Map<String, Object> result = new HashMap<>();
-        result.put("units_number", unitsNumber);
-        result.put("unit_ids", unitIds);
-        return result;
-    }
-
-    private static Map<String, Object> parseCommandData(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("command_id", reader.readInt());
-        result.put("arg1", reader.readInt());
-        result.put("command_type", CommandOrderType.fromValue(reader.readByte()));
-        result.put("arg2", reader.readInt());
-        result.put("target", parseTarget(reader));
-        result.put("arg3", reader.readBool());
-        result.put("formation", parseFormation(reader));
-        result.put("blueprint_id", reader.readString());
-        result.put("arg4", reader.read(12));
-        result.put("arg5", null);
-        result.put("cells", reader.readLua(null));
-        return result;
-    }
-
-    private static Map<String, Object> parseTarget(ReplayParser reader) {
+        return unitIds;
+    }
+
+    /**
+     * @param decodeCells if false, the raw arguments and the Lua cells at the end of the payload are not read
+     */
+    private static CommandData.IssueCommand parseIssue(ReplayByteReader reader, boolean factory, boolean decodeCells) {
+        int[] unitIds = parseEntityIdsSet(reader);
+        int commandId = reader.readInt();
+        int arg1 = reader.readInt();
+        CommandOrderType orderType = CommandOrderType.fromValue(reader.readByte());
+        int arg2 = reader.readInt();
+        CommandData.Target target = parseTarget(reader);
+        boolean arg3 = reader.readBool();
+        CommandData.Formation formation = parseFormation(reader);
+        String blueprintId = reader.readString();
+        byte[] arg4 = null;
+        Object cells = null;
+        if (decodeCells) {
+            arg4 = reader.read(12);
+            cells = reader.readLua(null);
+        }
+        return new CommandData.IssueCommand(factory, unitIds, commandId, arg1, orderType, arg2, target, arg3,
+                formation, blueprintId, arg4, cells);
+    }
+
+    private static CommandData.Target parseTarget(ReplayByteReader reader) {
         int target = reader.readByte();
-        Map<String, Object> result = new HashMap<>();
-        result.put("target", target);
         if (target == TargetType.ENTITY) {
-            result.put("entity_id", reader.readInt());
+            return new CommandData.Target(target, reader.readInt(), null);
         } else if (target == TargetType.POSITION) {
-            result.put("position", readVector(reader));
+            return new CommandData.Target(target, -1, Vector3.read(reader));
+        } else if (target == CommandData.Target.NONE.type()) {
+            return CommandData.Target.NONE;
         }
-        return result;
+        return new CommandData.Target(target, -1, null);
     }
 
-    private static Map<String, Object> parseFormation(ReplayParser reader) {
+    private static CommandData.Formation parseFormation(ReplayByteReader reader) {
         int formation = reader.readInt();
         if (formation != -1) {
-            Map<String, Object> result = new HashMap<>();
-            result.put("w", reader.readFloat());
-            result.put("position", readVector(reader));
-            result.put("scale", reader.readFloat());
-            return result;
+            float w = reader.readFloat();
+            Vector3 position = Vector3.read(reader);
+            float scale = reader.readFloat();
+            return new CommandData.Formation(w, position, scale);
         }
         return null;
     }
 
-    public static Map<String, Object> commandFactoryIssue(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "factory_issue");
-        result.put("entity_ids_set", parseEntityIdsSet(reader));
-        result.put("cmd_data", parseCommandData(reader));
-        return result;
-    }
-
-    public static Map<String, Object> commandCommandCountIncrease(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "command_count_increase");
-        result.put("command_id", reader.readUnsignedInt());
-        result.put("delta", reader.readInt());
-        return result;
+    public static CommandData commandCommandCountIncrease(ReplayByteReader reader) {
+        int commandId = reader.readUnsignedInt();
+        return new CommandData.IncreaseCommandCountCommand(commandId, reader.readInt());
     }
 
-    public static Map<String, Object> commandCommandCountDecrease(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "command_count_decrease");
-        result.put("command_id", reader.readUnsignedInt());
-        result.put("delta", reader.readInt());
-        return result;
+    public static CommandData commandCommandCountDecrease(ReplayByteReader reader) {
+        int commandId = reader.readUnsignedInt();
+        return new CommandData.DecreaseCommandCountCommand(commandId, reader.readInt());
     }
 
-    public static Map<String, Object> commandSetCommandTarget(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "set_command_target");
-        result.put("command_id", reader.readUnsignedInt());
-        result.put("target", parseTarget(reader));
-        return result;
+    public static CommandData commandSetCommandTarget(ReplayByteReader reader) {
+        int commandId = reader.readUnsignedInt();
+        return new CommandData.SetCommandTargetCommand(commandId, parseTarget(reader));
     }
 
-    public static Map<String, Object> commandSetCommandType(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "set_command_type");
-        result.put("command_id", reader.readUnsignedInt());
-        result.put("target_id", reader.readInt());
-        return result;
+    public static CommandData commandSetCommandType(ReplayByteReader reader) {
+        int commandId = reader.readUnsignedInt();
+        return new CommandData.SetCommandTypeCommand(commandId, reader.readInt());
     }
 
-    public static Map<String, Object> commandSetCommandCells(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "set_command_cells");
-        result.put("command_id", reader.readUnsignedInt());
+    public static CommandData commandSetCommandCells(ReplayByteReader reader) {
+        int commandId = reader.readUnsignedInt();
         /*
         Example for cells:
         // ISSUE_COMMAND 1 {entity_ids_set={units_number=1, unit_ids=[1048576]}, cmd_data={arg3=false, arg2=-1, command_id=16777220, arg5=null,
         arg4=[B@41a6d121, cells={TaskName=EnhanceTask, Enhancement=ResourceAllocationAdvanced}, command_type=28, arg1=-1, formation=null,
         target={target=0}, blueprint_id=}, type=issue}
          */
-        result.put("cells", reader.readLua(null));
-        result.put("vector", readVector(reader));
-        return result;
+        Object cells = reader.readLua(null);
+        return new CommandData.SetCommandCellsCommand(commandId, cells, Vector3.read(reader));
     }
 
-    public static Map<String, Object> commandRemoveFromQueue(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "remove_from_queue");
-        result.put("command_id", reader.readUnsignedInt());
-        result.put("unit_id", reader.readInt());
-        return result;
+    public static CommandData commandRemoveFromQueue(ReplayByteReader reader) {
+        int commandId = reader.readUnsignedInt();
+        return new CommandData.RemoveCommandFromQueueCommand(commandId, reader.readInt());
     }
 
-    public static Map<String, Object> commandDebugCommand(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "debug_command");
-        result.put("debug_command", reader.readString());
-        result.put("vector", readVector(reader));
-        result.put("focus_army_index", reader.readByte());
-        result.put("entity_ids_set", parseEntityIdsSet(reader));
-        return result;
+    public static CommandData commandDebugCommand(ReplayByteReader reader) {
+        String debugCommand = reader.readString();
+        Vector3 position = Vector3.read(reader);
+        int focusArmyIndex = reader.readByte();
+        return new CommandData.DebugCommand(debugCommand, position, focusArmyIndex, parseEntityIdsSet(reader));
     }
 
-    public static Map<String, Object> commandExecuteLuaInSim(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "execute_lua_in_sim");
-        result.put("lua", reader.readString());
-        return result;
+    public static CommandData commandExecuteLuaInSim(ReplayByteReader reader) {
+        return new CommandData.ExecuteLuaInSimCommand(reader.readString());
     }
 
-    public static Map<String, Object> commandLuaSimCallback(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "lua_sim_callback");
-        result.put("lua_name", reader.readString());
-        result.put("lua", reader.readLua(null));
-        return result;
+    public static CommandData commandLuaSimCallback(ReplayByteReader reader) {
+        String luaName = reader.readString();
+        return new CommandData.LuaSimCallbackCommand(luaName, reader.readLua(null));
     }
 
-    public static Map<String, Object> commandEndGame(ReplayParser reader) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("type", "end_game");
-        return result;
+    public static CommandData commandEndGame(ReplayByteReader reader) {
+        return CommandData.EndGameCommand.INSTANCE;
     }
 
     // Additional helper methods for parsing targets, formations, etc., can be added here.
@@ -367,17 +331,17 @@ public class CommandParser {
         public static CommandOrderType fromValue(int value) {
             CommandOrderType commandType = ENUM_MAP.get(value);
             if (commandType == null) {
-                throw new IllegalArgumentException("Unknown value: " + value);
+                throw new ReplayParseException("Unknown order type: " + value);
             }
             return commandType;
         }
     }
 
     public interface CommandFunction {
-        Map<String, Object> parse(ReplayParser reader);
+        CommandData parse(ReplayByteReader reader);
     }
 
-    private static class TargetType {
+    static class TargetType {
         public static final int ENTITY = 1;
         public static final int POSITION = 2;
     }
@@ -0,0 +1,194 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.analyser.eventanalyser.CommandAnalyser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands parsed commands from the parsing thread to the {@link CommandAnalyser}s, which run on their own threads, so
+ * that decoding and analysing overlap.
+ * <p>
+ * The commands are published into a pre-allocated ring buffer with a single producer. Every analyser consumes it at
+ * its own pace and processes everything published so far as one batch. The producer only overwrites a slot once all
+ * analysers are past it. Each analyser is only ever called from one thread, so analysers need no synchronisation as
+ * long as they do not share state with each other.
+ */
+class CommandPipeline implements AutoCloseable {
+    static final int RING_SIZE = 4096;
+    private static final int MASK = RING_SIZE - 1;
+
+    private static final int SPINS_BEFORE_YIELD = 100;
+    private static final int YIELDS_BEFORE_PARK = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "replay-analyser-" + THREAD_NUMBER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Command[] ring = new Command[RING_SIZE];
+    private final AtomicLong published = new AtomicLong(-1);
+    private final List<AnalyserConsumer> consumers = new ArrayList<>();
+    private final List<Future<?>> futures = new ArrayList<>();
+    private volatile boolean finished;
+    private volatile boolean aborted;
+
+    // Only accessed by the producer
+    private long nextSequence;
+    private long minimumConsumed = -1;
+
+    CommandPipeline(List<CommandAnalyser> analysers) {
+        for (CommandAnalyser analyser : analysers) {
+            boolean[] subscribed = new boolean[CommandType.values().length];
+            boolean any = false;
+            for (CommandType commandType : analyser.getSubscribedCommandTypes()) {
+                subscribed[commandType.ordinal()] = true;
+                any = true;
+            }
+            if (any) {
+                consumers.add(new AnalyserConsumer(analyser, subscribed));
+            }
+        }
+        for (AnalyserConsumer consumer : consumers) {
+            futures.add(EXECUTOR.submit(consumer));
+        }
+    }
+
+    /**
+     * Publishes the command to all analysers, waiting while the slowest analyser is a full ring behind.
+     */
+    void publish(Command command) {
+        long sequence = nextSequence++;
+        long wrapPoint = sequence - RING_SIZE;
+        int idle = 0;
+        while (wrapPoint > minimumConsumed) {
+            minimumConsumed = minimumConsumed();
+            if (wrapPoint > minimumConsumed) {
+                idle = idle(idle);
+            }
+        }
+        ring[(int) sequence & MASK] = command;
+        published.setRelease(sequence);
+    }
+
+    /**
+     * Waits until all analysers have processed every published command.
+     *
+     * @throws RuntimeException the first exception thrown by an analyser
+     */
+    void finish() {
+        finished = true;
+        awaitConsumers();
+    }
+
+    /**
+     * Stops the analysers if the pipeline was not finished, e.g. because parsing failed.
+     */
+    @Override
+    public void close() {
+        if (finished) {
+            return;
+        }
+        aborted = true;
+        finished = true;
+        try {
+            awaitConsumers();
+        } catch (RuntimeException e) {
+            // The reason for aborting is more relevant
+        }
+    }
+
+    private void awaitConsumers() {
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException runtimeException
+                            ? runtimeException
+                            : new IllegalStateException("Analyser failed", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                aborted = true;
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the analysers", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private long minimumConsumed() {
+        long minimum = Long.MAX_VALUE;
+        for (AnalyserConsumer consumer : consumers) {
+            minimum = Math.min(minimum, consumer.consumed.getAcquire());
+        }
+        return minimum;
+    }
+
+    private static int idle(int idle) {
+        if (idle < SPINS_BEFORE_YIELD) {
+            Thread.onSpinWait();
+        } else if (idle < SPINS_BEFORE_YIELD + YIELDS_BEFORE_PARK) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return idle + 1;
+    }
+
+    private class AnalyserConsumer implements Runnable {
+        private final CommandAnalyser analyser;
+        private final boolean[] subscribed;
+        private final AtomicLong consumed = new AtomicLong(-1);
+
+        private AnalyserConsumer(CommandAnalyser analyser, boolean[] subscribed) {
+            this.analyser = analyser;
+            this.subscribed = subscribed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long next = 0;
+                int idle = 0;
+                while (!aborted) {
+                    // Read the flag first, so that nothing published before it was set is missed
+                    boolean done = finished;
+                    long available = published.getAcquire();
+                    if (available < next) {
+                        if (done) {
+                            return;
+                        }
+                        idle = idle(idle);
+                        continue;
+                    }
+                    idle = 0;
+                    for (long sequence = next; sequence <= available; sequence++) {
+                        Command command = ring[(int) sequence & MASK];
+                        if (subscribed[command.getCommandType().ordinal()]) {
+                            analyser.analyseCommand(command);
+                        }
+                    }
+                    next = available + 1;
+                    consumed.setRelease(available);
+                }
+            } finally {
+                // Never hold back the producer, e.g. after this analyser failed
+                consumed.setRelease(Long.MAX_VALUE);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts, bytes and parse time per {@link CommandType} over all parsed replays, to see which command types dominate
+ * the parse time.
+ * <p>
+ * A parser counts into its own arrays and adds them here once it is done, so counting does not contend between
+ * parsers. The time covers decoding or skipping the payload, not the analysers. Reading the clock for every command
+ * would cost a noticeable part of the parse time, so only every {@value #TIMING_SAMPLE_INTERVAL}th command of a type
+ * is timed and counted for the ones in between.
+ */
+public final class CommandStatistics {
+    public static final int TIMING_SAMPLE_INTERVAL = 16;
+
+    private static final CommandType[] COMMAND_TYPES = CommandType.values();
+
+    private static final LongAdder[] COUNTS = newAdders();
+    private static final LongAdder[] BYTES = newAdders();
+    private static final LongAdder[] NANOS = newAdders();
+
+    private CommandStatistics() {
+    }
+
+    /**
+     * Adds the counters of one parse run, all indexed by {@link CommandType#ordinal()}.
+     */
+    static void add(long[] counts, long[] bytes, long[] nanos) {
+        for (int i = 0; i < COMMAND_TYPES.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            COUNTS[i].add(counts[i]);
+            BYTES[i].add(bytes[i]);
+            NANOS[i].add(nanos[i]);
+        }
+    }
+
+    /**
+     * @return the counters of all command types, in the order of {@link CommandType}
+     */
+    public static List<Statistics> getStatistics() {
+        List<Statistics> statistics = new ArrayList<>(COMMAND_TYPES.length);
+        for (CommandType commandType : COMMAND_TYPES) {
+            int i = commandType.ordinal();
+            statistics.add(new Statistics(commandType, COUNTS[i].sum(), BYTES[i].sum(), NANOS[i].sum()));
+        }
+        return statistics;
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[COMMAND_TYPES.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * @param count commands of this type
+     * @param bytes bytes of these commands as read from the replay or its {@link CommandLog}, including their type
+     *              and length
+     * @param nanos estimated time spent decoding or skipping their payloads
+     */
+    public record Statistics(CommandType commandType, long count, long bytes, long nanos) {
+    }
+}
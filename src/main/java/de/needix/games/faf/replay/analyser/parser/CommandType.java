@@ -1,5 +1,6 @@
 package de.needix.games.faf.replay.analyser.parser;
 
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
 import lombok.ToString;
 
 /**
@@ -35,6 +36,9 @@ public enum CommandType {
     private static final CommandType[] VALUES = values();
 
     public static CommandType getFromIndex(int index) {
+        if (index < 0 || index >= VALUES.length) {
+            throw new ReplayParseException("Unknown command type: " + index);
+        }
         return VALUES[index];
     }
 }
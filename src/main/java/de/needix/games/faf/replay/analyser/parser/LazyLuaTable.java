@@ -0,0 +1,109 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A Lua table of the replay header which is kept as its raw bytes and only decoded when it is read for the first time.
+ * Most analyses never look at the scenario or the army tables before they are persisted, so bulk imports do not pay
+ * for decoding them into maps.
+ */
+public class LazyLuaTable extends AbstractMap<String, Object> {
+    private final Function<byte[], Map<String, Object>> decoder;
+    private byte[] raw;
+    private Map<String, Object> decoded;
+
+    /**
+     * @param raw the serialised table, as prefixed by its size in the replay header
+     */
+    public LazyLuaTable(byte[] raw) {
+        this(raw, LazyLuaTable::decode);
+    }
+
+    /**
+     * @param decoder decodes the raw bytes once the table is read
+     * @throws ReplayParseException if the raw bytes are not a table, see {@link #validate(byte[])}
+     */
+    public LazyLuaTable(byte[] raw, Function<byte[], Map<String, Object>> decoder) {
+        this.raw = Objects.requireNonNull(raw, "raw must not be null");
+        this.decoder = Objects.requireNonNull(decoder, "decoder must not be null");
+        validate(raw);
+    }
+
+    /**
+     * Checks that the raw bytes decode to a table without building it. A corrupt table thereby fails while its replay
+     * is parsed and not only when the table is read, e.g. when the replay is persisted.
+     *
+     * @throws ReplayParseException if the raw bytes are not a table
+     */
+    public static void validate(byte[] raw) {
+        ReplayByteReader reader = new ReplayByteReader(raw);
+        int type = reader.readByte();
+        if (type != ReplayByteReader.DataType.TABLE) {
+            throw new ReplayParseException("Expected a Lua table but got data type " + type);
+        }
+        reader.skipLua(type);
+    }
+
+    /**
+     * @return the table decoded from the raw bytes
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> decode(byte[] raw) {
+        Object lua = new ReplayByteReader(raw).readLua(null);
+        if (!(lua instanceof Map<?, ?> table)) {
+            throw new ReplayParseException("Expected a Lua table but got " + lua);
+        }
+        return (Map<String, Object>) table;
+    }
+
+    /**
+     * @return true, if the table has already been decoded
+     */
+    public synchronized boolean isDecoded() {
+        return decoded != null;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return decoded().entrySet();
+    }
+
+    @Override
+    public Object get(Object key) {
+        return decoded().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return decoded().containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return decoded().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return decoded().remove(key);
+    }
+
+    @Override
+    public int size() {
+        return decoded().size();
+    }
+
+    private synchronized Map<String, Object> decoded() {
+        if (decoded == null) {
+            decoded = decoder.apply(raw);
+            raw = null;
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,259 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import java.util.*;
+
+/**
+ * A decoded Lua table. Like in Lua itself, the consecutive numeric keys 1, 2, 3, ... are kept in an array part and all
+ * other keys in a hash part. As long as the array part only holds numbers, it is backed by a float[], so number arrays
+ * (unit lists, painting samples, ...) are stored without boxing.
+ * <p>
+ * The table is a regular {@link Map} with {@link Float} keys for the array part, so it can be used and serialised like
+ * the maps it replaces. The primitive accessors avoid boxing when reading numbers.
+ */
+public class LuaTable extends AbstractMap<Object, Object> {
+    private static final int INITIAL_ARRAY_CAPACITY = 4;
+
+    private float[] numbers;
+    private Object[] values;
+    private int arraySize;
+    private Map<Object, Object> hash;
+
+    /**
+     * @return the number of consecutive numeric keys starting at 1
+     */
+    public int arraySize() {
+        return arraySize;
+    }
+
+    /**
+     * @return true, if all values of the array part are numbers
+     */
+    public boolean isNumberArray() {
+        return values == null;
+    }
+
+    /**
+     * @param index Lua index, starting at 1
+     * @return the number stored at the index of the array part
+     * @throws ClassCastException if the value is not a number
+     */
+    public float getNumber(int index) {
+        Objects.checkIndex(index - 1, arraySize);
+        if (values == null) {
+            return numbers[index - 1];
+        }
+        return (Float) values[index - 1];
+    }
+
+    /**
+     * @param index Lua index, starting at 1
+     * @return the value stored at the index of the array part
+     */
+    public Object getArrayValue(int index) {
+        Objects.checkIndex(index - 1, arraySize);
+        return values == null ? numbers[index - 1] : values[index - 1];
+    }
+
+    /**
+     * @return the number stored under the key, or the default value if there is none
+     */
+    public float getNumber(Object key, float defaultValue) {
+        int index = arrayIndex(key);
+        if (index >= 0 && values == null) {
+            return numbers[index];
+        }
+        Object value = get(key);
+        return value instanceof Number number ? number.floatValue() : defaultValue;
+    }
+
+    /**
+     * @return the value under the key as string, or null if there is none
+     */
+    public String getString(Object key) {
+        Object value = get(key);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Stores a number under a number key without boxing, if the key belongs to the array part.
+     */
+    public void put(float key, float value) {
+        int index = arrayIndex(key);
+        if (index >= 0 && values == null) {
+            numbers[index] = value;
+        } else if (index < 0 && isNextArrayKey(key) && values == null) {
+            ensureArrayCapacity();
+            numbers[arraySize++] = value;
+        } else {
+            put((Object) key, (Object) value);
+        }
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        int index = arrayIndex(key);
+        if (index >= 0) {
+            Object previous = getArrayValue(index + 1);
+            setArrayValue(index, value);
+            return previous;
+        }
+        if (key instanceof Float number && isNextArrayKey(number)) {
+            ensureArrayCapacity();
+            setArrayValue(arraySize++, value);
+            return null;
+        }
+        if (hash == null) {
+            hash = new HashMap<>();
+        }
+        return hash.put(key, value);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = arrayIndex(key);
+        if (index >= 0) {
+            return getArrayValue(index + 1);
+        }
+        return hash == null ? null : hash.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return arrayIndex(key) >= 0 || (hash != null && hash.containsKey(key));
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = arrayIndex(key);
+        if (index < 0) {
+            return hash == null ? null : hash.remove(key);
+        }
+
+        Object previous = getArrayValue(index + 1);
+        // The keys behind the removed one are no longer consecutive
+        int oldSize = arraySize;
+        arraySize = index;
+        for (int i = index + 1; i < oldSize; i++) {
+            if (hash == null) {
+                hash = new HashMap<>();
+            }
+            hash.put((float) (i + 1), values == null ? numbers[i] : values[i]);
+        }
+        if (values != null) {
+            // Not part of the array any more, don't keep them reachable
+            Arrays.fill(values, index, oldSize, null);
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        arraySize = 0;
+        numbers = null;
+        values = null;
+        hash = null;
+    }
+
+    @Override
+    public int size() {
+        return arraySize + (hash == null ? 0 : hash.size());
+    }
+
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Object, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return LuaTable.this.size();
+            }
+        };
+    }
+
+    /**
+     * @return the index in the array part, or -1 if the key does not belong to it
+     */
+    private int arrayIndex(Object key) {
+        if (key instanceof Float number) {
+            return arrayIndex(number.floatValue());
+        }
+        return -1;
+    }
+
+    private int arrayIndex(float key) {
+        int index = (int) key;
+        if (index == key && index >= 1 && index <= arraySize) {
+            return index - 1;
+        }
+        return -1;
+    }
+
+    private boolean isNextArrayKey(float key) {
+        return key == arraySize + 1 && (hash == null || !hash.containsKey(key));
+    }
+
+    private void ensureArrayCapacity() {
+        int capacity = values == null ? (numbers == null ? 0 : numbers.length) : values.length;
+        if (arraySize < capacity) {
+            return;
+        }
+        int newCapacity = Math.max(INITIAL_ARRAY_CAPACITY, capacity * 2);
+        if (values == null) {
+            numbers = numbers == null ? new float[newCapacity] : Arrays.copyOf(numbers, newCapacity);
+        } else {
+            values = Arrays.copyOf(values, newCapacity);
+        }
+    }
+
+    private void setArrayValue(int index, Object value) {
+        if (values == null) {
+            if (value instanceof Float number) {
+                numbers[index] = number;
+                return;
+            }
+            // The array part holds other values than numbers from now on
+            values = new Object[numbers.length];
+            for (int i = 0; i < arraySize; i++) {
+                values[i] = numbers[i];
+            }
+            numbers = null;
+        }
+        values[index] = value;
+    }
+
+    private class EntryIterator implements Iterator<Entry<Object, Object>> {
+        private int index;
+        private final Iterator<Entry<Object, Object>> hashIterator =
+                hash == null ? Collections.emptyIterator() : hash.entrySet().iterator();
+
+        @Override
+        public boolean hasNext() {
+            return index < arraySize || hashIterator.hasNext();
+        }
+
+        @Override
+        public Entry<Object, Object> next() {
+            if (index < arraySize) {
+                index++;
+                return new ArrayEntry(index);
+            }
+            return hashIterator.next();
+        }
+    }
+
+    private class ArrayEntry extends SimpleEntry<Object, Object> {
+        private ArrayEntry(int index) {
+            super((float) index, getArrayValue(index));
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            super.setValue(value);
+            return put(getKey(), value);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases memory-mapped files as soon as they are no longer used. Otherwise a mapping is only released once the
+ * garbage collector collects its buffer, which the small buffer objects rarely cause. Bulk analyses then keep the
+ * address space and file handles of thousands of replays mapped.
+ * <p>
+ * A released buffer and all its slices must not be accessed anymore, that crashes the JVM. Only release a mapping
+ * when its owner is sure that nothing kept a reference to it.
+ */
+public final class MappedBuffers {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedBuffers.class);
+
+    private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * Releases the mapping right away. If the JVM does not allow it, it is left to the garbage collector.
+     *
+     * @param buffer the buffer returned by {@link java.nio.channels.FileChannel#map}, or null
+     */
+    public static void release(MappedByteBuffer buffer) {
+        if (buffer == null || INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invokeExact((ByteBuffer) buffer);
+        } catch (Throwable e) {
+            LOGGER.debug("Could not release the mapped buffer, leaving it to the garbage collector", e);
+        }
+    }
+
+    /**
+     * @return sun.misc.Unsafe#invokeCleaner bound to its instance, the only way to unmap a buffer before Java 19
+     */
+    private static MethodHandle findInvokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.info("Mapped replays can not be released explicitly, they are released by the garbage collector", e);
+            return null;
+        }
+    }
+}
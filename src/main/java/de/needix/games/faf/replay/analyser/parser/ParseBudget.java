@@ -0,0 +1,27 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.exceptions.ReplayBudgetExceededException;
+
+/**
+ * Limits the work spent on parsing the commands of a single replay. {@link ReplayBody} checks the budget while it
+ * parses and throws a {@link ReplayBudgetExceededException} as soon as one limit is exceeded, so a pathological
+ * replay cannot occupy a thread for long. A single command is at most 64 KiB, so the budget is checked often enough
+ * between two commands.
+ *
+ * @param maxMillis   wall time for parsing the commands, 0 for no limit
+ * @param maxBytes    bytes of commands read from the replay or its {@link CommandLog}, 0 for no limit
+ * @param maxCommands number of commands, 0 for no limit
+ */
+public record ParseBudget(long maxMillis, long maxBytes, long maxCommands) {
+    public static final ParseBudget UNLIMITED = new ParseBudget(0, 0, 0);
+
+    public ParseBudget {
+        if (maxMillis < 0 || maxBytes < 0 || maxCommands < 0) {
+            throw new IllegalArgumentException("Budget limits must not be negative");
+        }
+    }
+
+    public boolean isUnlimited() {
+        return maxMillis == 0 && maxBytes == 0 && maxCommands == 0;
+    }
+}
@@ -3,100 +3,314 @@ package de.needix.games.faf.replay.analyser.parser;
 
 import de.needix.games.faf.replay.analyser.eventanalyser.CommandAnalyser;
 import de.needix.games.faf.replay.api.entities.replay.Replay;
+import de.needix.games.faf.replay.api.entities.replay.ReplaySeekPoint;
+import de.needix.games.faf.replay.exceptions.ReplayBudgetExceededException;
 import lombok.ToString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 
 @ToString
 public class ReplayBody {
     private static final Logger LOGGER = LoggerFactory.getLogger(ReplayBody.class);
 
-    private final ReplayParser replayReader;
+    /**
+     * Desyncs are usually not recovered from, every later checksum differs as well. Only the first ticks are kept.
+     */
+    public static final int MAX_RECORDED_DESYNC_TICKS = 100;
+    /**
+     * Minimum distance between two seek points, 30 game seconds
+     */
+    public static final int SEEK_INTERVAL_TICKS = 300;
+    /**
+     * Reading the clock for every command would slow down parsing, so the time budget is only checked this often
+     */
+    private static final int BUDGET_TIME_CHECK_INTERVAL = 1024;
+
+    private final ReplayByteReader replayReader;
+    private final CommandLogReader logReader;
+    private final CommandLogWriter logWriter;
     private final Replay replayToFill;
 
-    private int lastDesyncTick;
     private int tick;
     private int playerId;
 
-    private int previousTick;
-    private String previousChecksum;
+    private CommandData.VerifyChecksumCommand previousChecksum;
+
+    private final List<Integer> desyncTicks = new ArrayList<>();
+    private int desyncCount;
+
+    private final List<ReplaySeekPoint> seekPoints = new ArrayList<>();
+    private int nextSeekTick;
+
+    // Added to the CommandStatistics once parsing is done, indexed by the ordinal of the command type
+    private final long[] commandCounts = new long[CommandType.values().length];
+    private final long[] commandBytes = new long[CommandType.values().length];
+    private final long[] commandNanos = new long[CommandType.values().length];
+
+    private ParseBudget budget = ParseBudget.UNLIMITED;
+    private long budgetStartNanos;
+    private long budgetCommands;
+    private long budgetBytes;
+
+    public ReplayBody(ReplayByteReader reader, Replay replayToFill) {
+        this(reader, replayToFill, null);
+    }
 
-    public ReplayBody(ReplayParser reader, Replay replayToFill) {
-        this.replayReader = Objects.requireNonNull(reader, "reader must not be null");
+    /**
+     * @param logWriter if not null, every command is decoded completely and written to the command log
+     */
+    public ReplayBody(ReplayByteReader reader, Replay replayToFill, CommandLogWriter logWriter) {
+        this(Objects.requireNonNull(reader, "reader must not be null"), null, logWriter, replayToFill);
+    }
+
+    /**
+     * Reads the commands from a command log instead of the replay.
+     */
+    public ReplayBody(CommandLogReader logReader, Replay replayToFill) {
+        this(null, Objects.requireNonNull(logReader, "logReader must not be null"), null, replayToFill);
+    }
+
+    private ReplayBody(ReplayByteReader reader, CommandLogReader logReader, CommandLogWriter logWriter, Replay replayToFill) {
+        this.replayReader = reader;
+        this.logReader = logReader;
+        this.logWriter = logWriter;
         this.replayToFill = Objects.requireNonNull(replayToFill, "replayToFill must not be null");
 
         this.tick = 0;
-        this.lastDesyncTick = -1;
         this.playerId = -1;
 
-        this.previousTick = -1;
         this.previousChecksum = null;
     }
 
     public void parse(List<CommandAnalyser> commandConsumers) {
-        int replayBufferSize = replayReader.size();
-        while (replayReader.offset() + 3 <= replayBufferSize) {
-            Command command = parseCommandAndGetData();
-            commandConsumers.forEach(consumer -> consumer.analyseCommand(command));
+        parse(commandConsumers, false);
+    }
+
+    /**
+     * @param pipelined if true, every analyser consumes the commands on its own thread while they are parsed, see
+     *                  {@link CommandPipeline}. Otherwise, the analysers are called on the parsing thread.
+     */
+    public void parse(List<CommandAnalyser> commandConsumers, boolean pipelined) {
+        parse(commandConsumers, pipelined, ParseBudget.UNLIMITED);
+    }
+
+    /**
+     * @param budget limits the work spent on the commands of this replay
+     * @throws ReplayBudgetExceededException if the budget is exceeded, the analysers are not finalized then
+     */
+    public void parse(List<CommandAnalyser> commandConsumers, boolean pipelined, ParseBudget budget) {
+        this.budget = Objects.requireNonNull(budget, "budget must not be null");
+        this.budgetStartNanos = System.nanoTime();
+        CommandFilter filter = new CommandFilter(commandConsumers, logWriter != null);
+        if (pipelined && Runtime.getRuntime().availableProcessors() < 2) {
+            // The threads would only take turns on the single core
+            LOGGER.debug("Only one processor available, analysing commands on the parsing thread");
+            pipelined = false;
+        }
+        LOGGER.debug("Parsing commands with {}, pipelined: {}", filter, pipelined);
+        if (replayReader != null) {
+            // Everything before the first advance is found from the start of the body
+            addSeekPoint(replayReader.offset());
+        }
+        try {
+            if (pipelined) {
+                try (CommandPipeline pipeline = new CommandPipeline(commandConsumers)) {
+                    while (hasNextCommand()) {
+                        Command command = nextCommand(filter);
+                        if (filter.getSubscribers(command.getCommandType()).length > 0) {
+                            pipeline.publish(command);
+                        }
+                    }
+                    pipeline.finish();
+                }
+            } else {
+                while (hasNextCommand()) {
+                    Command command = nextCommand(filter);
+                    for (CommandAnalyser consumer : filter.getSubscribers(command.getCommandType())) {
+                        consumer.analyseCommand(command);
+                    }
+                }
+            }
+        } finally {
+            CommandStatistics.add(commandCounts, commandBytes, commandNanos);
         }
         commandConsumers.forEach(CommandAnalyser::finalizeAnalysis);
+        replayToFill.setDesynced(desyncCount > 0);
+        replayToFill.setDesyncCount(desyncCount);
+        replayToFill.setDesyncTicks(desyncTicks);
+        replayToFill.setSeekPoints(logReader != null ? logReader.getSeekPoints() : seekPoints);
+        if (desyncCount > 0) {
+            LOGGER.debug("Replay desynced at {} ticks, first at tick {}", desyncCount, desyncTicks.get(0));
+        }
         LOGGER.debug("Parsed all commands");
     }
 
-    private Command parseCommandAndGetData() {
-        byte[] commandTypeByte = replayReader.read(1);
-        byte[] commandLengthByte = replayReader.read(2);
+    /**
+     * Parses only the commands of the given tick range. Parsing starts at the seek point, everything before it is
+     * skipped without being decoded, and stops after the last command of the range.
+     *
+     * @param seekPoint a seek point of this replay before the range, see {@link Replay#getSeekPoints()}
+     * @return the fully decoded commands with ticks in the range, including both ends
+     */
+    public List<Command> parseRange(ReplaySeekPoint seekPoint, int fromTick, int toTick) {
+        Objects.requireNonNull(seekPoint, "seekPoint must not be null");
+        if (replayReader == null) {
+            throw new IllegalStateException("Ranges can only be parsed from the replay itself");
+        }
+        replayReader.skipTo(seekPoint.getOffset());
+        tick = seekPoint.getTick();
+        playerId = seekPoint.getPlayerId();
+        nextSeekTick = Integer.MAX_VALUE;
+
+        CommandFilter filter = new CommandFilter(List.of(), true);
+        List<Command> commands = new ArrayList<>();
+        while (tick <= toTick && replayReader.hasRemaining(3)) {
+            Command command = parseCommandAndGetData(filter);
+            if (command.getTick() >= fromTick && command.getTick() <= toTick) {
+                commands.add(command);
+            }
+        }
+        return commands;
+    }
+
+    private boolean hasNextCommand() {
+        return logReader != null ? logReader.nextCommand() : replayReader.hasRemaining(3);
+    }
+
+    private Command nextCommand(CommandFilter filter) {
+        return logReader != null ? readCommandFromLog(filter) : parseCommandAndGetData(filter);
+    }
+
+    private Command readCommandFromLog(CommandFilter filter) {
+        CommandType commandType = logReader.getCommandType();
+        int ordinal = commandType.ordinal();
+        boolean timed = commandCounts[ordinal] % CommandStatistics.TIMING_SAMPLE_INTERVAL == 0;
+        long startTime = timed ? System.nanoTime() : 0;
 
-        CommandType command = CommandType.getFromIndex(Byte.toUnsignedInt(commandTypeByte[0]));
-        int commandLength = Byte.toUnsignedInt(commandLengthByte[1]) << 8 | Byte.toUnsignedInt(commandLengthByte[0]);
+        Command command = processCommand(commandType, logReader.readCommandData(filter));
+
+        commandCounts[ordinal]++;
+        commandBytes[ordinal] += logReader.getRecordSize();
+        chargeBudget(logReader.getRecordSize());
+        if (timed) {
+            commandNanos[ordinal] += (System.nanoTime() - startTime) * CommandStatistics.TIMING_SAMPLE_INTERVAL;
+        }
+        return command;
+    }
+
+    private Command parseCommandAndGetData(CommandFilter filter) {
+        long commandOffset = replayReader.offset();
+        CommandType command = CommandType.getFromIndex(replayReader.readByte());
+        if (command == CommandType.ADVANCE && tick >= nextSeekTick) {
+            addSeekPoint(commandOffset);
+        }
+        int commandLength = replayReader.readUnsignedShort();
 
         int bytesToRead = commandLength - 3;
-        int lastOffset = replayReader.offset();
+        long lastOffset = replayReader.offset();
+        int ordinal = command.ordinal();
+        boolean timed = commandCounts[ordinal] % CommandStatistics.TIMING_SAMPLE_INTERVAL == 0;
+        long startTime = timed ? System.nanoTime() : 0;
 
-        Command parsedNextCommand = parseNextCommand(command);
-        int currentOffset = replayReader.offset();
-        int bytesRead = currentOffset - lastOffset;
+        Command parsedNextCommand = parseNextCommand(command, filter);
+        long currentOffset = replayReader.offset();
+        int bytesRead = (int) (currentOffset - lastOffset);
         if (bytesRead < bytesToRead) {
             int bytesToSkip = bytesToRead - bytesRead;
-            LOGGER.debug("Command {} was expected to read {} bytes, but read {} bytes. Skipping {} bytes.", parsedNextCommand, bytesToRead, bytesRead, bytesToSkip);
-            byte[] skippedBytesArray = replayReader.read(bytesToSkip);
-            LOGGER.debug("Skipped {} bytes: String: \"{}\"; Raw bytes: {}", bytesToSkip, new String(skippedBytesArray), skippedBytesArray);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Command {} was expected to read {} bytes, but read {} bytes. Skipping {} bytes.", parsedNextCommand, bytesToRead, bytesRead, bytesToSkip);
+                byte[] skippedBytesArray = replayReader.read(bytesToSkip);
+                LOGGER.debug("Skipped {} bytes: String: \"{}\"; Raw bytes: {}", bytesToSkip, new String(skippedBytesArray), skippedBytesArray);
+            } else {
+                replayReader.skip(bytesToSkip);
+            }
 
         } else if (bytesRead > bytesToRead) {
             LOGGER.error("Command {} was expected to read {} bytes, but read {} bytes. This is most likely a bug.", parsedNextCommand, bytesToRead, bytesRead);
 
         }
+
+        commandCounts[ordinal]++;
+        commandBytes[ordinal] += commandLength;
+        chargeBudget(commandLength);
+        if (timed) {
+            commandNanos[ordinal] += (System.nanoTime() - startTime) * CommandStatistics.TIMING_SAMPLE_INTERVAL;
+        }
         return parsedNextCommand;
     }
 
-    private Command parseNextCommand(CommandType command) {
-        Map<String, Object> parsedCommandData = CommandParser.parseCommand(command, replayReader);
+    private Command parseNextCommand(CommandType command, CommandFilter filter) {
+        CommandData parsedCommandData = CommandParser.parseCommand(command, replayReader, filter);
+        if (logWriter != null) {
+            logWriter.write(command, parsedCommandData);
+        }
         return processCommand(command, parsedCommandData);
     }
 
-    private Command processCommand(CommandType commandType, Map<String, Object> commandData) {
-        lastDesyncTick = -1;
+    private Command processCommand(CommandType commandType, CommandData commandData) {
+        boolean desync = false;
 
-        if (commandType == CommandType.ADVANCE) {
-            tick += (int) commandData.get("advance");
-        } else if (commandType == CommandType.SET_COMMAND_SOURCE) {
-            playerId = (int) commandData.get("player_id");
-        } else if (commandType == CommandType.COMMAND_SOURCE_TERMINATED) {
+        if (commandData instanceof CommandData.AdvanceCommand advance) {
+            tick += advance.advance();
+        } else if (commandData instanceof CommandData.SetCommandSourceCommand setCommandSource) {
+            playerId = setCommandSource.playerId();
+        } else if (commandData instanceof CommandData.CommandSourceTerminatedCommand) {
             playerId = -1;
-        } else if (commandType == CommandType.VERIFY_CHECKSUM) {
-            String checksum = commandData.get("checksum").toString();
-            int tickValue = (int) commandData.get("tick");
-            if (tickValue == previousTick && !Objects.equals(checksum, previousChecksum)) {
-                lastDesyncTick = tick;
+        } else if (commandData instanceof CommandData.VerifyChecksumCommand verifyChecksum) {
+            // Every player reports the checksum of a tick, they differ if the simulations diverged
+            if (previousChecksum != null && previousChecksum.tick() == verifyChecksum.tick()
+                    && !previousChecksum.hasSameChecksum(verifyChecksum)) {
+                desync = true;
+                recordDesync(verifyChecksum.tick());
             }
-            previousTick = tickValue;
-            previousChecksum = checksum;
+            previousChecksum = verifyChecksum;
+        }
+
+        return new Command(tick, desync, commandType, playerId, commandData);
+    }
+
+    private void addSeekPoint(long offset) {
+        ReplaySeekPoint seekPoint = new ReplaySeekPoint(tick, offset, playerId);
+        seekPoints.add(seekPoint);
+        if (logWriter != null) {
+            logWriter.writeSeekPoint(seekPoint);
         }
+        nextSeekTick = tick + SEEK_INTERVAL_TICKS;
+    }
 
-        return new Command(tick, lastDesyncTick != 1, commandType, playerId, commandData);
+    private void chargeBudget(int bytes) {
+        budgetCommands++;
+        budgetBytes += bytes;
+        if (budget.maxCommands() > 0 && budgetCommands > budget.maxCommands()) {
+            throw budgetExceeded(ReplayBudgetExceededException.Limit.COMMANDS);
+        }
+        if (budget.maxBytes() > 0 && budgetBytes > budget.maxBytes()) {
+            throw budgetExceeded(ReplayBudgetExceededException.Limit.BYTES);
+        }
+        if (budget.maxMillis() > 0 && budgetCommands % BUDGET_TIME_CHECK_INTERVAL == 0
+                && System.nanoTime() - budgetStartNanos > budget.maxMillis() * 1_000_000) {
+            throw budgetExceeded(ReplayBudgetExceededException.Limit.TIME);
+        }
+    }
+
+    private ReplayBudgetExceededException budgetExceeded(ReplayBudgetExceededException.Limit limit) {
+        Long replayId = replayToFill.getId();
+        return new ReplayBudgetExceededException(replayId != null ? replayId : -1, limit, budgetCommands, budgetBytes,
+                (System.nanoTime() - budgetStartNanos) / 1_000_000);
+    }
+
+    private void recordDesync(int desyncTick) {
+        if (!desyncTicks.isEmpty() && desyncTicks.get(desyncTicks.size() - 1) == desyncTick) {
+            // Another player disagreeing about the same tick
+            return;
+        }
+        desyncCount++;
+        if (desyncTicks.size() < MAX_RECORDED_DESYNC_TICKS) {
+            desyncTicks.add(desyncTick);
+        }
     }
 }
@@ -0,0 +1,384 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+import lombok.ToString;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.ZipException;
+
+/**
+ * Little-endian reader over the decompressed replay data.
+ * <p>
+ * All primitive reads use absolute positions on a single {@link ByteBuffer} (heap or direct), so reading numbers does
+ * not allocate. The reader either works on a buffer that already holds the complete data, or streams from a
+ * {@link ReadableByteChannel} through a bounded buffer that is compacted and refilled whenever a read needs more bytes
+ * than are left. In streaming mode the memory used by the reader does not depend on the length of the replay.
+ */
+@ToString(onlyExplicitlyIncluded = true)
+public class ReplayByteReader {
+    public static final int DEFAULT_STREAM_BUFFER_SIZE = 64 * 1024;
+    /**
+     * The largest block which can be read or skipped at once, far above the size of any real header table
+     */
+    public static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+    /**
+     * The deepest nesting of Lua tables which is read, far above the nesting of any real command. Tables are read
+     * recursively, deeper ones could overflow the stack.
+     */
+    public static final int MAX_LUA_DEPTH = 100;
+
+    private final ReadableByteChannel source;
+    private final int start;
+
+    private ByteBuffer buffer;
+    private int limit;
+    private long discarded;
+    private boolean endOfSource;
+
+    @ToString.Include
+    private int position;
+
+    private byte[] scratch = new byte[256];
+    private int luaDepth;
+
+    public ReplayByteReader(byte[] data) {
+        this(ByteBuffer.wrap(Objects.requireNonNull(data, "data must not be null")));
+    }
+
+    public ReplayByteReader(ByteBuffer data) {
+        Objects.requireNonNull(data, "data must not be null");
+        this.source = null;
+        this.buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.start = data.position();
+        this.limit = data.limit();
+        this.position = start;
+        this.endOfSource = true;
+    }
+
+    public ReplayByteReader(ReadableByteChannel source) {
+        this(source, ByteBuffer.allocate(DEFAULT_STREAM_BUFFER_SIZE));
+    }
+
+    /**
+     * Creates a streaming reader which uses the given buffer (heap or direct) as its refillable window. The content of
+     * the buffer is overwritten.
+     */
+    public ReplayByteReader(ReadableByteChannel source, ByteBuffer streamBuffer) {
+        this.source = Objects.requireNonNull(source, "source must not be null");
+        this.buffer = Objects.requireNonNull(streamBuffer, "streamBuffer must not be null").clear().order(ByteOrder.LITTLE_ENDIAN);
+        this.start = 0;
+        this.limit = 0;
+        this.position = 0;
+        this.endOfSource = false;
+    }
+
+    public String readString() {
+        int end = position;
+        while (true) {
+            if (end == limit) {
+                int scanned = end - position;
+                boolean available = fill(scanned + 1);
+                // The buffer might have been compacted, even if the data ended
+                end = position + scanned;
+                if (!available) {
+                    break;
+                }
+            }
+            if (buffer.get(end) == 0) {
+                break;
+            }
+            end++;
+        }
+        int length = end - position;
+        String result;
+        if (length <= StringInterner.MAX_LENGTH) {
+            result = StringInterner.intern(buffer, position, length, scratch(length));
+        } else if (buffer.hasArray()) {
+            result = new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = scratch(length);
+            buffer.get(position, bytes, 0, length);
+            result = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        // Skip the terminating zero byte, if there is one
+        position = Math.min(end + 1, limit);
+        return result;
+    }
+
+    public int readInt() {
+        ensureAvailable(4);
+        int value = buffer.getInt(position);
+        position += 4;
+        return value;
+    }
+
+    public long readLong() {
+        ensureAvailable(8);
+        long value = buffer.getLong(position);
+        position += 8;
+        return value;
+    }
+
+    public int readUnsignedInt() {
+        return readInt();
+    }
+
+    public short readShort() {
+        ensureAvailable(2);
+        short value = buffer.getShort(position);
+        position += 2;
+        return value;
+    }
+
+    public int readUnsignedShort() {
+        return readShort() & 0xFFFF;
+    }
+
+    public float readFloat() {
+        ensureAvailable(4);
+        float value = buffer.getFloat(position);
+        position += 4;
+        return value;
+    }
+
+    public int readByte() {
+        ensureAvailable(1);
+        return buffer.get(position++) & 0xFF;
+    }
+
+    public boolean readBool() {
+        return readByte() != 0;
+    }
+
+    public void readNil() {
+        skip(1);
+    }
+
+    public byte[] read(int size) {
+        checkBlockSize(size);
+        if (size == 0) {
+            return new byte[0];
+        }
+        ensureAvailable(size);
+        byte[] data = new byte[size];
+        buffer.get(position, data, 0, size);
+        position += size;
+        return data;
+    }
+
+    public void skip(int size) {
+        checkBlockSize(size);
+        // Skip blocks larger than the window window by window instead of growing the buffer
+        while (size > limit - position && size > buffer.capacity()) {
+            size -= limit - position;
+            position = limit;
+            ensureAvailable(Math.min(size, buffer.capacity()));
+        }
+        ensureAvailable(size);
+        position += size;
+    }
+
+    /**
+     * Skips forward to an offset which the parser recorded itself, like a seek point. Unlike {@link #skip(int)} the
+     * distance is not limited to {@link #MAX_BLOCK_SIZE}, it can span most of a long replay.
+     *
+     * @param offset the offset to continue reading at, see {@link #offset()}
+     */
+    public void skipTo(long offset) {
+        long remaining = offset - offset();
+        if (remaining < 0) {
+            throw new IllegalArgumentException("Offset " + offset + " is before the current offset " + offset());
+        }
+        while (remaining > 0) {
+            int size = (int) Math.min(remaining, MAX_BLOCK_SIZE);
+            skip(size);
+            remaining -= size;
+        }
+    }
+
+    public LuaTable readDict() {
+        enterTable();
+        try {
+            LuaTable result = new LuaTable();
+            while (true) {
+                int type = readByte();
+                if (type == DataType.END) {
+                    break;
+                }
+                if (type == DataType.NUMBER) {
+                    // Number keys form the array part of the table, read them without boxing
+                    float key = readFloat();
+                    int valueType = readByte();
+                    if (valueType == DataType.NUMBER) {
+                        result.put(key, readFloat());
+                    } else {
+                        result.put(key, readLua(valueType));
+                    }
+                    continue;
+                }
+                Object key = readLua(type);
+                Object value = readLua(null);
+                result.put(key, value);
+            }
+            return result;
+        } finally {
+            luaDepth--;
+        }
+    }
+
+    public Object readLua(Integer type) {
+        if (type == null) {
+            type = readByte();
+        }
+
+        return switch (type) {
+            case DataType.NUMBER -> readFloat();
+            case DataType.STRING -> readString();
+            case DataType.NIL -> {
+                readNil();
+                yield null;
+            }
+            case DataType.BOOL -> readBool();
+            case DataType.TABLE -> readDict();
+            default -> throw new ReplayParseException("Unknown data type: " + type);
+        };
+    }
+
+    /**
+     * Skips a Lua value the way {@link #readLua(Integer)} reads it, but without decoding it.
+     */
+    public void skipLua(Integer type) {
+        if (type == null) {
+            type = readByte();
+        }
+
+        switch (type) {
+            case DataType.NUMBER, DataType.BOOL -> skip(type == DataType.NUMBER ? 4 : 1);
+            case DataType.STRING -> {
+                while (readByte() != 0) {
+                    // Skip up to and including the terminating zero byte
+                }
+            }
+            case DataType.NIL -> readNil();
+            case DataType.TABLE -> {
+                enterTable();
+                try {
+                    int keyType;
+                    while ((keyType = readByte()) != DataType.END) {
+                        skipLua(keyType);
+                        skipLua(null);
+                    }
+                } finally {
+                    luaDepth--;
+                }
+            }
+            default -> throw new ReplayParseException("Unknown data type: " + type);
+        }
+    }
+
+    /**
+     * @return the number of bytes consumed since the start of the data
+     */
+    public long offset() {
+        return discarded + position - start;
+    }
+
+    public boolean hasRemaining(int bytes) {
+        return fill(bytes);
+    }
+
+    /**
+     * Block sizes are read from the replay, a corrupt one must neither move the position backwards nor make the reader
+     * wait for gigabytes.
+     */
+    private void enterTable() {
+        if (luaDepth == MAX_LUA_DEPTH) {
+            throw new ReplayParseException("Lua tables nested deeper than " + MAX_LUA_DEPTH);
+        }
+        luaDepth++;
+    }
+
+    private static void checkBlockSize(int size) {
+        if (size < 0 || size > MAX_BLOCK_SIZE) {
+            throw new ReplayParseException("Invalid block size: " + Integer.toUnsignedString(size));
+        }
+    }
+
+    private void ensureAvailable(int bytes) {
+        if (!fill(bytes)) {
+            throw new ReplayParseException("Unexpected end of stream");
+        }
+    }
+
+    /**
+     * Makes sure that at least the given number of bytes are available after the current position, refilling the
+     * buffer from the source if necessary.
+     *
+     * @return false, if the data ends before the requested number of bytes is available
+     */
+    private boolean fill(int bytes) {
+        if (limit - position >= bytes) {
+            return true;
+        }
+        if (endOfSource) {
+            return false;
+        }
+
+        int remaining = limit - position;
+        buffer.limit(limit).position(position);
+        buffer.compact();
+        discarded += position;
+        position = 0;
+        limit = remaining;
+
+        try {
+            while (true) {
+                // Fill the whole window, so that the next refill is as far away as possible
+                while (buffer.hasRemaining()) {
+                    int read = source.read(buffer);
+                    if (read == -1) {
+                        endOfSource = true;
+                        return limit >= bytes;
+                    }
+                    limit += read;
+                }
+                if (limit >= bytes) {
+                    return true;
+                }
+                // Only a single item larger than the window (e.g. a huge string) can get here. The window only grows
+                // with the data actually read, so a corrupt size runs into the end of the data instead of allocating.
+                int capacity = (int) Math.min(bytes, buffer.capacity() * 2L);
+                ByteBuffer grown = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+                buffer = grown.order(ByteOrder.LITTLE_ENDIAN).put(buffer.flip());
+            }
+        } catch (EOFException | ZipException e) {
+            // The compressed data is corrupt
+            throw new ReplayParseException("Unreadable replay data: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] scratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    public static class DataType {
+        public static final int END = 5;
+        public static final int NUMBER = 0;
+        public static final int STRING = 1;
+        public static final int NIL = 2;
+        public static final int BOOL = 3;
+        public static final int TABLE = 4;
+    }
+}
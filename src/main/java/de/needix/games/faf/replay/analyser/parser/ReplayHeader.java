@@ -2,37 +2,69 @@ package de.needix.games.faf.replay.analyser.parser;
 
 import de.needix.games.faf.replay.api.entities.replay.Replay;
 import de.needix.games.faf.replay.api.entities.replay.ReplayPlayer;
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
 import lombok.ToString;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 @ToString
 public class ReplayHeader {
     private final Replay replayToFill;
 
-    public ReplayHeader(ReplayParser reader, Replay replayToFill) {
+    // The raw parts of the header, to write it into a command log
+    @ToString.Exclude
+    private final String version;
+    @ToString.Exclude
+    private final byte[] afterVersion;
+    @ToString.Exclude
+    private final String versionAndMap;
+    @ToString.Exclude
+    private final byte[] afterVersionAndMap;
+    @ToString.Exclude
+    private final byte[] scenario;
+    @ToString.Exclude
+    private final List<String> sourceNames = new ArrayList<>();
+    @ToString.Exclude
+    private final List<Integer> sourceTypes = new ArrayList<>();
+    @ToString.Exclude
+    private final boolean cheatsEnabled;
+    @ToString.Exclude
+    private final List<byte[]> armies = new ArrayList<>();
+    @ToString.Exclude
+    private final List<Integer> armySources = new ArrayList<>();
+    @ToString.Exclude
+    private final List<Integer> armySuffixes = new ArrayList<>();
+    @ToString.Exclude
+    private final int randomSeed;
+
+    public ReplayHeader(ReplayByteReader reader, Replay replayToFill) {
         this.replayToFill = replayToFill;
 
         // Read version string
-        String version = reader.readString();
-        reader.read(3);// Skip 3 bytes
+        version = reader.readString();
+        afterVersion = reader.read(3); // Unknown bytes, kept for toBytes()
 
         // Read replay version and map name
-        String[] versionAndMap = reader.readString().split("\r\n", 2);
-        String replayVersion = versionAndMap[0];
-        String mapName = versionAndMap[1];
-        reader.read(4);// Skip 4 bytes
+        versionAndMap = reader.readString();
+        String[] versionAndMapParts = versionAndMap.split("\r\n", 2);
+        if (versionAndMapParts.length != 2) {
+            throw new ReplayParseException("Replay version and map are not separated: " + versionAndMap);
+        }
+        String replayVersion = versionAndMapParts[0];
+        String mapName = versionAndMapParts[1];
+        afterVersionAndMap = reader.read(4); // Unknown bytes, kept for toBytes()
 
-        // Read mods
-        reader.readUnsignedInt();// mods_size
-        Object mods = reader.readLua(null);
+        // Skip mods, they are not used
+        int modsSize = reader.readUnsignedInt();
+        reader.skip(modsSize);
 
-        // Read scenario
-        reader.readUnsignedInt();// scenario_size
-        Map<String, Object> scenario = (Map<String, Object>) reader.readLua(null);
-        replayToFill.setScenarioInformation(scenario);
+        // Read scenario, replays of the same map share it and it is only decoded when it is used
+        int scenarioSize = reader.readUnsignedInt();
+        scenario = reader.read(scenarioSize);
+        replayToFill.setScenarioInformation(ScenarioCache.get(scenario));
 
         // Read players
         int sourcesNumber = reader.readByte();
@@ -40,6 +72,8 @@ public class ReplayHeader {
         for (int i = 0; i < sourcesNumber; i++) {
             String name = reader.readString();
             int playerType = reader.readUnsignedInt();
+            sourceNames.add(name);
+            sourceTypes.add(playerType);
             ReplayPlayer replayPlayer = new ReplayPlayer();
             replayPlayer.setId(replayToFill.getId() + "_" + name);
             replayPlayer.setName(name);
@@ -49,25 +83,32 @@ public class ReplayHeader {
         }
 
         // Read cheats enabled
-        boolean cheatsEnabled = reader.readBool();
+        cheatsEnabled = reader.readBool();
 
         // Read number of armies
         int numberOfArmies = reader.readByte();
 
         // Read armies data
         for (int i = 0; i < numberOfArmies; i++) {
-            reader.readUnsignedInt();// player_data_size
-            Map<String, Object> playerData = (Map<String, Object>) reader.readLua(null);
+            int playerDataSize = reader.readUnsignedInt();
+            byte[] playerData = reader.read(playerDataSize);
             int playerSource = reader.readByte();
+            armies.add(playerData);
+            armySources.add(playerSource);
 
             if (playerSource != 255) {
-                players.get(playerSource).setArmyInformation(playerData);
-                reader.read(1); // Skip 1 byte
+                if (playerSource >= players.size()) {
+                    throw new ReplayParseException("Army " + i + " refers to unknown player " + playerSource);
+                }
+                players.get(playerSource).setArmyInformation(new LazyLuaTable(playerData));
+                armySuffixes.add(reader.readByte()); // Unknown byte, kept for toBytes()
+            } else {
+                armySuffixes.add(-1);
             }
         }
 
         // Read random seed
-        int randomSeed = reader.readUnsignedInt();
+        randomSeed = reader.readUnsignedInt();
 
         replayToFill.setSupComVersion(version);
         replayToFill.setMapName(mapName);
@@ -75,5 +116,48 @@ public class ReplayHeader {
         replayToFill.setRandomSeed(randomSeed);
         replayToFill.setPlayers(players);
     }
-}
 
+    /**
+     * @return the header in its binary layout, except for the unused mods which are left out. It is parsed by
+     * {@link #ReplayHeader(ReplayByteReader, Replay)} again.
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 + scenario.length);
+        writeString(out, version);
+        out.writeBytes(afterVersion);
+        writeString(out, versionAndMap);
+        out.writeBytes(afterVersionAndMap);
+        writeInt(out, 0); // mods_size
+        writeInt(out, scenario.length);
+        out.writeBytes(scenario);
+        out.write(sourceNames.size());
+        for (int i = 0; i < sourceNames.size(); i++) {
+            writeString(out, sourceNames.get(i));
+            writeInt(out, sourceTypes.get(i));
+        }
+        out.write(cheatsEnabled ? 1 : 0);
+        out.write(armies.size());
+        for (int i = 0; i < armies.size(); i++) {
+            writeInt(out, armies.get(i).length);
+            out.writeBytes(armies.get(i));
+            out.write(armySources.get(i));
+            if (armySuffixes.get(i) != -1) {
+                out.write(armySuffixes.get(i));
+            }
+        }
+        writeInt(out, randomSeed);
+        return out.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        out.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        out.write(0);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
@@ -2,158 +2,112 @@ package de.needix.games.faf.replay.analyser.parser;
 
 import de.needix.games.faf.replay.analyser.eventanalyser.*;
 import de.needix.games.faf.replay.api.entities.replay.Replay;
+import de.needix.games.faf.replay.api.entities.replay.ReplaySeekPoint;
 import lombok.ToString;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 @ToString
 public class ReplayParser {
-    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayParser.class);
-
-    private final ByteArrayInputStream buffer;
-    private final Integer bufferSize;
+    private final ReplayByteReader reader;
 
     private final ReplayHeader replayHeader;
     private final ReplayBody replayBody;
     private final Replay replayToFill;
 
-    public ReplayParser(byte[] inputData, Replay replayToFill) {
-        this.buffer = new ByteArrayInputStream(inputData);
-        this.bufferSize = inputData.length;
-
-        this.replayToFill = replayToFill;
-
-        ApmAnalyser apmAnalyser = new ApmAnalyser(replayToFill);
-        MoveOrderAnalyser moveOrderAnalyser = new MoveOrderAnalyser(replayToFill);
-        LuaAnalyser luaAnalyser = new LuaAnalyser(replayToFill);
-        List<CommandAnalyser> commandConsumers = Arrays.asList(new CommandLogger(), luaAnalyser, apmAnalyser, moveOrderAnalyser);
-
-        this.replayHeader = new ReplayHeader(this, replayToFill);
-        this.replayBody = new ReplayBody(this, replayToFill);
-        this.replayBody.parse(commandConsumers);
+    public ReplayParser(byte[] inputData, Replay replayToFill, ReplayParserOptions options) {
+        this(new ReplayByteReader(inputData), replayToFill, options);
     }
 
-    public String readString() {
-        ByteArrayOutputStream result = new ByteArrayOutputStream();
-        while (true) {
-            int byteData = buffer.read();
-            if (byteData == -1 || byteData == 0) {
-                break;
-            }
-            result.write(byteData);
-        }
-        return result.toString(StandardCharsets.UTF_8);
-    }
-
-    public int readInt() {
-        return readNumber(4).getInt();
+    public ReplayParser(ByteBuffer inputData, Replay replayToFill, ReplayParserOptions options) {
+        this(new ReplayByteReader(inputData), replayToFill, options);
     }
 
-    private ByteBuffer readNumber(int size) {
-        byte[] data = read(size);
-        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * Parses the replay while it is being decompressed. Commands are pulled incrementally from the given channel, so
+     * the decompressed replay is never held in memory as a whole.
+     */
+    public ReplayParser(ReadableByteChannel decompressedData, Replay replayToFill, ReplayParserOptions options) {
+        this(options.getStreamBuffer() == null
+                ? new ReplayByteReader(decompressedData)
+                : new ReplayByteReader(decompressedData, options.getStreamBuffer()), replayToFill, options);
     }
 
-    public byte[] read(int size) {
-        if (size == 0) {
-            return new byte[0];
+    /**
+     * Analyses the commands stored in a command log, without touching the replay file itself.
+     */
+    public ReplayParser(CommandLogReader logReader, Replay replayToFill, ReplayParserOptions options) {
+        if (options.getLogWriter() != null) {
+            throw new IllegalArgumentException("Commands read from a command log can not be logged again");
         }
+        this.reader = logReader.headerReader();
 
-        byte[] data = new byte[size];
-        int bytesRead;
-        try {
-            bytesRead = buffer.read(data);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        if (bytesRead != size) {
-            throw new RuntimeException("Unexpected end of stream");
-        }
-        return data;
-    }
-
-    public int readUnsignedInt() {
-        return readNumber(4).getInt();
-    }
+        this.replayToFill = replayToFill;
 
-    public short readShort() {
-        return readNumber(2).getShort();
+        this.replayHeader = new ReplayHeader(reader, replayToFill);
+        this.replayBody = new ReplayBody(logReader, replayToFill);
+        parseBody(options);
     }
 
-    public float readFloat() {
-        return readNumber(4).getFloat();
-    }
+    private ReplayParser(ReplayByteReader reader, Replay replayToFill, ReplayParserOptions options) {
+        this.reader = reader;
 
-    public int readByte() {
-        return buffer.read() & 0xFF;
-    }
+        this.replayToFill = replayToFill;
 
-    public boolean readBool() {
-        int readByte = readByte();
-        return readByte != 0;
+        this.replayHeader = new ReplayHeader(reader, replayToFill);
+        CommandLogWriter logWriter = options.getLogWriter();
+        if (logWriter != null) {
+            logWriter.writeHeader(replayHeader.toBytes());
+        }
+        this.replayBody = new ReplayBody(reader, replayToFill, logWriter);
+        parseBody(options);
     }
 
-    public void readNil() {
-        buffer.read();
+    /**
+     * Parses only the commands of a tick range, see {@link ReplayBody#parseRange(ReplaySeekPoint, int, int)}.
+     *
+     * @param seekPoint where to start parsing, or null to start at the first command
+     */
+    public static List<Command> parseRange(ReadableByteChannel decompressedData, Replay replayToFill,
+                                           ReplaySeekPoint seekPoint, int fromTick, int toTick) {
+        return parseRange(new ReplayByteReader(decompressedData), replayToFill, seekPoint, fromTick, toTick);
     }
 
-    public Map<Object, Object> readDict() {
-        Map<Object, Object> result = new HashMap<>();
-        while (true) {
-            int type = readByte();
-            if (type == DataType.END) {
-                break;
-            }
-            Object key = readLua(type);
-            Object value = readLua(null);
-            result.put(key, value);
-        }
-        return result;
+    public static List<Command> parseRange(ReadableByteChannel decompressedData, ByteBuffer streamBuffer, Replay replayToFill,
+                                           ReplaySeekPoint seekPoint, int fromTick, int toTick) {
+        return parseRange(new ReplayByteReader(decompressedData, streamBuffer), replayToFill, seekPoint, fromTick, toTick);
     }
 
-    public Object readLua(Integer type) {
-        if (type == null) {
-            type = readByte();
+    private static List<Command> parseRange(ReplayByteReader reader, Replay replayToFill, ReplaySeekPoint seekPoint,
+                                            int fromTick, int toTick) {
+        if (seekPoint == null) {
+            // Without seek points, the commands start right after the header
+            new ReplayHeader(reader, replayToFill);
+            seekPoint = new ReplaySeekPoint(0, reader.offset(), -1);
         }
-
-        return switch (type) {
-            case DataType.NUMBER -> readFloat();
-            case DataType.STRING -> readString();
-            case DataType.NIL -> {
-                readNil();
-                yield null;
-            }
-            case DataType.BOOL -> readBool();
-            case DataType.TABLE -> readDict();
-            default -> throw new IllegalArgumentException("Unknown data type: " + type);
-        };
-    }
-
-    public int offset() {
-        return bufferSize - buffer.available();
+        return new ReplayBody(reader, replayToFill).parseRange(seekPoint, fromTick, toTick);
     }
 
-    public int size() {
-        return bufferSize;
+    /**
+     * @return new instances of all analysers, filling the given replay
+     */
+    public static List<CommandAnalyser> createCommandAnalysers(Replay replayToFill) {
+        ApmAnalyser apmAnalyser = new ApmAnalyser(replayToFill);
+        MoveOrderAnalyser moveOrderAnalyser = new MoveOrderAnalyser(replayToFill);
+        LuaAnalyser luaAnalyser = new LuaAnalyser(replayToFill);
+        return Arrays.asList(new CommandLogger(), luaAnalyser, apmAnalyser, moveOrderAnalyser);
     }
 
-    public static class DataType {
-        public static final int END = 5;
-        public static final int NUMBER = 0;
-        public static final int STRING = 1;
-        public static final int NIL = 2;
-        public static final int BOOL = 3;
-        public static final int TABLE = 4;
+    private void parseBody(ReplayParserOptions options) {
+        List<CommandAnalyser> commandAnalysers = options.getCommandAnalysers() != null
+                ? options.getCommandAnalysers()
+                : createCommandAnalysers(replayToFill);
+        replayBody.parse(commandAnalysers, options.isPipelined(), options.getBudget());
+        for (CommandAnalyser commandAnalyser : commandAnalysers) {
+            replayToFill.getAnalyserVersions().put(commandAnalyser.getName(), commandAnalyser.getVersion());
+        }
     }
 }
@@ -0,0 +1,55 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.analyser.eventanalyser.CommandAnalyser;
+import de.needix.games.faf.replay.exceptions.ReplayBudgetExceededException;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Tunes how {@link ReplayParser} parses a replay and which analysers it runs on the commands.
+ */
+@Getter
+@Builder(toBuilder = true)
+@ToString
+public class ReplayParserOptions {
+    public static final ReplayParserOptions DEFAULT = ReplayParserOptions.builder().build();
+
+    /**
+     * Runs the analysers on their own threads while the commands are parsed, see
+     * {@link ReplayBody#parse(List, boolean, ParseBudget)}.
+     */
+    @Builder.Default
+    private final boolean pipelined = false;
+
+    /**
+     * If not null, the parsed commands are written to it, see {@link CommandLog}. Commands read from a command log are
+     * not logged again, so this has to be null for them.
+     */
+    @Builder.Default
+    private final CommandLogWriter logWriter = null;
+
+    /**
+     * Limits the work spent on the commands. Exceeding it aborts parsing with a
+     * {@link ReplayBudgetExceededException}.
+     */
+    @Builder.Default
+    private final ParseBudget budget = ParseBudget.UNLIMITED;
+
+    /**
+     * The analysers to run. If this is null, new instances of all analysers are created for each replay, see
+     * {@link ReplayParser#createCommandAnalysers}.
+     */
+    @Builder.Default
+    private final List<CommandAnalyser> commandAnalysers = null;
+
+    /**
+     * The window into the decompressed data, if it is read from a channel. Channels which only write into direct
+     * buffers need a direct buffer here. If this is null, the parser allocates a heap buffer.
+     */
+    @Builder.Default
+    private final ByteBuffer streamBuffer = null;
+}
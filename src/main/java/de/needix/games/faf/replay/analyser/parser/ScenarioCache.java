@@ -0,0 +1,140 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Shares the decoded scenario between replays of the same map version. Their scenario tables are byte for byte
+ * identical, so they are cached by their raw bytes and decoded once, when the first replay reads them. Their JSON is
+ * cached along with them, so persisting the replays serialises each scenario once as well.
+ * <p>
+ * Cached scenarios are shared and therefore immutable, including their nested tables.
+ */
+public final class ScenarioCache {
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<RawScenario, CachedScenario> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RawScenario, CachedScenario> eldest) {
+            if (size() > CACHE_SIZE) {
+                EVICTIONS.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder EVICTIONS = new LongAdder();
+
+    private ScenarioCache() {
+    }
+
+    /**
+     * A miss adds the scenario to the cache right away, still undecoded. Concurrent replays of a new map thereby share
+     * the scenario and the first one to read it decodes it for all of them.
+     *
+     * @param raw the serialised scenario table
+     * @return the cached scenario, decoded when it is read for the first time
+     * @throws ReplayParseException if the raw bytes are not a table
+     */
+    static Map<String, Object> get(byte[] raw) {
+        RawScenario key = new RawScenario(raw);
+        CachedScenario cached;
+        synchronized (CACHE) {
+            cached = CACHE.get(key);
+        }
+        if (cached == null) {
+            // Validated outside of the lock
+            CachedScenario scenario = new CachedScenario(raw);
+            synchronized (CACHE) {
+                cached = CACHE.putIfAbsent(key, scenario);
+            }
+            if (cached == null) {
+                MISSES.increment();
+                return scenario;
+            }
+        }
+        HITS.increment();
+        return cached;
+    }
+
+    public static Statistics getStatistics() {
+        long hits = HITS.sum();
+        long misses = MISSES.sum();
+        int size;
+        synchronized (CACHE) {
+            size = CACHE.size();
+        }
+        double hitRate = hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        return new Statistics(hits, misses, hitRate, EVICTIONS.sum(), size);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> Map<K, Object> freeze(Map<K, Object> table) {
+        table.replaceAll((key, value) -> value instanceof Map<?, ?> nested ? freeze((Map<Object, Object>) nested) : value);
+        return Collections.unmodifiableMap(table);
+    }
+
+    /**
+     * @param hits      scenarios served from the cache
+     * @param misses    scenarios which were not cached yet
+     * @param hitRate   hits per lookup, between 0 and 1
+     * @param evictions scenarios dropped to keep the cache bounded
+     * @param size      scenarios currently cached
+     */
+    public record Statistics(long hits, long misses, double hitRate, long evictions, int size) {
+    }
+
+    /**
+     * A scenario shared by all replays of its map version.
+     */
+    public static final class CachedScenario extends LazyLuaTable {
+        private String json;
+
+        private CachedScenario(byte[] raw) {
+            super(raw, bytes -> freeze(decode(bytes)));
+        }
+
+        /**
+         * @param serializer turns the scenario into JSON, only called for the first replay persisted with it
+         * @return the JSON of the scenario
+         */
+        public synchronized String toJson(Function<Map<String, Object>, String> serializer) {
+            if (json == null) {
+                json = serializer.apply(this);
+            }
+            return json;
+        }
+    }
+
+    /**
+     * Compares the raw bytes of a scenario, with their hash computed once.
+     */
+    private static final class RawScenario {
+        private final byte[] bytes;
+        private final int hash;
+
+        private RawScenario(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RawScenario other && hash == other.hash && Arrays.equals(bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Canonical strings for short byte sequences which repeat throughout replays, like blueprint ids, Lua callback names
+ * and Lua table keys.
+ * <p>
+ * The table is shared by all parsers and bounded: it is direct-mapped by the hash of the bytes, so a new string
+ * replaces whatever was stored in its slot. Lookups compare the raw bytes, a known string is returned without decoding
+ * or allocating anything. Entries are immutable, so the table can be read and written from several threads without
+ * locking.
+ */
+public final class StringInterner {
+    /**
+     * Longer strings (chat messages, Lua code) rarely repeat and are not interned.
+     */
+    public static final int MAX_LENGTH = 64;
+
+    private static final int TABLE_SIZE = 4096;
+    private static final Entry[] TABLE = new Entry[TABLE_SIZE];
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private StringInterner() {
+    }
+
+    /**
+     * @param buffer  contains the UTF-8 bytes at absolute positions, heap or direct
+     * @param scratch used to copy the bytes out of a direct buffer, has to hold at least length bytes
+     * @return the canonical string for the given bytes
+     */
+    static String intern(ByteBuffer buffer, int offset, int length, byte[] scratch) {
+        if (length == 0) {
+            return "";
+        }
+
+        byte[] array = null;
+        int arrayOffset = 0;
+        if (buffer.hasArray()) {
+            array = buffer.array();
+            arrayOffset = buffer.arrayOffset() + offset;
+        }
+
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + (array != null ? array[arrayOffset + i] : buffer.get(offset + i));
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TABLE_SIZE - 1);
+
+        Entry entry = TABLE[slot];
+        if (entry != null && entry.hash == hash && entry.bytes.length == length) {
+            if (array != null) {
+                if (Arrays.equals(entry.bytes, 0, length, array, arrayOffset, arrayOffset + length)) {
+                    HITS.increment();
+                    return entry.value;
+                }
+            } else if (equals(entry.bytes, buffer, offset)) {
+                HITS.increment();
+                return entry.value;
+            }
+        }
+
+        MISSES.increment();
+        byte[] bytes;
+        if (array != null) {
+            bytes = Arrays.copyOfRange(array, arrayOffset, arrayOffset + length);
+        } else {
+            buffer.get(offset, scratch, 0, length);
+            bytes = Arrays.copyOf(scratch, length);
+        }
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        TABLE[slot] = new Entry(hash, bytes, value);
+        return value;
+    }
+
+    public static Statistics getStatistics() {
+        return new Statistics(HITS.sum(), MISSES.sum());
+    }
+
+    private static boolean equals(byte[] bytes, ByteBuffer buffer, int offset) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != buffer.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param hits   strings returned from the table without decoding
+     * @param misses strings which had to be decoded and were stored in the table
+     */
+    public record Statistics(long hits, long misses) {
+    }
+
+    private record Entry(int hash, byte[] bytes, String value) {
+    }
+}
@@ -0,0 +1,19 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public record Vector3(float x, float y, float z) {
+
+    public static Vector3 read(ReplayByteReader reader) {
+        return new Vector3(reader.readFloat(), reader.readFloat(), reader.readFloat());
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> vector = new HashMap<>();
+        vector.put("x", x);
+        vector.put("y", y);
+        vector.put("z", z);
+        return vector;
+    }
+}
@@ -2,6 +2,7 @@ package de.needix.games.faf.replay.api;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.needix.games.faf.replay.analyser.parser.ScenarioCache;
 import jakarta.persistence.AttributeConverter;
 import jakarta.persistence.Converter;
 
@@ -18,6 +19,14 @@ public class JsonAttributeConverter implements AttributeConverter<Map<String, Ob
         if (attribute == null) {
             return null;
         }
+        if (attribute instanceof ScenarioCache.CachedScenario scenario) {
+            // Shared by all replays of the map, so it is only converted for the first one
+            return scenario.toJson(JsonAttributeConverter::toJson);
+        }
+        return toJson(attribute);
+    }
+
+    private static String toJson(Map<String, Object> attribute) {
         try {
             return objectMapper.writeValueAsString(attribute);
         } catch (JsonProcessingException e) {
@@ -0,0 +1,88 @@
+package de.needix.games.faf.replay.api;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key into one execution. The first caller runs the call, everybody calling
+ * with the same key while it runs waits for and shares its result, including its exception. Once the call is done,
+ * the next caller starts a new execution, so results are never cached beyond the call.
+ * <p>
+ * The calls in flight are kept in a {@link ConcurrentHashMap}, so callers with different keys never block each other.
+ * A call must not execute the same key on the same instance again, it would wait for itself.
+ */
+public class SingleFlight<K, V> {
+    private final String name;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param name identifies this instance in its {@link Statistics}
+     */
+    public SingleFlight(String name) {
+        this.name = Objects.requireNonNull(name, "name must not be null");
+    }
+
+    /**
+     * @return the result of the call, either run by this caller or by a concurrent caller with the same key
+     */
+    public V execute(K key, Supplier<V> call) {
+        Objects.requireNonNull(key, "key must not be null");
+        Objects.requireNonNull(call, "call must not be null");
+
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> runningFuture = inFlight.putIfAbsent(key, future);
+        if (runningFuture != null) {
+            coalesced.increment();
+            return await(runningFuture);
+        }
+
+        executions.increment();
+        try {
+            V result = call.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            failures.increment();
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private V await(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Rethrow what the executing caller got
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(name, executions.sum(), coalesced.sum(), failures.sum(), inFlight.size());
+    }
+
+    /**
+     * @param executions calls which were actually run
+     * @param coalesced  calls which shared the result of a call in flight instead
+     * @param failures   executions which threw an exception
+     * @param inFlight   calls running right now
+     */
+    public record Statistics(String name, long executions, long coalesced, long failures, int inFlight) {
+    }
+}
@@ -0,0 +1,28 @@
+package de.needix.games.faf.replay.api.controllers;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * The check for operations which only admins may use. All routes are open in the security configuration, so the
+ * controllers check the authentication of the current request themselves.
+ */
+final class AdminAccess {
+    private AdminAccess() {
+    }
+
+    /**
+     * @return true, if the current request is not authenticated as admin or with the force access authority
+     */
+    static boolean isDenied() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()) {
+            return authentication.getAuthorities().stream()
+                    .noneMatch(grantedAuthority ->
+                            grantedAuthority.getAuthority().equals("ROLE_ADMIN") ||
+                                    grantedAuthority.getAuthority().equals("REPLAY_FORCE_ACCESS")
+                    );
+        }
+        return true;
+    }
+}
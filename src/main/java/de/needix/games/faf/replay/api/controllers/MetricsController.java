@@ -0,0 +1,122 @@
+package de.needix.games.faf.replay.api.controllers;
+
+import de.needix.games.faf.replay.analyser.ZstdDecompressionPool;
+import de.needix.games.faf.replay.analyser.parser.CommandStatistics;
+import de.needix.games.faf.replay.analyser.parser.ScenarioCache;
+import de.needix.games.faf.replay.analyser.parser.StringInterner;
+import de.needix.games.faf.replay.api.SingleFlight;
+import de.needix.games.faf.replay.downloader.ReplayDownloader;
+import de.needix.games.faf.replay.downloader.ReplayFetcher;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Internal statistics of the parser, caches and downloads. Only admins may read them.
+ */
+@RestController
+@CrossOrigin
+@RequestMapping("/api/v1/metrics")
+public class MetricsController {
+
+    @Operation(summary = "Statistics of the pooled zstd decompression contexts and buffers")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Current pool statistics",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ZstdDecompressionPool.Statistics.class))),
+            @ApiResponse(responseCode = "403", description = "You are not allowed to do this", content = @Content)
+    })
+    @GetMapping("/zstd-pool")
+    public ResponseEntity<ZstdDecompressionPool.Statistics> getZstdPoolStatistics() {
+        if (AdminAccess.isDenied()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(ZstdDecompressionPool.getStatistics());
+    }
+
+    @Operation(summary = "Statistics of the string table shared by all replay parsers")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Current string table statistics",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = StringInterner.Statistics.class))),
+            @ApiResponse(responseCode = "403", description = "You are not allowed to do this", content = @Content)
+    })
+    @GetMapping("/string-interner")
+    public ResponseEntity<StringInterner.Statistics> getStringInternerStatistics() {
+        if (AdminAccess.isDenied()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(StringInterner.getStatistics());
+    }
+
+    @Operation(summary = "Statistics of the scenario cache shared by replays of the same map version")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Current scenario cache statistics",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ScenarioCache.Statistics.class))),
+            @ApiResponse(responseCode = "403", description = "You are not allowed to do this", content = @Content)
+    })
+    @GetMapping("/scenario-cache")
+    public ResponseEntity<ScenarioCache.Statistics> getScenarioCacheStatistics() {
+        if (AdminAccess.isDenied()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(ScenarioCache.getStatistics());
+    }
+
+    @Operation(summary = "How often concurrent imports and downloads of the same replay were coalesced into one")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Current single flight statistics",
+                    content = @Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = SingleFlight.Statistics.class)))),
+            @ApiResponse(responseCode = "403", description = "You are not allowed to do this", content = @Content)
+    })
+    @GetMapping("/single-flight")
+    public ResponseEntity<List<SingleFlight.Statistics>> getSingleFlightStatistics() {
+        if (AdminAccess.isDenied()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(ReplayController.getSingleFlightStatistics());
+    }
+
+    @Operation(summary = "Statistics of the replay downloads, including the current adaptive concurrency limit")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Current download statistics",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ReplayFetcher.Statistics.class))),
+            @ApiResponse(responseCode = "403", description = "You are not allowed to do this", content = @Content)
+    })
+    @GetMapping("/replay-fetcher")
+    public ResponseEntity<ReplayFetcher.Statistics> getReplayFetcherStatistics() {
+        if (AdminAccess.isDenied()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(ReplayDownloader.getFetcher().getStatistics());
+    }
+
+    @Operation(summary = "Count, bytes and parse time per command type over all parsed replays")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Current command type statistics",
+                    content = @Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = CommandStatistics.Statistics.class)))),
+            @ApiResponse(responseCode = "403", description = "You are not allowed to do this", content = @Content)
+    })
+    @GetMapping("/command-types")
+    public ResponseEntity<List<CommandStatistics.Statistics>> getCommandStatistics() {
+        if (AdminAccess.isDenied()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(CommandStatistics.getStatistics());
+    }
+}
@@ -1,10 +1,25 @@
 package de.needix.games.faf.replay.api.controllers;
 
 import de.needix.games.faf.replay.analyser.ReplayAnalyser;
+import de.needix.games.faf.replay.analyser.ReplayAnalyserOptions;
+import de.needix.games.faf.replay.analyser.ReplayJsonHeader;
+import de.needix.games.faf.replay.analyser.eventanalyser.CommandStreamWriter;
+import de.needix.games.faf.replay.analyser.parser.Command;
+import de.needix.games.faf.replay.analyser.parser.CommandLog;
+import de.needix.games.faf.replay.analyser.parser.ParseBudget;
+import de.needix.games.faf.replay.api.SingleFlight;
+import de.needix.games.faf.replay.api.entities.replay.QuarantinedReplay;
 import de.needix.games.faf.replay.api.entities.replay.Replay;
+import de.needix.games.faf.replay.api.entities.replay.ReplaySeekPoint;
+import de.needix.games.faf.replay.api.repositories.QuarantinedReplayRepository;
 import de.needix.games.faf.replay.api.repositories.ReplayRepository;
 import de.needix.games.faf.replay.downloader.ReplayDownloader;
+import de.needix.games.faf.replay.downloader.ReplayFetcher;
+import de.needix.games.faf.replay.downloader.ReplayFetcherOptions;
+import de.needix.games.faf.replay.exceptions.ReplayBudgetExceededException;
 import de.needix.games.faf.replay.exceptions.ReplayNotFoundException;
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+import de.needix.games.faf.replay.exceptions.UnsupportedReplayException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -30,26 +45,29 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Async;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
+import java.io.*;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.*;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipException;
 
 @RestController
 @CrossOrigin
@@ -58,14 +76,54 @@ public class ReplayController {
     private static final Logger LOGGER = LoggerFactory.getLogger(ReplayController.class);
 
     private static final String HOTFOLDER_PATH = "hotfolder";
+
+    private static final SingleFlight<ReplayImport, ResponseEntity<?>> REPLAY_IMPORTS = new SingleFlight<>("replay-imports");
+    private static final SingleFlight<Long, File> REPLAY_DOWNLOADS = new SingleFlight<>("replay-downloads");
     private final ExecutorService asyncReplayAnalyserExecutorService = Executors.newFixedThreadPool(4);
+    private final ExecutorService hotfolderListenerExecutorService = Executors.newSingleThreadExecutor();
+    // Feeds the ids of range imports one range after another, see replayImportPermits
+    private final ExecutorService replayRangeExecutorService = Executors.newSingleThreadExecutor();
+    private ExecutorService replayImportExecutorService;
+    // Bounds the imports submitted but not finished yet, so a range never queues more ids than can be downloaded
+    private Semaphore replayImportPermits;
 
     @Value("${faf-replay-download-path}")
     private String replayDownloadPath;
 
+    @Value("${faf-replay-memory-mapped:false}")
+    private boolean memoryMappedReplays;
+
+    @Value("${faf-replay-pipelined:false}")
+    private boolean pipelinedReplays;
+
+    @Value("${faf-replay-command-log:false}")
+    private boolean commandLogReplays;
+
+    @Value("${faf-replay-budget-millis:120000}")
+    private long parseBudgetMillis;
+
+    @Value("${faf-replay-budget-bytes:1073741824}")
+    private long parseBudgetBytes;
+
+    @Value("${faf-replay-budget-commands:50000000}")
+    private long parseBudgetCommands;
+
+    // 10 ticks per second, so one hour of game time by default
+    @Value("${faf-replay-commands-max-ticks:36000}")
+    private int commandsMaxTicks;
+
+    @Value("${faf-replay-download-initial-concurrency:2}")
+    private int downloadInitialConcurrency;
+
+    @Value("${faf-replay-download-max-concurrency:8}")
+    private int downloadMaxConcurrency;
+
     @Autowired
     private ReplayRepository replayRepository;
 
+    @Autowired
+    private QuarantinedReplayRepository quarantinedReplayRepository;
+
     @Autowired
     private PlatformTransactionManager transactionManager;
 
@@ -77,20 +135,30 @@ public class ReplayController {
     @PostConstruct
     public void init() {
         this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.replayImportExecutorService = Executors.newFixedThreadPool(downloadMaxConcurrency);
+        this.replayImportPermits = new Semaphore(downloadMaxConcurrency);
+        ReplayDownloader.setFetcher(new ReplayFetcher(ReplayFetcherOptions.builder()
+                .initialConcurrency(Math.min(downloadInitialConcurrency, downloadMaxConcurrency))
+                .maxConcurrency(downloadMaxConcurrency)
+                .build()));
     }
 
 
     @Operation(summary = "Reanalyzes all replays saved as files",
-            description = "This endpoint reanalyzes all saved replay files and triggers an asynchronous reanalysis of all replays using multiple threads.")
+            description = "This endpoint reanalyzes all saved replay files and triggers an asynchronous reanalysis of all replays using multiple threads. "
+                    + "With outdatedOnly, only the analysers whose version changed since a replay was stored are run and only their results are updated.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Reanalysis process started successfully"),
             @ApiResponse(responseCode = "500", description = "Internal server error")
     })
     @PostMapping("/reanalyze-all-files")
-    public ResponseEntity<?> reanalyzeAllReplayFiles() {
-        LOGGER.info("Reanalysis of all replay files initiated.");
+    public ResponseEntity<?> reanalyzeAllReplayFiles(
+            @Parameter(description = "Only runs the outdated analysers of already stored replays", example = "false")
+            @RequestParam(value = "outdatedOnly", required = false, defaultValue = "false")
+            boolean outdatedOnly) {
+        LOGGER.info("Reanalysis of all replay files initiated. Outdated analysers only: {}", outdatedOnly);
 
-        if (denyNonAdminAccess()) {
+        if (AdminAccess.isDenied()) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .body("You don't have permission to reanalyze replays.");
         }
@@ -101,7 +169,11 @@ public class ReplayController {
                 ReplayDownloader.getDownloadedReplays(replayDownloadPath, pathToReplay -> {
                     transactionTemplate.executeWithoutResult(status -> {
                         try {
-                            createDatabaseReplayEntity(pathToReplay.toFile(), true);
+                            if (outdatedOnly) {
+                                updateOutdatedAnalyses(pathToReplay.toFile());
+                            } else {
+                                createDatabaseReplayEntity(pathToReplay.toFile(), true);
+                            }
                         } catch (Exception ex) {
                             LOGGER.error("Error occurred in reanalysis: ", ex);
                         }
@@ -123,6 +195,18 @@ public class ReplayController {
 
         long replayId = ReplayAnalyser.getReplayId(file);
 
+        if (!forceSaving) {
+            Optional<Replay> replayById = replayRepository.findById(replayId);
+            if (replayById.isPresent()) {
+                LOGGER.debug("Replay with ID {} already exists in database. Skipping database commit.", replayId);
+                return replayById.get();
+            }
+        }
+
+        // Analysed before an existing replay is deleted, so it is kept if the analysis fails
+        Replay replay = new Replay();
+        analyseReplay(file, replayId, replay, null);
+
         if (forceSaving) {
             replayRepository.findById(replayId).ifPresent(existing -> {
                 LOGGER.info("Force saving: Deleting existing replay with ID {}", replayId);
@@ -131,16 +215,42 @@ public class ReplayController {
                 // and the persistence context is cleared of old entities before the new save.
                 replayRepository.flush();
             });
-        } else {
-            Optional<Replay> replayById = replayRepository.findById(replayId);
-            if (replayById.isPresent()) {
-                LOGGER.debug("Replay with ID {} already exists in database. Skipping database commit.", replayId);
-                return replayById.get();
-            }
         }
 
-        Replay replay = new Replay();
-        new ReplayAnalyser(file, replay).analyzeFAFReplay();
+        RootController.saveEntityInDatabase(replayRepository, replay);
+        entityManager.detach(replay);
+
+        return replay;
+    }
+
+    /**
+     * Runs only the analysers whose version changed since the replay was stored and replaces only their results.
+     * Replays which are not stored yet are analysed completely.
+     */
+    private Replay updateOutdatedAnalyses(File file) throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException(file.getAbsolutePath() + " does not exist!");
+        }
+
+        long replayId = ReplayAnalyser.getReplayId(file);
+        Optional<Replay> storedReplay = replayRepository.findById(replayId);
+        if (storedReplay.isEmpty()) {
+            return createDatabaseReplayEntity(file, false);
+        }
+        return updateOutdatedAnalyses(file, storedReplay.get());
+    }
+
+    private Replay updateOutdatedAnalyses(File file, Replay replay) throws IOException {
+        Set<String> outdatedAnalysers = ReplayAnalyser.getOutdatedAnalysers(replay);
+        if (outdatedAnalysers.isEmpty()) {
+            LOGGER.debug("Replay with ID {} is up to date, skipping it", replay.getId());
+            return replay;
+        }
+
+        LOGGER.info("Reanalysing replay with ID {} with the outdated analysers {}", replay.getId(), outdatedAnalysers);
+        Replay analysedReplay = new Replay();
+        analyseReplay(file, replay.getId(), analysedReplay, outdatedAnalysers);
+        ReplayAnalyser.copyAnalyserResults(outdatedAnalysers, analysedReplay, replay);
 
         RootController.saveEntityInDatabase(replayRepository, replay);
         entityManager.detach(replay);
@@ -148,6 +258,116 @@ public class ReplayController {
         return replay;
     }
 
+    /**
+     * Analyses the replay within the configured parse budget. Quarantined replays are not analysed at all, replays
+     * exceeding the budget are quarantined.
+     *
+     * @param analysers the analysers to run, null for all
+     * @throws UnsupportedReplayException if the replay is quarantined or exceeded the budget
+     */
+    private void analyseReplay(File file, long replayId, Replay replayToFill, Set<String> analysers) throws IOException {
+        // Replays unknown to the replay server can still be analysed from a local file
+        Optional<QuarantinedReplay> quarantinedReplay = quarantinedReplayRepository.findById(replayId);
+        if (quarantinedReplay.isPresent() && quarantinedReplay.get().getReason() != QuarantinedReplay.Reason.NOT_FOUND
+                && quarantinedReplay.get().isActive(new Date())) {
+            throw new UnsupportedReplayException("Replay " + replayId + " is quarantined until "
+                    + quarantinedReplay.get().getRetryAfter() + ": " + quarantinedReplay.get().getMessage());
+        }
+
+        try {
+            new ReplayAnalyser(file, replayToFill, createAnalyserOptions(analysers)).analyzeFAFReplay();
+        } catch (ReplayBudgetExceededException e) {
+            QuarantinedReplay quarantined = recordFailure(replayId, QuarantinedReplay.Reason.BUDGET_EXCEEDED, e.getMessage());
+            quarantined.setFileSize(file.length());
+            quarantined.setParsedCommands(e.getCommands());
+            quarantined.setParsedBytes(e.getBytes());
+            quarantined.setParseMillis(e.getMillis());
+            quarantinedReplayRepository.save(quarantined);
+            throw e;
+        } catch (UnsupportedReplayException e) {
+            quarantinedReplayRepository.save(recordFailure(replayId, QuarantinedReplay.Reason.UNSUPPORTED, e.getMessage()));
+            throw e;
+        } catch (EOFException | ZipException | ReplayParseException e) {
+            // Other exceptions are bugs or I/O failures, which say nothing about the replay
+            quarantinedReplayRepository.save(recordFailure(replayId, QuarantinedReplay.Reason.PARSE_ERROR, e.toString()));
+            throw new UnsupportedReplayException("Replay " + replayId + " could not be parsed: " + e, e);
+        }
+
+        // Analysed successfully, e.g. after its retry was due
+        quarantinedReplay.ifPresent(quarantinedReplayRepository::delete);
+    }
+
+    /**
+     * Consults the quarantine before downloading a replay, so unknown ids are not requested again until their retry
+     * is due. Concurrent downloads of the same replay are done only once.
+     *
+     * @throws ReplayNotFoundException if the replay is not available or was not available recently
+     */
+    private File downloadReplay(long replayId) throws IOException {
+        try {
+            return REPLAY_DOWNLOADS.execute(replayId, () -> {
+                try {
+                    return downloadReplayOnce(replayId);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private File downloadReplayOnce(long replayId) throws IOException {
+        Optional<QuarantinedReplay> quarantinedReplay = quarantinedReplayRepository.findById(replayId);
+        if (quarantinedReplay.isPresent() && quarantinedReplay.get().getReason() == QuarantinedReplay.Reason.NOT_FOUND) {
+            if (quarantinedReplay.get().isActive(new Date())) {
+                throw new ReplayNotFoundException("The replay with id \"" + replayId + "\" was not available, next retry after "
+                        + quarantinedReplay.get().getRetryAfter());
+            }
+        }
+
+        File file;
+        try {
+            file = ReplayDownloader.downloadReplay(replayDownloadPath, replayId, false);
+        } catch (ReplayNotFoundException e) {
+            quarantinedReplayRepository.save(recordFailure(replayId, QuarantinedReplay.Reason.NOT_FOUND, e.getMessage()));
+            throw e;
+        }
+        if (quarantinedReplay.isPresent() && quarantinedReplay.get().getReason() == QuarantinedReplay.Reason.NOT_FOUND) {
+            // Available by now
+            quarantinedReplayRepository.delete(quarantinedReplay.get());
+        }
+        return file;
+    }
+
+    /**
+     * @return the quarantine entry of the replay with the failure recorded, not saved yet
+     */
+    private QuarantinedReplay recordFailure(long replayId, QuarantinedReplay.Reason reason, String message) {
+        QuarantinedReplay quarantinedReplay = quarantinedReplayRepository.findById(replayId).orElseGet(() -> {
+            QuarantinedReplay newQuarantinedReplay = new QuarantinedReplay();
+            newQuarantinedReplay.setId(replayId);
+            return newQuarantinedReplay;
+        });
+        quarantinedReplay.recordFailure(reason, message, new Date());
+        LOGGER.warn("Quarantining replay with ID {} until {} after {} failures: {}", replayId,
+                quarantinedReplay.getRetryAfter(), quarantinedReplay.getFailureCount(), message);
+        return quarantinedReplay;
+    }
+
+    /**
+     * @param analysers the analysers to run, null for all
+     */
+    private ReplayAnalyserOptions createAnalyserOptions(Set<String> analysers) {
+        return ReplayAnalyserOptions.builder()
+                .memoryMapped(memoryMappedReplays)
+                .pipelined(pipelinedReplays)
+                .commandLog(commandLogReplays)
+                .analysers(analysers)
+                .parseBudget(new ParseBudget(parseBudgetMillis, parseBudgetBytes, parseBudgetCommands))
+                .build();
+    }
+
     @Operation(summary = "Upload a FAF replay file",
             requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "The replay file to upload. Must be a `.fafreplay` file.",
@@ -200,7 +420,9 @@ public class ReplayController {
         } finally {
             // Clean up temporary file
             try {
+                ReplayJsonHeader.evict(tempFile.toFile());
                 Files.delete(tempFile);
+                Files.deleteIfExists(CommandLog.getFile(tempFile.toFile()).toPath());
             } catch (IOException e) {
                 LOGGER.warn("Failed to delete temporary file: {}", tempFile);
             }
@@ -225,14 +447,15 @@ public class ReplayController {
                                                       @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss") Date timeFrameStart,
                                                       @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss") Date timeFrameEnd,
                                                       @RequestParam(required = false, defaultValue = "false") boolean rankedOnly,
+                                                      @RequestParam(required = false, defaultValue = "false") boolean excludeDesynced,
                                                       @RequestParam(required = false) Long cursor,
                                                       @RequestParam(required = false) Integer size) {
-        LOGGER.info("Received request for search with options: {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}",
-                query, completeStatus, mods, gameTypes, numberOfPlayersMin, numberOfPlayersMax, timeFrameStart, timeFrameEnd, rankedOnly, cursor, size);
+        LOGGER.info("Received request for search with options: {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}",
+                query, completeStatus, mods, gameTypes, numberOfPlayersMin, numberOfPlayersMax, timeFrameStart, timeFrameEnd, rankedOnly, excludeDesynced, cursor, size);
 
         Pageable pageable = PageRequest.of(0, size != null ? size > 100 ? 100 : size : 20); // Default to 20 replays per request
 
-        if (StringUtils.isEmpty(query) && (mods == null || mods.isEmpty()) && (gameTypes == null || gameTypes.isEmpty()) && numberOfPlayersMin == null && numberOfPlayersMax == null && timeFrameStart == null && timeFrameEnd == null && !rankedOnly) {
+        if (StringUtils.isEmpty(query) && (mods == null || mods.isEmpty()) && (gameTypes == null || gameTypes.isEmpty()) && numberOfPlayersMin == null && numberOfPlayersMax == null && timeFrameStart == null && timeFrameEnd == null && !rankedOnly && !excludeDesynced) {
             List<Replay> replays = replayRepository.findReplaysWithCursor(cursor, pageable);
             LOGGER.info("Found (cursor) {} results in {} ms", replays.size(), System.currentTimeMillis() - System.currentTimeMillis());
             return ResponseEntity.ok(replays);
@@ -247,7 +470,8 @@ public class ReplayController {
                     .and(ReplaySpecification.hasGameTypes(gameTypes))
                     .and(ReplaySpecification.playerCountInRange(numberOfPlayersMin, numberOfPlayersMax))
                     .and(ReplaySpecification.timeFrame(timeFrameStart, timeFrameEnd))
-                    .and(ReplaySpecification.isRanked(rankedOnly));
+                    .and(ReplaySpecification.isRanked(rankedOnly))
+                    .and(ReplaySpecification.excludeDesynced(excludeDesynced));
 
             Slice<Replay> result = replayRepository.findSlice(spec, pageable, Replay.class);
 
@@ -261,16 +485,20 @@ public class ReplayController {
     }
 
     @Operation(summary = "Reanalyzes all replays in the database",
-            description = "This endpoint retrieves all replay IDs from the database and triggers an asynchronous reanalysis of all replays using multiple threads.")
+            description = "This endpoint retrieves all replay IDs from the database and triggers an asynchronous reanalysis of all replays using multiple threads. "
+                    + "With outdatedOnly, replays whose analysers are all up to date are skipped without downloading them, the others only run their outdated analysers.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Reanalysis process started successfully"),
             @ApiResponse(responseCode = "500", description = "Internal server error")
     })
     @PostMapping("/reanalyze-all")
-    public ResponseEntity<?> reanalyzeAllReplays() {
-        LOGGER.info("Reanalysis of all replays in database initiated.");
+    public ResponseEntity<?> reanalyzeAllReplays(
+            @Parameter(description = "Only runs the outdated analysers of the replays", example = "false")
+            @RequestParam(value = "outdatedOnly", required = false, defaultValue = "false")
+            boolean outdatedOnly) {
+        LOGGER.info("Reanalysis of all replays in database initiated. Outdated analysers only: {}", outdatedOnly);
 
-        if (denyNonAdminAccess()) {
+        if (AdminAccess.isDenied()) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .body("You don't have permission to reanalyze replays.");
         }
@@ -285,7 +513,11 @@ public class ReplayController {
                 asyncReplayAnalyserExecutorService.submit(() -> {
                     finalReplayIds.forEach(e -> {
                         transactionTemplate.executeWithoutResult(status -> {
-                            downloadAndAnalyseReplay(e, true);
+                            if (outdatedOnly) {
+                                updateOutdatedAnalyses(e);
+                            } else {
+                                downloadAndAnalyseReplay(e, true);
+                            }
                         });
                     });
                 });
@@ -302,10 +534,25 @@ public class ReplayController {
         }
     }
 
+    private void updateOutdatedAnalyses(Long replayId) {
+        Optional<Replay> storedReplay = replayRepository.findById(replayId);
+        if (storedReplay.isEmpty() || ReplayAnalyser.getOutdatedAnalysers(storedReplay.get()).isEmpty()) {
+            // Up to date replays are not even downloaded
+            return;
+        }
+
+        try {
+            File file = downloadReplay(replayId);
+            updateOutdatedAnalyses(file, storedReplay.get());
+        } catch (IOException | ReplayNotFoundException | UnsupportedReplayException e) {
+            LOGGER.warn("Failed to reanalyse replay with ID {}: {}", replayId, e.getMessage());
+        }
+    }
+
     private ResponseEntity<?> downloadAndAnalyseReplay(Long replayId, boolean forceSaving) {
         File file;
         try {
-            file = ReplayDownloader.downloadReplay(replayDownloadPath, replayId, false);
+            file = downloadReplay(replayId);
         } catch (ReplayNotFoundException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body("Replay with ID " + replayId + " not found.");
@@ -316,12 +563,52 @@ public class ReplayController {
 
         try {
             return ResponseEntity.ok(createDatabaseReplayEntity(file, forceSaving));
+        } catch (UnsupportedReplayException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Failed to analyze replay with ID " + replayId + ": " + e.getMessage());
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Failed to analyze replay with ID " + replayId + ": " + e.getMessage());
         }
     }
 
+    @Operation(summary = "Lists the quarantined replays",
+            description = "Replay ids which were not found, are unsupported, failed to parse or exceeded the parse budget "
+                    + "are quarantined. Downloads and analyses skip them until their retry is due.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "The quarantined replays",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = List.class))),
+            @ApiResponse(responseCode = "500", description = "Internal server error", content = @Content)
+    })
+    @GetMapping("/quarantined")
+    public ResponseEntity<List<QuarantinedReplay>> getQuarantinedReplays() {
+        return ResponseEntity.ok(quarantinedReplayRepository.findAll());
+    }
+
+    @Operation(summary = "Releases a replay from the quarantine, so it is downloaded and analysed again right away")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Replay released", content = @Content),
+            @ApiResponse(responseCode = "403", description = "You are not allowed to do this", content = @Content),
+            @ApiResponse(responseCode = "404", description = "Replay is not quarantined", content = @Content)
+    })
+    @PostMapping("/quarantined/{replayId}/release")
+    public ResponseEntity<?> releaseQuarantinedReplay(
+            @Parameter(description = "The id of the replay", example = "21428000")
+            @PathVariable("replayId")
+            Long replayId) {
+        if (AdminAccess.isDenied()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body("You don't have permission to release replays.");
+        }
+        if (!quarantinedReplayRepository.existsById(replayId)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("Replay with ID " + replayId + " is not quarantined.");
+        }
+        quarantinedReplayRepository.deleteById(replayId);
+        LOGGER.info("Released replay with ID {} from the quarantine", replayId);
+        return ResponseEntity.ok("Replay released from the quarantine.");
+    }
+
     @Operation(summary = "Deletes all replays")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "All replays deleted",
@@ -334,7 +621,7 @@ public class ReplayController {
     public ResponseEntity<?> deleteAllReplays() {
         LOGGER.info("Received request to delete all replays");
 
-        if (denyNonAdminAccess()) {
+        if (AdminAccess.isDenied()) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .body("You don't have permission to delete replays.");
         }
@@ -342,16 +629,11 @@ public class ReplayController {
         return ResponseEntity.ok("All replays deleted successfully.");
     }
 
-    private boolean denyNonAdminAccess() {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        if (authentication != null && authentication.isAuthenticated()) {
-            return authentication.getAuthorities().stream()
-                    .noneMatch(grantedAuthority ->
-                            grantedAuthority.getAuthority().equals("ROLE_ADMIN") ||
-                                    grantedAuthority.getAuthority().equals("REPLAY_FORCE_ACCESS")
-                    );
-        }
-        return true;
+    /**
+     * @return how often concurrent imports and downloads of the same replay were coalesced
+     */
+    public static List<SingleFlight.Statistics> getSingleFlightStatistics() {
+        return List.of(REPLAY_IMPORTS.getStatistics(), REPLAY_DOWNLOADS.getStatistics());
     }
 
     @Operation(summary = "Download a FAF replay file by its ID")
@@ -367,7 +649,7 @@ public class ReplayController {
     public ResponseEntity<?> getReplayFile(@PathVariable long replayId) {
         try {
             // Use the ReplayDownloader to get the replay file
-            File replayFile = ReplayDownloader.downloadReplay(replayDownloadPath, replayId, false);
+            File replayFile = downloadReplay(replayId);
 
             // Create a resource from the file
             InputStreamResource resource = new InputStreamResource(new FileInputStream(replayFile));
@@ -387,6 +669,129 @@ public class ReplayController {
         }
     }
 
+    @Operation(summary = "Get the commands of a replay within a tick range",
+            description = "Only the commands from fromTick to toTick are decoded, starting at the stored seek point closest to the range. "
+                    + "Replays which were not analysed yet are read from their first command. "
+                    + "The range is limited, all commands of a replay can be streamed instead.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "The commands of the tick range",
+                    content = @Content(mediaType = "application/json")),
+            @ApiResponse(responseCode = "400", description = "Invalid or too large tick range", content = @Content),
+            @ApiResponse(responseCode = "404", description = "Replay was not found", content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal server error", content = @Content)
+    })
+    @GetMapping("/{replayId}/commands")
+    public ResponseEntity<?> getReplayCommands(
+            @Parameter(description = "The id of the replay", example = "21428000")
+            @PathVariable("replayId")
+            Long replayId,
+
+            @Parameter(description = "The first tick to return commands of", example = "3000")
+            @RequestParam(value = "fromTick", required = false, defaultValue = "0")
+            int fromTick,
+
+            @Parameter(description = "The last tick to return commands of", example = "3600")
+            @RequestParam("toTick")
+            int toTick) {
+        LOGGER.info("Received request for commands of replay with ID {} from tick {} to {}", replayId, fromTick, toTick);
+
+        if (fromTick < 0 || fromTick > toTick) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("fromTick must be between 0 and toTick.");
+        }
+        // The commands are collected in memory, so the range is limited
+        if (toTick - fromTick > commandsMaxTicks) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("The tick range must not exceed " + commandsMaxTicks + " ticks, use /commands/stream for all commands.");
+        }
+
+        File file;
+        try {
+            file = downloadReplay(replayId);
+        } catch (ReplayNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("Replay with ID " + replayId + " not found.");
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to download replay with ID " + replayId + ": " + e.getMessage());
+        }
+
+        // The seek points are loaded lazily, so they are copied while the replay is attached
+        List<ReplaySeekPoint> seekPoints = transactionTemplate.execute(status -> replayRepository.findById(replayId)
+                .<List<ReplaySeekPoint>>map(replay -> new ArrayList<>(replay.getSeekPoints()))
+                .orElseGet(List::of));
+
+        try {
+            List<Command> commands = new ReplayAnalyser(file, new Replay(), createAnalyserOptions(Set.of()))
+                    .readCommands(seekPoints, fromTick, toTick);
+            List<Map<String, Object>> body = new ArrayList<>(commands.size());
+            for (Command command : commands) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("tick", command.getTick());
+                entry.put("playerId", command.getPlayerId());
+                entry.put("commandType", command.getCommandType());
+                entry.put("desync", command.isDesyncCommand());
+                entry.put("data", command.getCommandData());
+                body.add(entry);
+            }
+            return ResponseEntity.ok(body);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to read commands of replay with ID {}", replayId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to read commands of replay with ID " + replayId + ": " + e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Stream all commands of a replay as NDJSON",
+            description = "Every decoded command is written as one line of JSON while the replay is parsed, "
+                    + "so arbitrarily long command streams are served without holding them in memory. "
+                    + "The last line is {\"status\":\"completed\",\"commands\":n} or, if the replay could not be "
+                    + "read to its end, {\"status\":\"failed\",\"commands\":n,\"error\":\"...\"}; "
+                    + "a stream without it was cut off.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "One command per line",
+                    content = @Content(mediaType = "application/x-ndjson")),
+            @ApiResponse(responseCode = "404", description = "Replay was not found", content = @Content),
+            @ApiResponse(responseCode = "500", description = "Internal server error", content = @Content)
+    })
+    @GetMapping("/{replayId}/commands/stream")
+    // The body type has to be declared, otherwise the body is not recognized as a stream and cannot be written
+    public ResponseEntity<StreamingResponseBody> streamReplayCommands(
+            @Parameter(description = "The id of the replay", example = "21428000")
+            @PathVariable("replayId")
+            Long replayId) {
+        LOGGER.info("Received request to stream the commands of replay with ID {}", replayId);
+
+        File file;
+        try {
+            file = downloadReplay(replayId);
+        } catch (ReplayNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Replay with ID " + replayId + " not found.", e);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Failed to download replay with ID " + replayId + ": " + e.getMessage(), e);
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            CommandStreamWriter streamWriter = new CommandStreamWriter(outputStream);
+            try {
+                new ReplayAnalyser(file, new Replay(), createAnalyserOptions(Set.of())).streamCommands(streamWriter);
+            } catch (EOFException | ZipException | ReplayParseException | UnsupportedReplayException e) {
+                // The status is already sent, including for exceeded parse budgets, so the failure can only be
+                // reported in the stream itself
+                LOGGER.warn("Streaming the commands of replay with ID {} failed after {} commands", replayId,
+                        streamWriter.getWrittenCommands(), e);
+                streamWriter.writeFailed(e.getMessage());
+                return;
+            }
+            streamWriter.writeCompleted();
+            LOGGER.debug("Streamed {} commands of replay with ID {}", streamWriter.getWrittenCommands(), replayId);
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
     @Operation(summary = "Analyses a replay by id range")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "The specific replays will be analysed asynchronously.",
@@ -406,29 +811,41 @@ public class ReplayController {
             Long to) {
         LOGGER.info("Received request for replays from {} to {}.", from, to);
 
-        if (denyNonAdminAccess()) {
+        if (AdminAccess.isDenied()) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .body("You don't have permission to forcibly reanalyze replays.");
         }
 
         LOGGER.info("Analyzing replays from {} to {}.", from, to);
 
-        asyncReplayAnalyserExecutorService.submit(() -> {
-                    for (long currentReplayId = from; currentReplayId <= to; currentReplayId++) {
-                        final long id = currentReplayId;
-                        try {
-                            transactionTemplate.executeWithoutResult(status -> {
-                                ResponseEntity<?> responseEntity = getReplayById(id, false);
-                                if (responseEntity.getStatusCode() != HttpStatus.OK) {
-                                    LOGGER.warn("Failed to analyze replay with ID {}: {}", id, responseEntity.getBody());
-                                }
-                            });
-                        } catch (RuntimeException e) {
-                            LOGGER.error("Failed to analyze replay with ID {}: {}", id, e.getMessage());
-                        }
-                    }
+        // One task per replay, so up to the maximum download concurrency is used. The ids are submitted only when an
+        // import thread is free, so large ranges neither queue millions of tasks nor block other analyses.
+        replayRangeExecutorService.submit(() -> {
+            for (long currentReplayId = from; currentReplayId <= to; currentReplayId++) {
+                final long id = currentReplayId;
+                try {
+                    replayImportPermits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOGGER.warn("Import of replays from {} to {} interrupted at {}", from, to, id);
+                    return;
                 }
-        );
+                replayImportExecutorService.submit(() -> {
+                    try {
+                        transactionTemplate.executeWithoutResult(status -> {
+                            ResponseEntity<?> responseEntity = getReplayById(id, false);
+                            if (responseEntity.getStatusCode() != HttpStatus.OK) {
+                                LOGGER.warn("Failed to analyze replay with ID {}: {}", id, responseEntity.getBody());
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Failed to analyze replay with ID {}: {}", id, e.getMessage());
+                    } finally {
+                        replayImportPermits.release();
+                    }
+                });
+            }
+        });
 
         return ResponseEntity.ok("Replay processing started. This may take some time.");
     }
@@ -456,7 +873,7 @@ public class ReplayController {
 
         if (force) {
             // Dynamically check if the user has the required role/authority
-            if (denyNonAdminAccess()) {
+            if (AdminAccess.isDenied()) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN)
                         .body("You don't have permission to forcibly reanalyze replays.");
             }
@@ -468,12 +885,18 @@ public class ReplayController {
             }
         }
 
-        return downloadAndAnalyseReplay(replayId, force);
+        // Concurrent requests for a replay which is not imported yet share one import. A forced import never shares
+        // the result of a normal one, which would skip the reanalysis.
+        return REPLAY_IMPORTS.execute(new ReplayImport(replayId, force), () -> downloadAndAnalyseReplay(replayId, force));
+    }
+
+    private record ReplayImport(long replayId, boolean force) {
     }
 
     @PostConstruct
     public void initHotfolderListener() {
-        asyncReplayAnalyserExecutorService.submit(() -> {
+        // Runs for the lifetime of the application, so it gets its own thread
+        hotfolderListenerExecutorService.submit(() -> {
             try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
                 Path path = Paths.get(HOTFOLDER_PATH);
                 path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
@@ -542,8 +965,10 @@ public class ReplayController {
                 createDatabaseReplayEntity(file, true);
 
                 LOGGER.debug("Successfully processed replay file: {}", file.getName());
+                ReplayJsonHeader.evict(file);
                 Files.delete(file.toPath());
-            } catch (IOException e) {
+                Files.deleteIfExists(CommandLog.getFile(file).toPath());
+            } catch (IOException | UnsupportedReplayException e) {
                 LOGGER.warn("Failed to process replay file: {}", e.getMessage());
             }
         });
@@ -105,6 +105,13 @@ public class ReplaySpecification {
         };
     }
 
+    public static Specification<Replay> excludeDesynced(boolean excludeDesynced) {
+        return (root, queryBuilder, criteriaBuilder) ->
+                !excludeDesynced
+                        ? null
+                        : criteriaBuilder.equal(root.get("desynced"), false);
+    }
+
     public static Specification<Replay> isRanked(boolean rankedOnly) {
         return (root, queryBuilder, criteriaBuilder) ->
                 !rankedOnly
@@ -0,0 +1,90 @@
+package de.needix.games.faf.replay.api.entities.replay;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.Date;
+
+/**
+ * Negative cache entry of a replay id which could not be downloaded or analysed. Downloads and analyses skip the
+ * replay until {@link #getRetryAfter()}, so sparse id ranges and broken replays do not cost a round trip or a parse
+ * on every pass. Every further failure doubles the time until the next retry, up to {@link #MAX_RETRY_DELAY_MILLIS}.
+ */
+@Entity
+@Setter
+@Getter
+@ToString
+public class QuarantinedReplay {
+    public static final long MAX_RETRY_DELAY_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    public enum Reason {
+        /**
+         * The replay server does not know the id (yet)
+         */
+        NOT_FOUND(6L * 60 * 60 * 1000),
+        /**
+         * E.g. an unsupported compression or a missing header
+         */
+        UNSUPPORTED(7L * 24 * 60 * 60 * 1000),
+        /**
+         * The replay is corrupted or the parser failed on it
+         */
+        PARSE_ERROR(24L * 60 * 60 * 1000),
+        /**
+         * Parsing exceeded its budget, see {@code ParseBudget}. Only retried after being released.
+         */
+        BUDGET_EXCEEDED(0);
+
+        private final long retryDelayMillis;
+
+        Reason(long retryDelayMillis) {
+            this.retryDelayMillis = retryDelayMillis;
+        }
+    }
+
+    @Id
+    private Long id;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date quarantineDate;
+    @Enumerated(EnumType.STRING)
+    private Reason reason;
+    @Column(name = "message", length = 1000)
+    private String message;
+    private int failureCount;
+    /**
+     * Null, if the replay is only retried after being released
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date retryAfter;
+
+    private long fileSize;
+    private long parsedCommands;
+    private long parsedBytes;
+    private long parseMillis;
+
+    /**
+     * Records another failure and schedules the next retry.
+     */
+    public void recordFailure(Reason reason, String message, Date now) {
+        this.reason = reason;
+        this.message = message != null && message.length() > 1000 ? message.substring(0, 1000) : message;
+        this.quarantineDate = now;
+        this.failureCount++;
+        if (reason.retryDelayMillis == 0) {
+            this.retryAfter = null;
+        } else {
+            long retryDelay = Math.min(reason.retryDelayMillis << Math.min(failureCount - 1, 16), MAX_RETRY_DELAY_MILLIS);
+            this.retryAfter = new Date(now.getTime() + retryDelay);
+        }
+    }
+
+    /**
+     * @return true, if the replay should still be skipped
+     */
+    public boolean isActive(Date now) {
+        return retryAfter == null || now.before(retryAfter);
+    }
+}
@@ -1,6 +1,7 @@
 package de.needix.games.faf.replay.api.entities.replay;
 
 import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import de.needix.games.faf.replay.api.JsonAttributeConverter;
@@ -47,6 +48,40 @@ public class Replay {
     private boolean ranked;
     private int randomSeed;
 
+    /**
+     * True, if the players reported different checksums for the same tick
+     */
+    private boolean desynced;
+    /**
+     * Number of ticks with differing checksums
+     */
+    private int desyncCount;
+    /**
+     * The first ticks with differing checksums, at most {@code ReplayBody.MAX_RECORDED_DESYNC_TICKS}
+     */
+    @ElementCollection
+    @CollectionTable(name = "replay_desync_ticks", joinColumns = @JoinColumn(name = "replay_id"))
+    @Column(name = "tick")
+    private List<Integer> desyncTicks = new ArrayList<>();
+
+    /**
+     * Version of every analyser the stored results were produced with, by analyser name
+     */
+    @ElementCollection
+    @CollectionTable(name = "replay_analyser_versions", joinColumns = @JoinColumn(name = "replay_id"))
+    @MapKeyColumn(name = "analyser")
+    @Column(name = "version")
+    private Map<String, Integer> analyserVersions = new HashMap<>();
+
+    /**
+     * Sparse index into the decompressed replay data, ordered by tick, see {@code ReplayBody.SEEK_INTERVAL_TICKS}
+     */
+    @JsonIgnore
+    @ElementCollection
+    @CollectionTable(name = "replay_seek_points", joinColumns = @JoinColumn(name = "replay_id"))
+    @OrderBy("tick")
+    private List<ReplaySeekPoint> seekPoints = new ArrayList<>();
+
     @OneToMany(cascade = CascadeType.ALL, orphanRemoval = true, mappedBy = "replay", fetch = FetchType.EAGER)
     private List<ReplayPlayer> players = new ArrayList<>();
 
@@ -91,6 +91,19 @@ public class ReplayPlayer {
     @Setter(AccessLevel.NONE)
     private List<ReplayPlayerApm> apmPerMinute = new ArrayList<>();
 
+    /**
+     * Highest APM over a rolling one minute window
+     */
+    private double peakApm;
+
+    /**
+     * How often the rolling one minute APM fell into each bucket:
+     * {"windowStepSeconds": 10, "bucketWidth": 10, "counts": [...]}
+     */
+    @Convert(converter = JsonAttributeConverter.class)
+    @Column(columnDefinition = "json")
+    private Map<String, Object> apmHistogram = new HashMap<>();
+
     @OneToMany(cascade = jakarta.persistence.CascadeType.ALL, orphanRemoval = true)
     @Setter(AccessLevel.NONE)
     private List<TargetOrder> targetOrders = new ArrayList<>();
@@ -104,10 +117,11 @@ public class ReplayPlayer {
         return objectMapper.readValue(json, Map.class);
     }
 
-    public void addApmPerMinute(int minute, double apm) {
+    public void addApmPerMinute(int minute, double apm, double effectiveApm) {
         ReplayPlayerApm replayPlayerApm = new ReplayPlayerApm();
         replayPlayerApm.setMinute(minute);
         replayPlayerApm.setApm(apm);
+        replayPlayerApm.setEffectiveApm(effectiveApm);
 
         apmPerMinute.add(replayPlayerApm);
     }
@@ -17,4 +17,8 @@ public class ReplayPlayerApm {
 
     private int minute;
     private double apm;
+    /**
+     * APM without issue commands which repeat the previous order within a second
+     */
+    private double effectiveApm;
 }
@@ -0,0 +1,31 @@
+package de.needix.games.faf.replay.api.entities.replay;
+
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A position in the decompressed replay data from which the commands can be parsed without parsing everything before
+ * it. It points to an {@code ADVANCE} command and holds the state the parser had there.
+ */
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Embeddable
+public class ReplaySeekPoint {
+    /**
+     * The tick before the advance is applied. All commands of earlier ticks come before the seek point.
+     */
+    private int tick;
+    /**
+     * Byte offset of the advance command in the decompressed replay data
+     */
+    private long offset;
+    /**
+     * The command source which was active at the seek point, -1 if there was none
+     */
+    private int playerId;
+}
@@ -0,0 +1,7 @@
+package de.needix.games.faf.replay.api.repositories;
+
+import de.needix.games.faf.replay.api.entities.replay.QuarantinedReplay;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface QuarantinedReplayRepository extends JpaRepository<QuarantinedReplay, Long> {
+}
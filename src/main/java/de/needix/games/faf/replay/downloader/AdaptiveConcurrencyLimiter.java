@@ -0,0 +1,71 @@
+package de.needix.games.faf.replay.downloader;
+
+/**
+ * Limits the number of concurrent requests to a server and adapts the limit AIMD style: every successful request
+ * raises the limit by one per limit requests (additive increase), every throttled request halves it (multiplicative
+ * decrease). A throttling server can also pause all requests for a while, e.g. as told by its Retry-After header.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private long pausedUntilMillis;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= initialLimit <= maxLimit, but were " + initialLimit + " and " + maxLimit);
+        }
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Waits until a request may be sent. Every acquire has to be followed by exactly one of {@link #onSuccess()},
+     * {@link #onThrottled(long)} or {@link #onFailure()}.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (true) {
+            long pause = pausedUntilMillis - System.currentTimeMillis();
+            if (pause > 0) {
+                wait(pause);
+            } else if (inFlight >= (int) limit) {
+                wait();
+            } else {
+                inFlight++;
+                return;
+            }
+        }
+    }
+
+    public synchronized void onSuccess() {
+        inFlight--;
+        limit = Math.min(maxLimit, limit + 1 / limit);
+        notifyAll();
+    }
+
+    /**
+     * @param pauseMillis time no request should be sent at all, 0 for none
+     */
+    public synchronized void onThrottled(long pauseMillis) {
+        inFlight--;
+        limit = Math.max(1, limit / 2);
+        pausedUntilMillis = Math.max(pausedUntilMillis, System.currentTimeMillis() + pauseMillis);
+        notifyAll();
+    }
+
+    /**
+     * A request failed for another reason than throttling, the limit stays as it is.
+     */
+    public synchronized void onFailure() {
+        inFlight--;
+        notifyAll();
+    }
+
+    public synchronized double getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
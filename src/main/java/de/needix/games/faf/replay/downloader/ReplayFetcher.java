@@ -0,0 +1,249 @@
+package de.needix.games.faf.replay.downloader;
+
+import de.needix.games.faf.replay.exceptions.ReplayNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Downloads replays over one shared {@link HttpClient}, which keeps its connections open between requests. The number
+ * of concurrent requests is limited by an {@link AdaptiveConcurrencyLimiter}: it grows while the server keeps up and is
+ * halved whenever the server throttles with 429 or 503. A Retry-After header pauses all requests for the given time,
+ * other failures are retried after a jittered exponential backoff.
+ * <p>
+ * A replay is downloaded next to its target file first and only moved into place atomically once the
+ * {@link ReplayFetcherOptions#getVerifier() verifier} accepted it. Corrupt downloads are discarded and retried.
+ */
+public class ReplayFetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayFetcher.class);
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/115.0.0.0 Safari/537.36";
+    private static final String ACCEPT = "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8";
+    private static final String PART_FILE_EXTENSION = ".part";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final ReplayFetcherOptions options;
+    private final HttpClient httpClient;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder downloadedBytes = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder corrupt = new LongAdder();
+    private final LongAdder downloadNanos = new LongAdder();
+
+    public ReplayFetcher(ReplayFetcherOptions options) {
+        this.options = Objects.requireNonNull(options, "options must not be null");
+        this.httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(options.getConnectTimeout())
+                .build();
+        this.limiter = new AdaptiveConcurrencyLimiter(options.getInitialConcurrency(), options.getMaxConcurrency());
+    }
+
+    /**
+     * Downloads the replay into the target file, replacing it. The target file is only written once the download is
+     * complete and verified.
+     *
+     * @throws ReplayNotFoundException if the server does not know the replay
+     * @throws IOException             if the replay could not be downloaded within the configured attempts
+     */
+    public void fetch(long replayId, Path targetFile) throws IOException {
+        Objects.requireNonNull(targetFile, "targetFile must not be null");
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(options.getBaseUrl() + replayId))
+                .timeout(options.getRequestTimeout())
+                .header("User-Agent", USER_AGENT)
+                .header("Accept", ACCEPT)
+                .GET()
+                .build();
+
+        // The replay only gets its final name once it is complete, so a crash never leaves a truncated replay behind
+        Path partFile = targetFile.resolveSibling(targetFile.getFileName() + PART_FILE_EXTENSION);
+        HttpResponse.BodyHandler<Void> bodyHandler = responseInfo -> responseInfo.statusCode() == 200
+                ? HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofFile(partFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), path -> null)
+                : HttpResponse.BodySubscribers.discarding();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                acquire();
+                requests.increment();
+
+                long startTime = System.nanoTime();
+                HttpResponse<Void> response;
+                try {
+                    // The received buffers are written to the file channel as they are, without copying them to a stream
+                    response = httpClient.send(request, bodyHandler);
+                } catch (IOException e) {
+                    limiter.onFailure();
+                    retryOrThrow(replayId, attempt, backoff(attempt), e);
+                    continue;
+                } catch (InterruptedException e) {
+                    limiter.onFailure();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while downloading replay " + replayId);
+                }
+
+                int statusCode = response.statusCode();
+                if (statusCode == 200) {
+                    limiter.onSuccess();
+                    long nanos = System.nanoTime() - startTime;
+                    long bytes = Files.size(partFile);
+                    try {
+                        options.getVerifier().verify(partFile);
+                    } catch (IOException e) {
+                        corrupt.increment();
+                        Files.deleteIfExists(partFile);
+                        retryOrThrow(replayId, attempt, backoff(attempt), e);
+                        continue;
+                    }
+                    Files.move(partFile, targetFile, StandardCopyOption.ATOMIC_MOVE);
+                    downloads.increment();
+                    downloadedBytes.add(bytes);
+                    downloadNanos.add(nanos);
+                    LOGGER.debug("Downloaded replay {} with {} bytes in {} ms, concurrency limit {}",
+                            replayId, bytes, nanos / 1_000_000, limiter.getLimit());
+                    return;
+                } else if (statusCode == 404) {
+                    // The server answered properly, so it is not overloaded
+                    limiter.onSuccess();
+                    notFound.increment();
+                    throw new ReplayNotFoundException("The replay with id \"" + replayId + "\" was not available!");
+                } else if (statusCode == HTTP_TOO_MANY_REQUESTS || statusCode == 503) {
+                    throttled.increment();
+                    Optional<Long> retryAfter = parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null));
+                    limiter.onThrottled(retryAfter.orElse(0L));
+                    LOGGER.debug("Throttled while downloading replay {}, concurrency limit {}, retry after {} ms",
+                            replayId, limiter.getLimit(), retryAfter.orElse(null));
+                    retryOrThrow(replayId, attempt, retryAfter.isPresent() ? retryAfter.get() : backoff(attempt),
+                            new IOException("HTTP response code: " + statusCode));
+                } else if (statusCode >= 500) {
+                    limiter.onFailure();
+                    retryOrThrow(replayId, attempt, backoff(attempt), new IOException("HTTP response code: " + statusCode));
+                } else {
+                    limiter.onFailure();
+                    failures.increment();
+                    throw new IOException("HTTP response code: " + statusCode);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+    }
+
+    public Statistics getStatistics() {
+        long bytes = downloadedBytes.sum();
+        long nanos = downloadNanos.sum();
+        return new Statistics(requests.sum(), downloads.sum(), bytes, nanos / 1_000_000,
+                nanos == 0 ? 0 : (long) (bytes * 1e9 / nanos), notFound.sum(), throttled.sum(), corrupt.sum(),
+                retries.sum(), failures.sum(), limiter.getLimit(), limiter.getInFlight());
+    }
+
+    private void acquire() throws InterruptedIOException {
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to download");
+        }
+    }
+
+    private void retryOrThrow(long replayId, int attempt, long delayMillis, IOException failure) throws IOException {
+        if (attempt >= options.getMaxAttempts()) {
+            failures.increment();
+            throw failure;
+        }
+        LOGGER.warn("Failed to download replay {} in attempt {}, retrying in {} ms: {}", replayId, attempt, delayMillis, failure.getMessage());
+        retries.increment();
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry replay " + replayId);
+        }
+    }
+
+    /**
+     * @return a delay between half and all of the exponential backoff, so retries of concurrent downloads spread out
+     */
+    private long backoff(int attempt) {
+        long maxDelay = options.getBackoffMax().toMillis();
+        long delay = Math.min(maxDelay, options.getBackoffBase().toMillis() << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * @param retryAfter either seconds or an HTTP date, see RFC 9110
+     * @return the delay in milliseconds, at most the maximum backoff
+     */
+    private Optional<Long> parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return Optional.empty();
+        }
+        long delayMillis;
+        try {
+            delayMillis = Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                delayMillis = Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis();
+            } catch (DateTimeParseException e2) {
+                LOGGER.debug("Ignoring invalid Retry-After header: {}", retryAfter);
+                return Optional.empty();
+            }
+        }
+        return Optional.of(Math.max(0, Math.min(delayMillis, options.getBackoffMax().toMillis())));
+    }
+
+    /**
+     * @param requests         requests sent, including retries
+     * @param downloads        replays downloaded successfully
+     * @param downloadedBytes  bytes of the downloaded replays
+     * @param downloadMillis   time spent on the successful requests, from sending them until their body was written
+     * @param bytesPerSecond   average download rate of the successful requests, concurrent requests add up
+     * @param notFound         replays the server did not know
+     * @param throttled        requests answered with 429 or 503
+     * @param corrupt          downloads which failed verification and were discarded
+     * @param retries          requests repeated after a failure
+     * @param failures         replays given up on
+     * @param concurrencyLimit the current limit of concurrent requests
+     * @param inFlight         requests running right now
+     */
+    public record Statistics(long requests, long downloads, long downloadedBytes, long downloadMillis,
+                             long bytesPerSecond, long notFound, long throttled, long corrupt, long retries,
+                             long failures, double concurrencyLimit, int inFlight) {
+    }
+
+    /**
+     * Checks a downloaded replay before it is moved to its final name.
+     */
+    @FunctionalInterface
+    public interface Verifier {
+        /**
+         * @throws IOException if the file is not a complete replay, it is discarded and downloaded again
+         */
+        void verify(Path file) throws IOException;
+    }
+}
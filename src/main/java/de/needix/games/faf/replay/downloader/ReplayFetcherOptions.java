@@ -0,0 +1,61 @@
+package de.needix.games.faf.replay.downloader;
+
+import de.needix.games.faf.replay.analyser.ReplayAnalyser;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Tunes how {@link ReplayFetcher} requests replays.
+ */
+@Getter
+@Builder
+@ToString
+public class ReplayFetcherOptions {
+    public static final ReplayFetcherOptions DEFAULT = ReplayFetcherOptions.builder().build();
+
+    /**
+     * The replay id is appended to this URL. Can point to a local server for testing.
+     */
+    @Builder.Default
+    private final String baseUrl = ReplayDownloader.BASE_URL;
+
+    /**
+     * Concurrent requests to start with, the limit adapts to the server between 1 and {@link #maxConcurrency}
+     */
+    @Builder.Default
+    private final int initialConcurrency = 2;
+
+    @Builder.Default
+    private final int maxConcurrency = 8;
+
+    /**
+     * Attempts per replay, including the first one. Throttled requests count as attempts as well.
+     */
+    @Builder.Default
+    private final int maxAttempts = 6;
+
+    /**
+     * The delay before a retry is chosen randomly up to this value doubled for every failed attempt, unless the server
+     * asks for a specific delay.
+     */
+    @Builder.Default
+    private final Duration backoffBase = Duration.ofMillis(500);
+
+    @Builder.Default
+    private final Duration backoffMax = Duration.ofSeconds(30);
+
+    @Builder.Default
+    private final Duration connectTimeout = Duration.ofSeconds(10);
+
+    @Builder.Default
+    private final Duration requestTimeout = Duration.ofMinutes(2);
+
+    /**
+     * Checks every download before it replaces the target file, by default its header and compressed frames
+     */
+    @Builder.Default
+    private final ReplayFetcher.Verifier verifier = ReplayAnalyser::verifyReplayFile;
+}
@@ -0,0 +1,30 @@
+package de.needix.games.faf.replay.exceptions;
+
+import lombok.Getter;
+
+/**
+ * Thrown if parsing a replay exceeds its {@code ParseBudget}. Such replays are quarantined instead of being analysed
+ * again and again.
+ */
+@Getter
+public class ReplayBudgetExceededException extends UnsupportedReplayException {
+    public enum Limit {
+        TIME, BYTES, COMMANDS
+    }
+
+    private final long replayId;
+    private final Limit limit;
+    private final long commands;
+    private final long bytes;
+    private final long millis;
+
+    public ReplayBudgetExceededException(long replayId, Limit limit, long commands, long bytes, long millis) {
+        super("Replay " + replayId + " exceeded its parse budget for " + limit + " after " + commands + " commands, "
+                + bytes + " bytes and " + millis + " ms");
+        this.replayId = replayId;
+        this.limit = limit;
+        this.commands = commands;
+        this.bytes = bytes;
+        this.millis = millis;
+    }
+}
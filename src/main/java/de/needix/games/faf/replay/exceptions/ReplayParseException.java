@@ -0,0 +1,19 @@
+package de.needix.games.faf.replay.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown if the data of a replay is corrupt, e.g. truncated, not decompressible or with values no replay contains.
+ * Other runtime exceptions thrown during an analysis are bugs and not caused by the replay.
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class ReplayParseException extends RuntimeException {
+    public ReplayParseException(String message) {
+        super(message);
+    }
+
+    public ReplayParseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -8,4 +8,8 @@ public class UnsupportedReplayException extends RuntimeException {
     public UnsupportedReplayException(String message) {
         super(message);
     }
+
+    public UnsupportedReplayException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,454 @@
+package de.needix.games.faf.replay;
+
+import com.github.luben.zstd.Zstd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+/**
+ * Generates replays for tests and benchmarks. The body contains a realistic mix of the command types (ticks, command
+ * sources, checksums, issued orders, Lua callbacks, ...) drawn from a seeded random, so the same arguments always
+ * produce the same replay. The first checksum pair of the second half mismatches, which the desync detection reports.
+ */
+public final class SyntheticReplays {
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final Random random;
+
+    private SyntheticReplays(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Writes a current (version 2, zstd compressed) replay.
+     *
+     * @return the written file
+     */
+    public static Path writeZstdReplay(Path file, long uid, int commands, int players) throws IOException {
+        return writeZstdReplay(file, uid, body(uid, commands, players), players);
+    }
+
+    /**
+     * Writes a current replay with the given body, e.g. a generated one with changes.
+     *
+     * @return the written file
+     */
+    public static Path writeZstdReplay(Path file, long uid, byte[] body, int players) throws IOException {
+        ByteArrayOutputStream replay = new ByteArrayOutputStream();
+        replay.writeBytes(header(uid, 2, "zstd", players).getBytes(StandardCharsets.UTF_8));
+        replay.writeBytes(Zstd.compress(body, 3));
+        return Files.write(file, replay.toByteArray());
+    }
+
+    /**
+     * Writes a legacy (version 1) replay, which is the size of the body followed by its zlib stream, base64 encoded.
+     *
+     * @return the written file
+     */
+    public static Path writeZlibReplay(Path file, long uid, int commands, int players) throws IOException {
+        byte[] body = body(uid, commands, players);
+        Deflater deflater = new Deflater();
+        deflater.setInput(body);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        byte[] zlib = compressed.toByteArray();
+        ByteBuffer sizedZlib = ByteBuffer.allocate(4 + zlib.length).order(ByteOrder.BIG_ENDIAN)
+                .putInt(body.length)
+                .put(zlib);
+
+        ByteArrayOutputStream replay = new ByteArrayOutputStream();
+        replay.writeBytes(header(uid, 1, "zlib", players).getBytes(StandardCharsets.UTF_8));
+        replay.writeBytes(Base64.getMimeEncoder().encode(sizedZlib.array()));
+        return Files.write(file, replay.toByteArray());
+    }
+
+    /**
+     * @return the decompressed body of a replay, seeded with the uid
+     */
+    public static byte[] body(long uid, int commands, int players) {
+        SyntheticReplays replay = new SyntheticReplays(uid);
+        replay.writeHeader(players);
+        replay.writeCommands(commands, players);
+        return replay.out.toByteArray();
+    }
+
+    /**
+     * @param commandWriter writes the commands after the header, e.g. with {@link #advance(int)}
+     * @return the decompressed body of a replay with exactly the given commands
+     */
+    public static byte[] body(int players, Consumer<SyntheticReplays> commandWriter) {
+        SyntheticReplays replay = new SyntheticReplays(0);
+        replay.writeHeader(players);
+        commandWriter.accept(replay);
+        return replay.out.toByteArray();
+    }
+
+    public void advance(int ticks) {
+        command(0, () -> writeInt(ticks));
+    }
+
+    public void setCommandSource(int player) {
+        command(1, () -> writeByte(player));
+    }
+
+    /**
+     * @param checksum the checksum is derived from it, equal values give equal checksums
+     */
+    public void verifyChecksum(int checksum, int tick) {
+        command(3, () -> {
+            for (int j = 0; j < 16; j++) {
+                writeByte(checksum + j);
+            }
+            writeInt(tick);
+        });
+    }
+
+    public void endGame() {
+        command(23, () -> {
+        });
+    }
+
+    private static String header(long uid, int version, String compression, int players) {
+        return "{\"uid\":" + uid + ",\"version\":" + version + ",\"compression\":\"" + compression + "\""
+                + ",\"title\":\"Test " + uid + "\",\"complete\":true,\"featured_mod\":\"faf\",\"game_type\":\"0\""
+                + ",\"launched_at\":1700000000,\"game_end\":1700003600,\"num_players\":" + players
+                + ",\"recorder\":\"player0\",\"teams\":{\"1\":[\"player0\"]}}\n";
+    }
+
+    private void writeHeader(int players) {
+        writeString("Supreme Commander v1.50.3701");
+        writeByte(0);
+        writeByte(0);
+        writeByte(0);
+        writeString("Replay v1.9\r\n/maps/setons clutch/setons clutch.scmap");
+        writeInt(0);
+
+        writeSized(() -> {
+            tableStart();
+            luaString("some-mod-uid");
+            tableStart();
+            luaString("name");
+            luaString("Mod");
+            tableEnd();
+            tableEnd();
+        });
+        writeSized(() -> {
+            tableStart();
+            luaString("name");
+            luaString("Seton's Clutch");
+            luaString("map_version");
+            luaNumber(3);
+            luaString("size");
+            tableStart();
+            luaNumber(1);
+            luaNumber(1024);
+            luaNumber(2);
+            luaNumber(1024);
+            tableEnd();
+            luaString("Options");
+            tableStart();
+            luaString("Victory");
+            luaString("demoralization");
+            luaString("Share");
+            luaString("ShareUntilDeath");
+            luaString("Ratings");
+            tableStart();
+            for (int player = 0; player < players; player++) {
+                luaString("player" + player);
+                luaNumber(1000 + player * 100);
+            }
+            tableEnd();
+            tableEnd();
+            luaString("starts");
+            luaBoolean(true);
+            tableEnd();
+        });
+
+        writeByte(players);
+        for (int player = 0; player < players; player++) {
+            writeString("player" + player);
+            writeInt(player);
+        }
+        // No cheats
+        writeByte(0);
+        writeByte(players);
+        for (int player = 0; player < players; player++) {
+            int army = player;
+            writeSized(() -> {
+                tableStart();
+                luaString("PlayerName");
+                luaString("player" + army);
+                luaString("OwnerID");
+                luaString(String.valueOf(1000 + army));
+                luaString("Team");
+                luaNumber(2 + (army % 2));
+                luaString("Faction");
+                luaNumber(1 + army % 4);
+                luaString("Human");
+                luaBoolean(true);
+                tableEnd();
+            });
+            writeByte(player);
+            writeByte(0);
+        }
+        // Random seed
+        writeInt(12345);
+    }
+
+    private void writeCommands(int commands, int players) {
+        boolean desynced = false;
+        command(1, () -> writeByte(0));
+        int tick = 0;
+        for (int i = 0; i < commands; i++) {
+            int kind = random.nextInt(100);
+            if (kind < 25) {
+                int advance = 1 + random.nextInt(3);
+                tick += advance;
+                command(0, () -> writeInt(advance));
+            } else if (kind < 45) {
+                int player = random.nextInt(players);
+                command(1, () -> writeByte(player));
+            } else if (kind < 55) {
+                int checksumTick = tick;
+                // The first checksum pair of the second half
+                boolean desync = !desynced && i >= commands / 2;
+                desynced |= desync;
+                for (int k = 0; k < 2; k++) {
+                    boolean mismatch = desync && k == 1;
+                    command(3, () -> {
+                        for (int j = 0; j < 16; j++) {
+                            writeByte(mismatch ? j + 1 : j);
+                        }
+                        writeInt(checksumTick);
+                    });
+                }
+            } else if (kind < 75) {
+                writeIssueCommand();
+            } else if (kind < 80) {
+                command(22, () -> {
+                    writeString("GiveResourcesToPlayer");
+                    tableStart();
+                    luaString("To");
+                    luaNumber(1 + random.nextInt(players));
+                    luaString("From");
+                    luaNumber(1 + random.nextInt(players));
+                    luaString("Energy");
+                    luaNumber(100);
+                    luaString("Mass");
+                    luaNumber(50);
+                    tableEnd();
+                });
+            } else if (kind < 83) {
+                command(22, () -> {
+                    writeString("GiveResourcesToPlayer");
+                    tableStart();
+                    luaString("Sender");
+                    luaString("player1");
+                    luaString("Msg");
+                    tableStart();
+                    luaString("to");
+                    luaString("all");
+                    luaString("text");
+                    luaString("gl hf " + random.nextInt(3));
+                    tableEnd();
+                    tableEnd();
+                });
+            } else if (kind < 86) {
+                command(22, () -> {
+                    writeString("SharePaintingBrushStroke");
+                    tableStart();
+                    luaString("Samples");
+                    tableStart();
+                    for (int j = 1; j <= 30; j++) {
+                        luaNumber(j);
+                        luaNumber(random.nextFloat() * 100);
+                    }
+                    tableEnd();
+                    tableEnd();
+                });
+            } else if (kind < 89) {
+                command(14, () -> {
+                    writeInt(7);
+                    writeInt(1);
+                });
+            } else if (kind < 92) {
+                command(18, () -> {
+                    writeInt(7);
+                    tableStart();
+                    luaString("TaskName");
+                    luaString("EnhanceTask");
+                    tableEnd();
+                    writeVector();
+                });
+            } else if (kind < 94) {
+                command(7, () -> {
+                    writeByte(1);
+                    writeString("uel0105");
+                    writeVector();
+                });
+            } else if (kind < 96) {
+                command(11, () -> {
+                    writeInt(5);
+                    writeString("a");
+                    writeString("b");
+                });
+            } else if (kind < 98) {
+                command(2, () -> {
+                });
+                command(1, () -> writeByte(1));
+            } else {
+                command(19, () -> {
+                    writeInt(7);
+                    writeInt(3);
+                });
+            }
+        }
+        command(22, () -> {
+            writeString("ModeratorEvent");
+            tableStart();
+            luaString("Message");
+            luaString("GpgNetSend with command 'GameResult' and data '1,victory 10,'");
+            luaString("From");
+            luaNumber(1);
+            tableEnd();
+        });
+        command(23, () -> {
+        });
+    }
+
+    private void writeIssueCommand() {
+        int units = 1 + random.nextInt(5);
+        int orderType = random.nextBoolean() ? 2 : 10;
+        command(random.nextInt(10) == 0 ? 13 : 12, () -> {
+            writeInt(units);
+            for (int j = 0; j < units; j++) {
+                writeInt(1048576 + j);
+            }
+            writeInt(16777220);
+            writeInt(-1);
+            writeByte(orderType);
+            writeInt(-1);
+            int targetType = random.nextInt(3);
+            writeByte(targetType);
+            if (targetType == 1) {
+                writeInt(42);
+            } else if (targetType == 2) {
+                writeVector();
+            }
+            writeByte(0);
+            if (random.nextBoolean()) {
+                writeInt(0);
+                writeFloat(1f);
+                writeVector();
+                writeFloat(1f);
+            } else {
+                writeInt(-1);
+            }
+            writeString(random.nextBoolean() ? "uel0105" : "");
+            for (int j = 0; j < 12; j++) {
+                writeByte(j);
+            }
+            if (random.nextBoolean()) {
+                tableStart();
+                luaString("TaskName");
+                luaString("EnhanceTask");
+                tableEnd();
+            } else {
+                // Nil
+                writeByte(2);
+                writeByte(0);
+            }
+        });
+    }
+
+    /**
+     * Writes a command, whose length includes the type and the length itself.
+     */
+    private void command(int type, Runnable payloadWriter) {
+        byte[] payload = capture(payloadWriter);
+        writeByte(type);
+        writeByte(payload.length + 3);
+        writeByte((payload.length + 3) >> 8);
+        out.writeBytes(payload);
+    }
+
+    /**
+     * Writes a block preceded by its size, like the mods, the scenario and the armies in the header.
+     */
+    private void writeSized(Runnable blockWriter) {
+        byte[] block = capture(blockWriter);
+        writeInt(block.length);
+        out.writeBytes(block);
+    }
+
+    private byte[] capture(Runnable writer) {
+        ByteArrayOutputStream saved = out;
+        out = new ByteArrayOutputStream();
+        writer.run();
+        byte[] captured = out.toByteArray();
+        out = saved;
+        return captured;
+    }
+
+    private void writeVector() {
+        writeFloat(random.nextFloat() * 1000);
+        writeFloat(20f);
+        writeFloat(random.nextFloat() * 1000);
+    }
+
+    private void writeByte(int value) {
+        out.write(value & 0xFF);
+    }
+
+    private void writeInt(int value) {
+        writeByte(value);
+        writeByte(value >> 8);
+        writeByte(value >> 16);
+        writeByte(value >> 24);
+    }
+
+    private void writeFloat(float value) {
+        writeInt(Float.floatToIntBits(value));
+    }
+
+    private void writeString(String value) {
+        out.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        writeByte(0);
+    }
+
+    private void luaNumber(float value) {
+        writeByte(0);
+        writeFloat(value);
+    }
+
+    private void luaString(String value) {
+        writeByte(1);
+        writeString(value);
+    }
+
+    private void luaBoolean(boolean value) {
+        writeByte(3);
+        writeByte(value ? 1 : 0);
+    }
+
+    private void tableStart() {
+        writeByte(4);
+    }
+
+    private void tableEnd() {
+        writeByte(5);
+    }
+}
@@ -0,0 +1,104 @@
+package de.needix.games.faf.replay.analyser;
+
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.function.Function;
+
+import static de.needix.games.faf.replay.analyser.ReplayAnalyser.Base64InputStream.ENCODED_BLOCK_SIZE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Base64InputStreamTest {
+    // Decoded bytes per full block of encoded text without line breaks
+    private static final int DECODED_BLOCK_SIZE = ENCODED_BLOCK_SIZE / 4 * 3;
+
+    @Test
+    void decodesShortInputs() throws IOException {
+        for (int length = 0; length <= 16; length++) {
+            assertDecodesLikeJavaUtil(data(length));
+        }
+    }
+
+    /**
+     * The last quantum, the padding and the line breaks of the MIME encoding fall on every position around the end of
+     * the first and second encoded block: the lengths cover every padding case and the leading line breaks shift the
+     * text by up to a full quantum.
+     */
+    @Test
+    void decodesAcrossBlockBoundaries() throws IOException {
+        for (int blocks = 1; blocks <= 2; blocks++) {
+            for (int length = blocks * DECODED_BLOCK_SIZE - 6; length <= blocks * DECODED_BLOCK_SIZE + 6; length++) {
+                assertDecodesLikeJavaUtil(data(length));
+            }
+        }
+    }
+
+    @Test
+    void decodesLongInputs() throws IOException {
+        assertDecodesLikeJavaUtil(data(10 * DECODED_BLOCK_SIZE + 1));
+    }
+
+    @Test
+    void rejectsIllegalCharacters() {
+        byte[] encoded = "QUJD*EVG".getBytes(StandardCharsets.US_ASCII);
+
+        assertThrows(ReplayParseException.class, () -> new ReplayAnalyser.Base64InputStream(new ByteArrayInputStream(encoded))
+                .readAllBytes());
+    }
+
+    private static void assertDecodesLikeJavaUtil(byte[] data) throws IOException {
+        assertDecodes(data, Base64.getEncoder()::encode);
+        assertDecodes(data, Base64.getEncoder().withoutPadding()::encode);
+        assertDecodes(data, Base64.getMimeEncoder()::encode);
+        assertDecodes(data, Base64.getMimeEncoder(76, "\n".getBytes(StandardCharsets.US_ASCII))::encode);
+    }
+
+    private static void assertDecodes(byte[] data, Function<byte[], byte[]> encoder) throws IOException {
+        byte[] encoded = encoder.apply(data);
+        for (int shift = 0; shift < 4; shift++) {
+            byte[] shifted = new byte[shift + encoded.length];
+            Arrays.fill(shifted, 0, shift, (byte) '\n');
+            System.arraycopy(encoded, 0, shifted, shift, encoded.length);
+            String message = data.length + " bytes shifted by " + shift;
+
+            assertArrayEquals(data, new ReplayAnalyser.Base64InputStream(new ByteArrayInputStream(shifted)).readAllBytes(),
+                    message);
+            assertArrayEquals(data, readSingleBytes(new ReplayAnalyser.Base64InputStream(new ByteArrayInputStream(shifted))),
+                    message);
+            assertArrayEquals(data, readChunks(new ReplayAnalyser.Base64InputStream(new ByteArrayInputStream(shifted)), 1000),
+                    message);
+        }
+    }
+
+    private static byte[] readSingleBytes(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        for (int value = inputStream.read(); value != -1; value = inputStream.read()) {
+            decoded.write(value);
+        }
+        return decoded.toByteArray();
+    }
+
+    private static byte[] readChunks(InputStream inputStream, int chunkSize) throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        byte[] chunk = new byte[chunkSize];
+        for (int read = inputStream.read(chunk, 0, chunkSize); read != -1; read = inputStream.read(chunk, 0, chunkSize)) {
+            decoded.write(chunk, 0, read);
+        }
+        return decoded.toByteArray();
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,90 @@
+package de.needix.games.faf.replay.analyser;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Legacy replays (version 1) are the body zlib compressed and base64 encoded. The synthetic replays are generated from
+ * the same body as their zstd counterparts, so both have to yield the same analysis.
+ */
+class LegacyReplayTest {
+    private static final long REPLAY_ID = 1009;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(ints = {10, 5000, 100000})
+    void legacyReplayIsAnalysedLikeTheCurrentFormat(int commands) throws IOException {
+        File legacyReplay = SyntheticReplays.writeZlibReplay(directory.resolve("legacy.fafreplay"), REPLAY_ID, commands, 2)
+                .toFile();
+        File currentReplay = SyntheticReplays.writeZstdReplay(directory.resolve("current.fafreplay"), REPLAY_ID, commands, 2)
+                .toFile();
+
+        JsonNode legacy = analyse(legacyReplay, ReplayAnalyserOptions.DEFAULT);
+
+        assertEquals(1, legacy.get("replayVersion").asInt());
+        assertEquals("zlib", legacy.get("replayCompression").asText());
+        assertEquals(withoutFormat(analyse(currentReplay, ReplayAnalyserOptions.DEFAULT)), withoutFormat(legacy));
+    }
+
+    @Test
+    void mappedLegacyReplayIsAnalysedLikeTheStreamedOne() throws IOException {
+        File legacyReplay = SyntheticReplays.writeZlibReplay(directory.resolve("legacy.fafreplay"), REPLAY_ID, 20000, 4)
+                .toFile();
+
+        assertEquals(analyse(legacyReplay, ReplayAnalyserOptions.DEFAULT),
+                analyse(legacyReplay, ReplayAnalyserOptions.builder().memoryMapped(true).build()));
+    }
+
+    @Test
+    void legacyReplayIsVerified() throws IOException {
+        Path legacyReplay = SyntheticReplays.writeZlibReplay(directory.resolve("legacy.fafreplay"), REPLAY_ID, 5000, 2);
+
+        ReplayAnalyser.verifyReplayFile(legacyReplay);
+    }
+
+    @Test
+    void truncatedLegacyReplayIsRejected() throws IOException {
+        Path legacyReplay = SyntheticReplays.writeZlibReplay(directory.resolve("legacy.fafreplay"), REPLAY_ID, 5000, 2);
+        byte[] replay = Files.readAllBytes(legacyReplay);
+        Files.write(legacyReplay, Arrays.copyOf(replay, replay.length * 2 / 3));
+
+        assertThrows(IOException.class, () -> ReplayAnalyser.verifyReplayFile(legacyReplay));
+        assertThrows(ReplayParseException.class, () -> analyse(legacyReplay.toFile(), ReplayAnalyserOptions.DEFAULT));
+    }
+
+    private static JsonNode analyse(File replayFile, ReplayAnalyserOptions options) throws IOException {
+        Replay replay = new Replay();
+        new ReplayAnalyser(replayFile, replay, options).analyzeFAFReplay();
+        ObjectNode analysed = OBJECT_MAPPER.valueToTree(replay);
+        // The time of the analysis
+        analysed.remove("importDate");
+        return analysed;
+    }
+
+    private static JsonNode withoutFormat(JsonNode analysed) {
+        ObjectNode copy = analysed.deepCopy();
+        copy.remove("replayVersion");
+        copy.remove("replayCompression");
+        return copy;
+    }
+}
@@ -0,0 +1,87 @@
+package de.needix.games.faf.replay.analyser;
+
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.analyser.parser.CommandLog;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Mapped replays and command logs are released once their analysis is done. The mappings of the JVM are listed in
+ * /proc/self/maps, so this only runs on Linux.
+ */
+class MappedReplayTest {
+    private static final long REPLAY_ID = 1023;
+    private static final Path MAPS = Path.of("/proc/self/maps");
+    private static final ReplayAnalyserOptions OPTIONS = ReplayAnalyserOptions.builder()
+            .memoryMapped(true)
+            .commandLog(true)
+            .build();
+
+    @TempDir
+    Path directory;
+
+    private File replayFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        assumeTrue(Files.isReadable(MAPS));
+        replayFile = SyntheticReplays.writeZstdReplay(directory.resolve("replay-1023.fafreplay"), REPLAY_ID, 5000, 2)
+                .toFile();
+    }
+
+    @Test
+    void analysedReplaysAreUnmapped() throws IOException {
+        new ReplayAnalyser(replayFile, new Replay(), OPTIONS).analyzeFAFReplay();
+
+        assertNotMapped(replayFile);
+    }
+
+    @Test
+    void commandLogsAreUnmapped() throws IOException {
+        new ReplayAnalyser(replayFile, new Replay(), OPTIONS).analyzeFAFReplay();
+        // Analysed from the log
+        new ReplayAnalyser(replayFile, new Replay(), OPTIONS).analyzeFAFReplay();
+
+        assertNotMapped(replayFile);
+        assertNotMapped(CommandLog.getFile(replayFile));
+    }
+
+    @Test
+    void replaysAreUnmappedAfterReadingARange() throws IOException {
+        Replay replay = new Replay();
+        new ReplayAnalyser(replayFile, replay, ReplayAnalyserOptions.DEFAULT).analyzeFAFReplay();
+
+        new ReplayAnalyser(replayFile, new Replay(), OPTIONS).readCommands(replay.getSeekPoints(), 100, 200);
+
+        assertNotMapped(replayFile);
+    }
+
+    @Test
+    void replaysAreUnmappedWhenTheirAnalysisFails() throws IOException {
+        byte[] replay = Files.readAllBytes(replayFile.toPath());
+        Files.write(replayFile.toPath(), Arrays.copyOf(replay, replay.length * 2 / 3));
+
+        assertThrows(ReplayParseException.class,
+                () -> new ReplayAnalyser(replayFile, new Replay(), OPTIONS).analyzeFAFReplay());
+
+        assertNotMapped(replayFile);
+    }
+
+    private static void assertNotMapped(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        assertFalse(Files.readAllLines(MAPS).stream().anyMatch(mapping -> mapping.endsWith(path)), path + " is mapped");
+    }
+}
@@ -0,0 +1,181 @@
+package de.needix.games.faf.replay.analyser.eventanalyser;
+
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.analyser.parser.Command;
+import de.needix.games.faf.replay.analyser.parser.CommandData;
+import de.needix.games.faf.replay.analyser.parser.CommandParser.CommandOrderType;
+import de.needix.games.faf.replay.analyser.parser.CommandType;
+import de.needix.games.faf.replay.analyser.parser.ReplayParser;
+import de.needix.games.faf.replay.analyser.parser.ReplayParserOptions;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import de.needix.games.faf.replay.api.entities.replay.ReplayPlayer;
+import de.needix.games.faf.replay.api.entities.replay.ReplayPlayerApm;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ApmAnalyserTest {
+    private Replay replay;
+    private ApmAnalyser analyser;
+
+    @BeforeEach
+    void setUp() {
+        replay = new Replay();
+        replay.getPlayers().add(new ReplayPlayer());
+        replay.getPlayers().add(new ReplayPlayer());
+        analyser = new ApmAnalyser(replay);
+    }
+
+    @Test
+    void actionsAreCountedPerGameMinuteOfTheirCommandSource() {
+        for (int tick : new int[]{0, 100, 599, 600, 1250}) {
+            analyser.analyseCommand(action(tick, 1));
+        }
+        analyser.analyseCommand(action(700, 0));
+        // No actions
+        analyser.analyseCommand(new Command(800, false, CommandType.VERIFY_CHECKSUM, 0, null));
+        analyser.analyseCommand(new Command(900, false, CommandType.SET_COMMAND_SOURCE, 1, null));
+        analyser.analyseCommand(new Command(1000, false, CommandType.LUA_SIM_CALLBACK, -1, null));
+        analyser.analyseCommand(advance(1300));
+
+        analyser.finalizeAnalysis();
+
+        assertEquals(List.of(0.0, 1.0, 0.0), apm(player(0)));
+        assertEquals(List.of(3.0, 1.0, 1.0), apm(player(1)));
+        assertEquals(List.of(0, 1, 2), player(1).getApmPerMinute().stream().map(ReplayPlayerApm::getMinute).toList());
+    }
+
+    @Test
+    void playersWithoutActionsGetEmptyMinutes() {
+        analyser.analyseCommand(action(10, 0));
+        analyser.analyseCommand(advance(1900));
+
+        analyser.finalizeAnalysis();
+
+        assertEquals(List.of(0.0, 0.0, 0.0, 0.0), apm(player(1)));
+        assertEquals(0, player(1).getPeakApm());
+    }
+
+    @Test
+    void repeatedOrdersWithinASecondAreSpam() {
+        CommandData.IssueCommand move = issue(CommandOrderType.UNITCOMMAND_Move, 1, 2);
+        analyser.analyseCommand(issue(100, move));
+        // Spam, also when chained
+        analyser.analyseCommand(issue(105, move));
+        analyser.analyseCommand(issue(115, move));
+        // Not within a second of the previous one
+        analyser.analyseCommand(issue(126, move));
+        // Other orders and units are no spam
+        analyser.analyseCommand(issue(127, issue(CommandOrderType.UNITCOMMAND_Stop, 1, 2)));
+        analyser.analyseCommand(issue(128, issue(CommandOrderType.UNITCOMMAND_Stop, 1, 3)));
+        // Other actions are no spam and do not interrupt repeated orders
+        analyser.analyseCommand(action(129, 0));
+        analyser.analyseCommand(issue(130, issue(CommandOrderType.UNITCOMMAND_Stop, 1, 3)));
+
+        analyser.finalizeAnalysis();
+
+        ReplayPlayerApm minute = player(0).getApmPerMinute().get(0);
+        assertEquals(8, minute.getApm());
+        assertEquals(5, minute.getEffectiveApm());
+    }
+
+    /**
+     * The window covers the last six steps of ten seconds and is recorded whenever a step ends.
+     */
+    @Test
+    void rollingWindowYieldsPeakAndHistogram() {
+        for (int i = 0; i < 30; i++) {
+            analyser.analyseCommand(action(i, 0));
+        }
+        for (int i = 0; i < 50; i++) {
+            analyser.analyseCommand(action(300 + i, 0));
+        }
+        analyser.analyseCommand(advance(999));
+
+        analyser.finalizeAnalysis();
+
+        // Windows ending with the steps 0 to 9: 30, 30, 30, 80, 80, 80, 50, 50, 50, 0
+        assertEquals(80, player(0).getPeakApm());
+        assertEquals(List.of(1, 0, 0, 3, 0, 3, 0, 0, 3), player(0).getApmHistogram().get("counts"));
+        assertEquals(ApmAnalyser.WINDOW_STEP_SECONDS, player(0).getApmHistogram().get("windowStepSeconds"));
+        assertEquals(ApmAnalyser.HISTOGRAM_BUCKET_WIDTH, player(0).getApmHistogram().get("bucketWidth"));
+        // The player without actions only had empty windows
+        assertEquals(List.of(10), player(1).getApmHistogram().get("counts"));
+    }
+
+    @Test
+    void peakCoversWindowsAcrossMinutes() {
+        // 40 actions at the end of the first minute and 40 at the start of the second one are within one window
+        for (int i = 0; i < 40; i++) {
+            analyser.analyseCommand(action(560 + i, 0));
+        }
+        for (int i = 0; i < 40; i++) {
+            analyser.analyseCommand(action(600 + i, 0));
+        }
+
+        analyser.finalizeAnalysis();
+
+        assertEquals(List.of(40.0, 40.0), apm(player(0)));
+        assertEquals(80, player(0).getPeakApm());
+    }
+
+    /**
+     * The results are complete once the commands end, the game end command itself is only one more action.
+     */
+    @Test
+    void replaysWithoutEndGameAreAnalysed() {
+        byte[] body = SyntheticReplays.body(1014, 20000, 2);
+        // The generated body ends with the game end command of three bytes
+        assertEquals(CommandType.END_GAME.ordinal(), body[body.length - 3]);
+        Replay complete = new Replay();
+        new ReplayParser(body, complete, ReplayParserOptions.DEFAULT);
+        Replay withoutEndGame = new Replay();
+        new ReplayParser(Arrays.copyOf(body, body.length - 3), withoutEndGame, ReplayParserOptions.DEFAULT);
+
+        double completeActions = 0;
+        double actionsWithoutEndGame = 0;
+        for (int player = 0; player < 2; player++) {
+            List<ReplayPlayerApm> minutes = withoutEndGame.getPlayers().get(player).getApmPerMinute();
+            assertFalse(minutes.isEmpty());
+            assertEquals(complete.getPlayers().get(player).getApmPerMinute().size(), minutes.size());
+            assertEquals(complete.getPlayers().get(player).getPeakApm(), withoutEndGame.getPlayers().get(player).getPeakApm(), 1);
+            completeActions += sum(complete.getPlayers().get(player).getApmPerMinute());
+            actionsWithoutEndGame += sum(minutes);
+        }
+        assertEquals(completeActions - 1, actionsWithoutEndGame);
+    }
+
+    private ReplayPlayer player(int index) {
+        return replay.getPlayers().get(index);
+    }
+
+    private static List<Double> apm(ReplayPlayer player) {
+        return player.getApmPerMinute().stream().map(ReplayPlayerApm::getApm).toList();
+    }
+
+    private static double sum(List<ReplayPlayerApm> minutes) {
+        return minutes.stream().mapToDouble(ReplayPlayerApm::getApm).sum();
+    }
+
+    private static Command action(int tick, int playerId) {
+        return new Command(tick, false, CommandType.LUA_SIM_CALLBACK, playerId, null);
+    }
+
+    private static Command advance(int tick) {
+        return new Command(tick, false, CommandType.ADVANCE, -1, new CommandData.AdvanceCommand(1));
+    }
+
+    private static Command issue(int tick, CommandData.IssueCommand issue) {
+        return new Command(tick, false, CommandType.ISSUE_COMMAND, 0, issue);
+    }
+
+    private static CommandData.IssueCommand issue(CommandOrderType orderType, int... unitIds) {
+        return new CommandData.IssueCommand(false, unitIds, 1, -1, orderType, -1, CommandData.Target.NONE, false,
+                null, "", new byte[12], null);
+    }
+}
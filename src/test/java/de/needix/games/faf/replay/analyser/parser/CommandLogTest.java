@@ -0,0 +1,181 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.analyser.ReplayAnalyser;
+import de.needix.games.faf.replay.analyser.ReplayAnalyserOptions;
+import de.needix.games.faf.replay.analyser.eventanalyser.CommandAnalyser;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandLogTest {
+    private static final long REPLAY_ID = 1001;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    private File replayFile;
+    private File logFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        replayFile = SyntheticReplays.writeZstdReplay(directory.resolve("replay-1001.fafreplay"), REPLAY_ID, 5000, 4)
+                .toFile();
+        logFile = CommandLog.getFile(replayFile);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void logReturnsTheCommandsOfTheReplay(boolean mapped) throws IOException {
+        List<JsonNode> parsedCommands = streamCommands(mapped);
+        assertTrue(logFile.isFile());
+        assertNotNull(CommandLogReader.open(replayFile, REPLAY_ID, mapped));
+
+        List<JsonNode> loggedCommands = streamCommands(mapped);
+
+        assertFalse(parsedCommands.isEmpty());
+        assertEquals(parsedCommands, loggedCommands);
+    }
+
+    @Test
+    void logReturnsTheLuaTablesOfTheReplay() throws IOException {
+        List<JsonNode> parsedCommands = streamCommands(false);
+        List<JsonNode> loggedCommands = streamCommands(false);
+
+        List<JsonNode> parsedTables = luaTables(parsedCommands);
+        assertFalse(parsedTables.isEmpty());
+        assertEquals(parsedTables, luaTables(loggedCommands));
+    }
+
+    @Test
+    void legacyReplayRoundTrips() throws IOException {
+        replayFile = SyntheticReplays.writeZlibReplay(directory.resolve("replay-1009.fafreplay"), 1009, 2000, 2).toFile();
+        List<JsonNode> parsedCommands = streamCommands(false);
+        assertNotNull(CommandLogReader.open(replayFile, 1009, false));
+
+        assertEquals(parsedCommands, streamCommands(false));
+    }
+
+    @Test
+    void staleLogIsIgnored() throws IOException {
+        streamCommands(false);
+
+        assertTrue(replayFile.setLastModified(replayFile.lastModified() + 2000));
+
+        assertNull(CommandLogReader.open(replayFile, REPLAY_ID, false));
+    }
+
+    @Test
+    void logOfAnotherReplayIsIgnored() throws IOException {
+        streamCommands(false);
+
+        assertNull(CommandLogReader.open(replayFile, REPLAY_ID + 1, false));
+    }
+
+    @Test
+    void logWithUnknownFormatIsIgnored() throws IOException {
+        streamCommands(false);
+        byte[] log = Files.readAllBytes(logFile.toPath());
+        log[0] ^= 0x01;
+        writeLog(log);
+
+        assertNull(CommandLogReader.open(replayFile, REPLAY_ID, false));
+    }
+
+    @Test
+    void truncatedLogIsIgnored() throws IOException {
+        streamCommands(false);
+        byte[] log = Files.readAllBytes(logFile.toPath());
+        writeLog(Arrays.copyOf(log, log.length / 2));
+
+        assertNull(CommandLogReader.open(replayFile, REPLAY_ID, false));
+        assertNull(CommandLogReader.open(replayFile, REPLAY_ID, true));
+    }
+
+    @Test
+    void logWithDataBehindTheEndIsIgnored() throws IOException {
+        streamCommands(false);
+        byte[] log = Files.readAllBytes(logFile.toPath());
+        writeLog(Arrays.copyOf(log, log.length + 16));
+
+        assertNull(CommandLogReader.open(replayFile, REPLAY_ID, false));
+    }
+
+    @Test
+    void garbledLogIsIgnoredAndRewritten() throws IOException {
+        List<JsonNode> parsedCommands = streamCommands(false);
+        byte[] log = Files.readAllBytes(logFile.toPath());
+        // The length of the binary replay header
+        Arrays.fill(log, CommandLog.FILE_HEADER_SIZE, CommandLog.FILE_HEADER_SIZE + 4, (byte) 0xFF);
+        writeLog(log);
+
+        assertNull(CommandLogReader.open(replayFile, REPLAY_ID, false));
+        assertEquals(parsedCommands, streamCommands(false));
+        assertNotNull(CommandLogReader.open(replayFile, REPLAY_ID, false));
+    }
+
+    private void writeLog(byte[] log) throws IOException {
+        Files.write(logFile.toPath(), log);
+    }
+
+    private List<JsonNode> streamCommands(boolean mapped) throws IOException {
+        ReplayAnalyserOptions options = ReplayAnalyserOptions.builder()
+                .commandLog(true)
+                .memoryMapped(mapped)
+                .build();
+        CommandCollector collector = new CommandCollector();
+        new ReplayAnalyser(replayFile, new Replay(), options).streamCommands(collector);
+        return collector.commands;
+    }
+
+    private static List<JsonNode> luaTables(List<JsonNode> commands) {
+        List<JsonNode> tables = new ArrayList<>();
+        for (JsonNode command : commands) {
+            if (command.get("type").asText().equals(CommandType.LUA_SIM_CALLBACK.name())) {
+                tables.add(command.get("data"));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Converts every command right away, so lazily decoded payloads are compared by their content.
+     */
+    private static class CommandCollector implements CommandAnalyser {
+        private final List<JsonNode> commands = new ArrayList<>();
+
+        @Override
+        public void analyseCommand(Command command) {
+            commands.add(OBJECT_MAPPER.createObjectNode()
+                    .put("tick", command.getTick())
+                    .put("playerId", command.getPlayerId())
+                    .put("type", command.getCommandType().name())
+                    .put("desync", command.isDesyncCommand())
+                    .set("data", OBJECT_MAPPER.valueToTree(command.getCommandData())));
+        }
+
+        @Override
+        public void finalizeAnalysis() {
+        }
+    }
+}
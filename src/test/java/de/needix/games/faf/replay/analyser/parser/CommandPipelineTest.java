@@ -0,0 +1,183 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.analyser.ReplayAnalyser;
+import de.needix.games.faf.replay.analyser.ReplayAnalyserOptions;
+import de.needix.games.faf.replay.analyser.eventanalyser.CommandAnalyser;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandPipelineTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void pipelinedAnalysisEqualsSynchronousAnalysis() throws IOException {
+        File replayFile = SyntheticReplays.writeZstdReplay(directory.resolve("replay-1002.fafreplay"), 1002, 20000, 4)
+                .toFile();
+
+        JsonNode synchronous = analyse(replayFile, false);
+        JsonNode pipelined = analyse(replayFile, true);
+
+        assertEquals(synchronous, pipelined);
+    }
+
+    @Test
+    void pipelinedStreamEqualsSynchronousStream() throws IOException {
+        File replayFile = SyntheticReplays.writeZstdReplay(directory.resolve("replay-1002.fafreplay"), 1002, 20000, 4)
+                .toFile();
+
+        List<JsonNode> synchronous = streamCommands(replayFile, false);
+        List<JsonNode> pipelined = streamCommands(replayFile, true);
+
+        assertTrue(synchronous.size() > CommandPipeline.RING_SIZE);
+        assertEquals(synchronous, pipelined);
+    }
+
+    @Test
+    void everyAnalyserOnlyGetsItsSubscribedCommands() {
+        RecordingAnalyser advances = new RecordingAnalyser(EnumSet.of(CommandType.ADVANCE));
+        RecordingAnalyser all = new RecordingAnalyser(EnumSet.allOf(CommandType.class));
+        List<Command> commands = commands(3 * CommandPipeline.RING_SIZE);
+
+        try (CommandPipeline pipeline = new CommandPipeline(List.of(advances, all))) {
+            commands.forEach(pipeline::publish);
+            pipeline.finish();
+        }
+
+        assertEquals(commands, all.commands);
+        assertEquals(commands.stream().filter(command -> command.getCommandType() == CommandType.ADVANCE).toList(),
+                advances.commands);
+    }
+
+    @Test
+    void failingAnalyserIsRethrownFromFinish() {
+        IllegalStateException failure = new IllegalStateException("analyser failed");
+        CommandAnalyser failing = new RecordingAnalyser(EnumSet.allOf(CommandType.class)) {
+            @Override
+            public void analyseCommand(Command command) {
+                throw failure;
+            }
+        };
+        RecordingAnalyser healthy = new RecordingAnalyser(EnumSet.allOf(CommandType.class));
+        List<Command> commands = commands(3 * CommandPipeline.RING_SIZE);
+
+        CommandPipeline pipeline = new CommandPipeline(List.of(failing, healthy));
+        // The failed analyser must not hold back the producer
+        commands.forEach(pipeline::publish);
+
+        assertSame(failure, assertThrows(IllegalStateException.class, pipeline::finish));
+        pipeline.close();
+        assertEquals(commands, healthy.commands);
+        assertNoAnalyserRunning();
+    }
+
+    @Test
+    void closeStopsTheAnalysersOfAnUnfinishedPipeline() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CommandAnalyser slow = new RecordingAnalyser(EnumSet.allOf(CommandType.class)) {
+            @Override
+            public void analyseCommand(Command command) {
+                started.countDown();
+                super.analyseCommand(command);
+            }
+        };
+
+        CommandPipeline pipeline = new CommandPipeline(List.of(slow));
+        commands(CommandPipeline.RING_SIZE).forEach(pipeline::publish);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        // As if parsing failed
+        pipeline.close();
+
+        assertNoAnalyserRunning();
+    }
+
+    private static void assertNoAnalyserRunning() {
+        for (StackTraceElement[] stackTrace : Thread.getAllStackTraces().values()) {
+            assertFalse(Arrays.stream(stackTrace)
+                            .anyMatch(element -> element.getClassName().startsWith(CommandPipeline.class.getName() + "$")),
+                    () -> "Analyser still running: " + Arrays.toString(stackTrace));
+        }
+    }
+
+    private static List<Command> commands(int count) {
+        List<Command> commands = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            commands.add(i % 3 == 0
+                    ? new Command(i, false, CommandType.ADVANCE, -1, new CommandData.AdvanceCommand(1))
+                    : new Command(i, false, CommandType.SET_COMMAND_SOURCE, i % 4, new CommandData.SetCommandSourceCommand(i % 4)));
+        }
+        return commands;
+    }
+
+    private static JsonNode analyse(File replayFile, boolean pipelined) throws IOException {
+        Replay replay = new Replay();
+        new ReplayAnalyser(replayFile, replay, ReplayAnalyserOptions.builder().pipelined(pipelined).build())
+                .analyzeFAFReplay();
+        ObjectNode analysed = OBJECT_MAPPER.valueToTree(replay);
+        // The time of the analysis
+        analysed.remove("importDate");
+        return analysed;
+    }
+
+    private static List<JsonNode> streamCommands(File replayFile, boolean pipelined) throws IOException {
+        List<JsonNode> commands = new ArrayList<>();
+        new ReplayAnalyser(replayFile, new Replay(), ReplayAnalyserOptions.builder().pipelined(pipelined).build())
+                .streamCommands(new RecordingAnalyser(EnumSet.allOf(CommandType.class)) {
+                    @Override
+                    public void analyseCommand(Command command) {
+                        commands.add(OBJECT_MAPPER.createObjectNode()
+                                .put("tick", command.getTick())
+                                .put("playerId", command.getPlayerId())
+                                .set("data", OBJECT_MAPPER.valueToTree(command.getCommandData())));
+                    }
+                });
+        return commands;
+    }
+
+    private static class RecordingAnalyser implements CommandAnalyser {
+        private final Set<CommandType> subscribedCommandTypes;
+        private final List<Command> commands = new ArrayList<>();
+
+        private RecordingAnalyser(Set<CommandType> subscribedCommandTypes) {
+            this.subscribedCommandTypes = subscribedCommandTypes;
+        }
+
+        @Override
+        public void analyseCommand(Command command) {
+            commands.add(command);
+        }
+
+        @Override
+        public void finalizeAnalysis() {
+        }
+
+        @Override
+        public Set<CommandType> getSubscribedCommandTypes() {
+            return subscribedCommandTypes;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Every player reports a checksum of the simulation for the same ticks. The replay desynced where two consecutive
+ * reports of a tick differ.
+ */
+class DesyncDetectionTest {
+    @Test
+    void equalChecksumsAreNoDesync() {
+        Replay replay = parse(2, commands -> {
+            for (int tick = 50; tick <= 500; tick += 50) {
+                commands.advance(50);
+                reportChecksums(commands, tick, 7, 7);
+            }
+        });
+
+        assertFalse(replay.isDesynced());
+        assertEquals(0, replay.getDesyncCount());
+        assertTrue(replay.getDesyncTicks().isEmpty());
+    }
+
+    @Test
+    void differingChecksumsOfATickAreADesync() {
+        byte[] body = SyntheticReplays.body(2, commands -> {
+            commands.advance(50);
+            reportChecksums(commands, 50, 7, 7);
+            commands.advance(50);
+            reportChecksums(commands, 100, 7, 8);
+            commands.endGame();
+        });
+        Replay replay = new Replay();
+        new ReplayParser(body, replay, ReplayParserOptions.DEFAULT);
+
+        assertTrue(replay.isDesynced());
+        assertEquals(1, replay.getDesyncCount());
+        assertEquals(List.of(100), replay.getDesyncTicks());
+
+        List<Command> checksums = ReplayParser.parseRange(Channels.newChannel(new ByteArrayInputStream(body)), new Replay(),
+                        null, 0, Integer.MAX_VALUE).stream()
+                .filter(command -> command.getCommandType() == CommandType.VERIFY_CHECKSUM)
+                .toList();
+        // Only the report which differs from the previous one is marked
+        assertEquals(List.of(false, false, false, true), checksums.stream().map(Command::isDesyncCommand).toList());
+    }
+
+    @Test
+    void everyTickIsCountedOnce() {
+        Replay replay = parse(3, commands -> {
+            commands.advance(50);
+            // Both later reports differ from the one before them
+            reportChecksums(commands, 50, 7, 8, 7);
+        });
+
+        assertEquals(1, replay.getDesyncCount());
+        assertEquals(List.of(50), replay.getDesyncTicks());
+    }
+
+    @Test
+    void checksumsOfDifferentTicksAreNotCompared() {
+        Replay replay = parse(2, commands -> {
+            commands.advance(50);
+            commands.setCommandSource(0);
+            commands.verifyChecksum(7, 50);
+            commands.advance(1);
+            commands.setCommandSource(1);
+            commands.verifyChecksum(8, 51);
+        });
+
+        assertFalse(replay.isDesynced());
+    }
+
+    @Test
+    void onlyTheFirstDesyncTicksAreKept() {
+        int desyncs = ReplayBody.MAX_RECORDED_DESYNC_TICKS + 50;
+        Replay replay = parse(2, commands -> {
+            for (int tick = 1; tick <= desyncs; tick++) {
+                commands.advance(1);
+                reportChecksums(commands, tick, tick, tick + 1);
+            }
+        });
+
+        assertEquals(desyncs, replay.getDesyncCount());
+        assertEquals(IntStream.rangeClosed(1, ReplayBody.MAX_RECORDED_DESYNC_TICKS).boxed().toList(), replay.getDesyncTicks());
+    }
+
+    @Test
+    void generatedReplayDesyncsOnce() {
+        Replay replay = new Replay();
+        new ReplayParser(SyntheticReplays.body(1015, 20000, 4), replay, ReplayParserOptions.DEFAULT);
+
+        assertTrue(replay.isDesynced());
+        assertEquals(1, replay.getDesyncCount());
+    }
+
+    private static Replay parse(int players, Consumer<SyntheticReplays> commandWriter) {
+        Replay replay = new Replay();
+        new ReplayParser(SyntheticReplays.body(players, commandWriter), replay, ReplayParserOptions.DEFAULT);
+        return replay;
+    }
+
+    /**
+     * Reports one checksum per player, in the order of the players.
+     */
+    private static void reportChecksums(SyntheticReplays commands, int tick, int... checksums) {
+        for (int player = 0; player < checksums.length; player++) {
+            commands.setCommandSource(player);
+            commands.verifyChecksum(checksums[player], tick);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LuaTableTest {
+    @Test
+    void consecutiveNumberKeysAreStoredAsNumberArray() {
+        LuaTable table = new LuaTable();
+        for (int i = 1; i <= 10; i++) {
+            table.put(i, i * 1.5f);
+        }
+
+        assertEquals(10, table.arraySize());
+        assertTrue(table.isNumberArray());
+        assertEquals(10, table.size());
+        assertEquals(4.5f, table.getNumber(3));
+        assertEquals(4.5f, table.get(3f));
+        assertEquals(4.5f, table.getNumber(3f, -1));
+    }
+
+    @Test
+    void otherValuesTurnTheArrayIntoAnObjectArray() {
+        LuaTable table = new LuaTable();
+        table.put(1f, 1f);
+        table.put(2f, 2f);
+
+        assertEquals(2f, table.put(2f, "two"));
+
+        assertFalse(table.isNumberArray());
+        assertEquals(2, table.arraySize());
+        assertEquals(1f, table.getNumber(1));
+        assertEquals("two", table.getArrayValue(2));
+        assertThrows(ClassCastException.class, () -> table.getNumber(2));
+        table.put(3f, 3f);
+        assertEquals(3f, table.getNumber(3));
+    }
+
+    @Test
+    void otherKeysAreStoredInTheHashPart() {
+        LuaTable table = new LuaTable();
+        table.put("Name", "uel0101");
+        table.put(2f, 2f);
+        table.put(1.5f, "fraction");
+        table.put(0f, "zero");
+        // Integer keys are not Lua numbers
+        table.put(1, "integer");
+
+        assertEquals(0, table.arraySize());
+        assertEquals(5, table.size());
+        assertEquals("uel0101", table.getString("Name"));
+        assertEquals(2f, table.getNumber(2f, -1));
+        assertEquals("integer", table.get(1));
+        assertNull(table.get(1f));
+        assertEquals(-1, table.getNumber("Name", -1));
+        assertEquals(-1, table.getNumber("Missing", -1));
+    }
+
+    @Test
+    void keysBehindAHashedKeyStayInTheHashPart() {
+        LuaTable table = new LuaTable();
+        table.put(2f, "two");
+        table.put(1f, "one");
+        table.put(2f, "second two");
+
+        assertEquals(1, table.arraySize());
+        assertEquals("second two", table.get(2f));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    void removingFromTheArrayMovesTheFollowingKeysToTheHashPart() {
+        LuaTable table = numbers(5);
+
+        assertEquals(2f, table.remove(2f));
+
+        assertEquals(1, table.arraySize());
+        assertEquals(4, table.size());
+        assertFalse(table.containsKey(2f));
+        assertEquals(Map.of(1f, 1f, 3f, 3f, 4f, 4f, 5f, 5f), table);
+        assertEquals(5f, table.getNumber(5f, -1));
+        assertThrows(IndexOutOfBoundsException.class, () -> table.getNumber(3));
+    }
+
+    @Test
+    void removedKeyCanBeAddedToTheArrayAgain() {
+        LuaTable table = numbers(4);
+        table.remove(2f);
+
+        table.put(2f, 20f);
+        // Key 3 was moved to the hash part and stays there
+        table.put(3f, 30f);
+
+        assertEquals(2, table.arraySize());
+        assertTrue(table.isNumberArray());
+        assertEquals(Map.of(1f, 1f, 2f, 20f, 3f, 30f, 4f, 4f), table);
+    }
+
+    @Test
+    void removingTheLastArrayKeyKeepsTheOthersInTheArray() {
+        LuaTable table = numbers(3);
+        table.put(2f, "two");
+
+        assertEquals(3f, table.remove(3f));
+
+        assertEquals(2, table.arraySize());
+        assertEquals(Map.of(1f, 1f, 2f, "two"), table);
+        table.put(3f, "three");
+        assertEquals(3, table.arraySize());
+    }
+
+    @Test
+    void removingHashKeysKeepsTheArray() {
+        LuaTable table = numbers(2);
+        table.put("Name", "uel0101");
+
+        assertEquals("uel0101", table.remove("Name"));
+        assertNull(table.remove("Name"));
+        assertNull(table.remove(7f));
+
+        assertEquals(2, table.arraySize());
+        assertEquals(Map.of(1f, 1f, 2f, 2f), table);
+    }
+
+    @Test
+    void iterationVisitsTheArrayInOrderThenTheHashPart() {
+        LuaTable table = numbers(3);
+        table.put("Name", "uel0101");
+
+        List<Object> keys = List.copyOf(table.keySet());
+
+        assertEquals(List.of(1f, 2f, 3f, "Name"), keys);
+        assertEquals(List.of(1f, 2f, 3f, "uel0101"), List.copyOf(table.values()));
+    }
+
+    @Test
+    void entriesWriteThrough() {
+        LuaTable table = numbers(2);
+        table.put("Name", "uel0101");
+
+        for (Map.Entry<Object, Object> entry : table.entrySet()) {
+            entry.setValue(entry.getKey() + "!");
+        }
+
+        assertEquals(Map.of(1f, "1.0!", 2f, "2.0!", "Name", "Name!"), table);
+        assertEquals(2, table.arraySize());
+    }
+
+    @Test
+    void clearRemovesBothParts() {
+        LuaTable table = numbers(3);
+        table.put("Name", "uel0101");
+
+        table.clear();
+
+        assertTrue(table.isEmpty());
+        assertEquals(0, table.arraySize());
+        table.put(1f, "one");
+        assertEquals(Map.of(1f, "one"), table);
+    }
+
+    /**
+     * Whatever is array and what is hash part, the table behaves like a map.
+     */
+    @Test
+    void behavesLikeAHashMap() {
+        Object[] keys = {1f, 2f, 3f, 4f, 5f, 6f, 1.5f, 0f, "Name", "Type"};
+        Object[] values = {1f, 2.5f, "string", true, new LuaTable()};
+        Random random = new Random(1009);
+        LuaTable table = new LuaTable();
+        Map<Object, Object> expected = new HashMap<>();
+
+        for (int operation = 0; operation < 20000; operation++) {
+            Object key = keys[random.nextInt(keys.length)];
+            switch (random.nextInt(4)) {
+                case 0, 1 -> {
+                    Object value = values[random.nextInt(values.length)];
+                    assertEquals(expected.put(key, value), table.put(key, value));
+                }
+                case 2 -> {
+                    if (key instanceof Float number) {
+                        table.put(number.floatValue(), operation);
+                        expected.put(key, (float) operation);
+                    }
+                }
+                default -> assertEquals(expected.remove(key), table.remove(key));
+            }
+            assertEquals(expected, table);
+            assertEquals(expected.hashCode(), table.hashCode());
+            for (Object lookup : keys) {
+                assertEquals(expected.containsKey(lookup), table.containsKey(lookup));
+            }
+            if (random.nextInt(100) == 0) {
+                table.clear();
+                expected.clear();
+            }
+        }
+    }
+
+    private static LuaTable numbers(int count) {
+        LuaTable table = new LuaTable();
+        for (int i = 1; i <= count; i++) {
+            table.put(i, i);
+        }
+        return table;
+    }
+}
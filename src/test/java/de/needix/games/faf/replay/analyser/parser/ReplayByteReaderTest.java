@@ -0,0 +1,91 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.analyser.parser.ReplayByteReader.DataType;
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReplayByteReaderTest {
+    @Test
+    void tablesUpToTheDepthLimitAreRead() {
+        ReplayByteReader reader = new ReplayByteReader(nestedTables(ReplayByteReader.MAX_LUA_DEPTH));
+
+        Object lua = reader.readLua(null);
+        for (int depth = 1; depth < ReplayByteReader.MAX_LUA_DEPTH; depth++) {
+            lua = ((LuaTable) lua).get("t");
+        }
+
+        assertInstanceOf(LuaTable.class, lua);
+        assertFalse(reader.hasRemaining(1));
+    }
+
+    @Test
+    void tablesUpToTheDepthLimitAreSkipped() {
+        ReplayByteReader reader = new ReplayByteReader(nestedTables(ReplayByteReader.MAX_LUA_DEPTH));
+
+        reader.skipLua(null);
+
+        assertFalse(reader.hasRemaining(1));
+    }
+
+    @Test
+    void deeperTablesAreRejected() {
+        byte[] data = nestedTables(ReplayByteReader.MAX_LUA_DEPTH + 1);
+
+        assertThrows(ReplayParseException.class, () -> new ReplayByteReader(data).readLua(null));
+        assertThrows(ReplayParseException.class, () -> new ReplayByteReader(data).skipLua(null));
+    }
+
+    /**
+     * A command payload of table type bytes only, each one the key of the previous table. Without a limit, reading it
+     * overflows the stack.
+     */
+    @Test
+    void tableTypeBytesDoNotOverflowTheStack() {
+        byte[] data = new byte[64 * 1024];
+        Arrays.fill(data, (byte) DataType.TABLE);
+
+        assertThrows(ReplayParseException.class, () -> new ReplayByteReader(data).readLua(null));
+        assertThrows(ReplayParseException.class, () -> new ReplayByteReader(data).skipLua(null));
+    }
+
+    @Test
+    void siblingTablesDoNotAddUpTheirDepth() {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(DataType.TABLE);
+        for (int i = 1; i <= 3; i++) {
+            data.write(DataType.STRING);
+            data.writeBytes(("t" + i + "\0").getBytes());
+            data.writeBytes(nestedTables(ReplayByteReader.MAX_LUA_DEPTH - 1));
+        }
+        data.write(DataType.END);
+
+        LuaTable table = (LuaTable) new ReplayByteReader(data.toByteArray()).readLua(null);
+
+        assertEquals(3, table.size());
+    }
+
+    /**
+     * @return tables nested to the given depth, each one holding the next one under the key "t"
+     */
+    private static byte[] nestedTables(int depth) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 1; i < depth; i++) {
+            data.write(DataType.TABLE);
+            data.write(DataType.STRING);
+            data.writeBytes("t\0".getBytes());
+        }
+        data.write(DataType.TABLE);
+        for (int i = 0; i < depth; i++) {
+            data.write(DataType.END);
+        }
+        return data.toByteArray();
+    }
+}
@@ -0,0 +1,130 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import de.needix.games.faf.replay.api.entities.replay.ReplaySeekPoint;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReplayRangeTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final byte[] body = SyntheticReplays.body(1019, 20000, 4);
+
+    @Test
+    void rangeFromASeekPointMatchesTheRangeFromTheStart() {
+        ReplaySeekPoint seekPoint = middleSeekPoint();
+        int fromTick = seekPoint.getTick() + 1;
+        int toTick = fromTick + 600;
+
+        List<Command> fromStart = ReplayParser.parseRange(channel(body), new Replay(), null, fromTick, toTick);
+        List<Command> fromSeekPoint = ReplayParser.parseRange(channel(body), new Replay(), seekPoint, fromTick, toTick);
+
+        assertFalse(fromStart.isEmpty());
+        assertEquals(json(fromStart), json(fromSeekPoint));
+    }
+
+    /**
+     * Seek points of long replays lie further into the data than a single block of a command may be long.
+     */
+    @Test
+    void seekPointsBeyondTheBlockSizeLimitAreReached() {
+        ReplaySeekPoint seekPoint = middleSeekPoint();
+        long gap = ReplayByteReader.MAX_BLOCK_SIZE + 1000L;
+        // The commands before the seek point are skipped without being looked at, so they can be anything
+        ReadableByteChannel paddedBody = new PaddedChannel(body, (int) seekPoint.getOffset(), gap);
+        ReplaySeekPoint movedSeekPoint = new ReplaySeekPoint(seekPoint.getTick(), seekPoint.getOffset() + gap,
+                seekPoint.getPlayerId());
+        int fromTick = seekPoint.getTick() + 1;
+        int toTick = fromTick + 600;
+
+        List<Command> expected = ReplayParser.parseRange(channel(body), new Replay(), seekPoint, fromTick, toTick);
+        List<Command> actual = ReplayParser.parseRange(paddedBody, new Replay(), movedSeekPoint, fromTick, toTick);
+
+        assertFalse(expected.isEmpty());
+        assertEquals(json(expected), json(actual));
+    }
+
+    @Test
+    void skippingBackwardsIsRejected() {
+        ReplayByteReader reader = new ReplayByteReader(body);
+        reader.skip(100);
+
+        assertThrows(IllegalArgumentException.class, () -> reader.skipTo(99));
+    }
+
+    private ReplaySeekPoint middleSeekPoint() {
+        Replay replay = new Replay();
+        new ReplayParser(body, replay, ReplayParserOptions.DEFAULT);
+        List<ReplaySeekPoint> seekPoints = replay.getSeekPoints();
+        return seekPoints.get(seekPoints.size() / 2);
+    }
+
+    private static ReadableByteChannel channel(byte[] data) {
+        return Channels.newChannel(new ByteArrayInputStream(data));
+    }
+
+    private static JsonNode json(List<Command> commands) {
+        return OBJECT_MAPPER.valueToTree(commands.stream()
+                .map(command -> List.of(command.getTick(), command.getPlayerId(), command.getCommandType().name(),
+                        OBJECT_MAPPER.valueToTree(command.getCommandData())))
+                .toList());
+    }
+
+    /**
+     * The data with a number of zero bytes inserted at a position, generated while reading.
+     */
+    private static final class PaddedChannel implements ReadableByteChannel {
+        private final byte[] data;
+        private final int insertAt;
+        private final long gap;
+        private long position;
+
+        private PaddedChannel(byte[] data, int insertAt, long gap) {
+            this.data = data;
+            this.insertAt = insertAt;
+            this.gap = gap;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            if (position >= data.length + gap) {
+                return -1;
+            }
+            int read;
+            if (position < insertAt) {
+                read = Math.min(destination.remaining(), insertAt - (int) position);
+                destination.put(data, (int) position, read);
+            } else if (position < insertAt + gap) {
+                read = (int) Math.min(destination.remaining(), insertAt + gap - position);
+                destination.put(new byte[read]);
+            } else {
+                int offset = (int) (position - gap);
+                read = Math.min(destination.remaining(), data.length - offset);
+                destination.put(data, offset, read);
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import de.needix.games.faf.replay.analyser.parser.ReplayByteReader.DataType;
+import de.needix.games.faf.replay.api.JsonAttributeConverter;
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The cache is shared by the whole JVM, so every test uses a map name of its own.
+ */
+class ScenarioCacheTest {
+
+    @Test
+    void replaysOfTheSameMapShareTheScenario() {
+        String map = uniqueMap();
+        ScenarioCache.Statistics before = ScenarioCache.getStatistics();
+
+        Map<String, Object> first = ScenarioCache.get(scenario(map));
+        Map<String, Object> second = ScenarioCache.get(scenario(map));
+
+        assertSame(first, second);
+        assertEquals(map, second.get("map"));
+        ScenarioCache.Statistics after = ScenarioCache.getStatistics();
+        assertEquals(before.misses() + 1, after.misses());
+        assertEquals(before.hits() + 1, after.hits());
+    }
+
+    @Test
+    void scenariosAreCachedBeforeTheyAreDecoded() {
+        String map = uniqueMap();
+
+        Map<String, Object> first = ScenarioCache.get(scenario(map));
+        Map<String, Object> second = ScenarioCache.get(scenario(map));
+
+        // A second import of a new map does not decode the scenario again
+        assertSame(first, second);
+        assertFalse(((LazyLuaTable) first).isDecoded());
+        second.get("map");
+        assertTrue(((LazyLuaTable) first).isDecoded());
+    }
+
+    @Test
+    void concurrentMissesShareOneScenario() throws Exception {
+        String map = uniqueMap();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Map<String, Object>>> scenarios = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                scenarios.add(executorService.submit(() -> {
+                    start.await();
+                    return ScenarioCache.get(scenario(map));
+                }));
+            }
+            start.countDown();
+
+            Map<String, Object> first = scenarios.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<Map<String, Object>> scenario : scenarios) {
+                assertSame(first, scenario.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void scenariosAreSerializedOnce() {
+        String map = uniqueMap();
+        ScenarioCache.CachedScenario scenario = (ScenarioCache.CachedScenario) ScenarioCache.get(scenario(map));
+        AtomicInteger serializations = new AtomicInteger();
+
+        String json = scenario.toJson(table -> "json " + serializations.incrementAndGet());
+
+        assertSame(json, scenario.toJson(table -> "json " + serializations.incrementAndGet()));
+        assertEquals(1, serializations.get());
+    }
+
+    @Test
+    void persistingReplaysReusesTheJson() {
+        String map = uniqueMap();
+        JsonAttributeConverter converter = new JsonAttributeConverter();
+
+        String first = converter.convertToDatabaseColumn(ScenarioCache.get(scenario(map)));
+        String second = converter.convertToDatabaseColumn(ScenarioCache.get(scenario(map)));
+
+        assertSame(first, second);
+        assertEquals(map, converter.convertToEntityAttribute(first).get("map"));
+    }
+
+    @Test
+    void cachedScenariosAreImmutable() {
+        Map<String, Object> scenario = ScenarioCache.get(scenario(uniqueMap()));
+
+        assertThrows(UnsupportedOperationException.class, () -> scenario.put("map", "other"));
+    }
+
+    @Test
+    void corruptScenariosAreRejected() {
+        byte[] raw = {DataType.STRING, 'x', 0};
+
+        assertThrows(ReplayParseException.class, () -> ScenarioCache.get(raw));
+    }
+
+    private static String uniqueMap() {
+        return "/maps/" + UUID.randomUUID() + "/map.scmap";
+    }
+
+    /**
+     * @return a scenario table holding the map under "map"
+     */
+    private static byte[] scenario(String map) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(DataType.TABLE);
+        data.write(DataType.STRING);
+        data.writeBytes("map\0".getBytes(StandardCharsets.UTF_8));
+        data.write(DataType.STRING);
+        data.writeBytes((map + "\0").getBytes(StandardCharsets.UTF_8));
+        data.write(DataType.END);
+        return data.toByteArray();
+    }
+}
@@ -0,0 +1,145 @@
+package de.needix.games.faf.replay.analyser.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The table is shared by all tests, so the statistics are compared before and after and strings are unique to their
+ * test where the slot contents matter.
+ */
+class StringInternerTest {
+    @Test
+    void repeatedBytesReturnTheSameInstance() {
+        String first = intern(heap("heap-repeated"));
+        String second = intern(heap("heap-repeated"));
+
+        assertEquals("heap-repeated", first);
+        assertSame(first, second);
+    }
+
+    @Test
+    void directBuffersAreInterned() {
+        String fromHeap = intern(heap("direct-repeated"));
+        String fromDirect = intern(direct("direct-repeated"));
+
+        assertEquals("direct-repeated", fromDirect);
+        assertSame(fromHeap, fromDirect);
+    }
+
+    @Test
+    void bytesAreReadAtTheirOffset() {
+        byte[] bytes = "__offset-key__".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        // The array offset of a slice is added to the position
+        ByteBuffer slice = ByteBuffer.wrap(bytes, 2, bytes.length - 2).slice();
+
+        assertEquals("offset-key", StringInterner.intern(heap, 2, 10, new byte[10]));
+        assertEquals("offset-key", StringInterner.intern(direct, 2, 10, new byte[10]));
+        assertEquals("offset-key", StringInterner.intern(slice, 0, 10, new byte[10]));
+    }
+
+    @Test
+    void emptyStringIsNotStored() {
+        StringInterner.Statistics before = StringInterner.getStatistics();
+
+        assertEquals("", StringInterner.intern(ByteBuffer.allocate(0), 0, 0, new byte[0]));
+
+        assertEquals(before, StringInterner.getStatistics());
+    }
+
+    @Test
+    void bytesAreDecodedAsUtf8() {
+        assertEquals("Überläufer ☢", intern(heap("Überläufer ☢")));
+        assertEquals("Überläufer ☢", intern(direct("Überläufer ☢")));
+    }
+
+    @Test
+    void equalHashesOfDifferentBytesAreNotConfused() {
+        // Both have the same hash and length, so they share their slot and only differ in their bytes
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+
+        assertEquals("Aa", intern(heap("Aa")));
+        assertEquals("BB", intern(heap("BB")));
+        assertEquals("Aa", intern(direct("Aa")));
+        assertEquals("BB", intern(direct("BB")));
+    }
+
+    @Test
+    void replacedEntriesAreDecodedAgain() {
+        // Far more strings than slots, so most of them are replaced before they are looked up again
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            values.add("replaced-" + i);
+        }
+        for (int round = 0; round < 2; round++) {
+            for (String value : values) {
+                assertEquals(value, intern(heap(value)));
+                assertEquals(value, intern(direct(value)));
+            }
+        }
+    }
+
+    @Test
+    void statisticsCountHitsAndMisses() {
+        StringInterner.Statistics before = StringInterner.getStatistics();
+
+        intern(heap("statistics-key"));
+        intern(heap("statistics-key"));
+        intern(heap("statistics-key"));
+
+        StringInterner.Statistics after = StringInterner.getStatistics();
+        assertEquals(1, after.misses() - before.misses());
+        assertEquals(2, after.hits() - before.hits());
+    }
+
+    @Test
+    void concurrentLookupsReturnTheirOwnBytes() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                int seed = thread;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 50000; i++) {
+                        // Threads share some of the strings and race for the same slots
+                        String value = "concurrent-" + ((i * 7 + seed) % 6000);
+                        if (!value.equals(intern(i % 2 == 0 ? heap(value) : direct(value)))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String intern(ByteBuffer buffer) {
+        return StringInterner.intern(buffer, 0, buffer.limit(), new byte[buffer.limit()]);
+    }
+
+    private static ByteBuffer heap(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer direct(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+}
@@ -0,0 +1,129 @@
+package de.needix.games.faf.replay.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+    private final SingleFlight<Long, String> singleFlight = new SingleFlight<>("test");
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallsShareOneExecution() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        Future<String> first = executorService.submit(() -> singleFlight.execute(1L, () -> {
+            calls.incrementAndGet();
+            await(release);
+            return "result";
+        }));
+        awaitInFlight(1);
+        Future<String> second = executorService.submit(() -> singleFlight.execute(1L, () -> {
+            calls.incrementAndGet();
+            return "other result";
+        }));
+        awaitCoalesced(1);
+        release.countDown();
+
+        assertEquals("result", first.get(5, TimeUnit.SECONDS));
+        assertEquals("result", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(new SingleFlight.Statistics("test", 1, 1, 0, 0), singleFlight.getStatistics());
+    }
+
+    @Test
+    void concurrentCallsShareTheException() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException exception = new IllegalStateException("failed");
+
+        Future<String> first = executorService.submit(() -> singleFlight.execute(1L, () -> {
+            await(release);
+            throw exception;
+        }));
+        awaitInFlight(1);
+        Future<String> second = executorService.submit(() -> singleFlight.execute(1L, () -> "result"));
+        awaitCoalesced(1);
+        release.countDown();
+
+        assertSame(exception, assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS)).getCause());
+        assertSame(exception, assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS)).getCause());
+        assertEquals(new SingleFlight.Statistics("test", 1, 1, 1, 0), singleFlight.getStatistics());
+    }
+
+    @Test
+    void differentKeysDoNotWaitForEachOther() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> blocked = executorService.submit(() -> singleFlight.execute(1L, () -> {
+            await(release);
+            return "first";
+        }));
+        awaitInFlight(1);
+
+        // Runs while the first key is still in flight
+        assertEquals("second", executorService.submit(() -> singleFlight.execute(2L, () -> "second"))
+                .get(5, TimeUnit.SECONDS));
+        release.countDown();
+
+        assertEquals("first", blocked.get(5, TimeUnit.SECONDS));
+        assertEquals(new SingleFlight.Statistics("test", 2, 0, 0, 0), singleFlight.getStatistics());
+    }
+
+    @Test
+    void resultsAreNotCachedBeyondTheCall() {
+        assertEquals("first", singleFlight.execute(1L, () -> "first"));
+        assertEquals("second", singleFlight.execute(1L, () -> "second"));
+
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute(1L, () -> {
+            throw new IllegalStateException("failed");
+        }));
+        // A failure is not remembered either
+        assertEquals("third", singleFlight.execute(1L, () -> "third"));
+
+        assertEquals(new SingleFlight.Statistics("test", 4, 0, 1, 0), singleFlight.getStatistics());
+    }
+
+    private void awaitInFlight(int calls) throws InterruptedException {
+        awaitCondition(() -> singleFlight.getStatistics().inFlight() == calls);
+    }
+
+    private void awaitCoalesced(int calls) throws InterruptedException {
+        awaitCondition(() -> singleFlight.getStatistics().coalesced() == calls);
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
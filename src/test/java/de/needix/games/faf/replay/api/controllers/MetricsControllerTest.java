@@ -0,0 +1,58 @@
+package de.needix.games.faf.replay.api.controllers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class MetricsControllerTest {
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(new MetricsController()).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"zstd-pool", "string-interner", "scenario-cache", "single-flight", "replay-fetcher", "command-types"})
+    void anonymousRequestsAreForbidden(String metric) throws Exception {
+        mockMvc.perform(get("/api/v1/metrics/" + metric))
+                .andExpect(status().isForbidden());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"zstd-pool", "string-interner", "scenario-cache", "single-flight", "replay-fetcher", "command-types"})
+    void usersAreForbidden(String metric) throws Exception {
+        authenticate("user", "ROLE_USER");
+
+        mockMvc.perform(get("/api/v1/metrics/" + metric))
+                .andExpect(status().isForbidden());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"zstd-pool", "string-interner", "scenario-cache", "single-flight", "replay-fetcher", "command-types"})
+    void adminsReadTheMetrics(String metric) throws Exception {
+        authenticate("admin", "ROLE_ADMIN");
+
+        mockMvc.perform(get("/api/v1/metrics/" + metric))
+                .andExpect(status().isOk());
+    }
+
+    private static void authenticate(String username, String authority) {
+        SecurityContextHolder.getContext().setAuthentication(UsernamePasswordAuthenticationToken.authenticated(
+                username, null, AuthorityUtils.createAuthorityList(authority)));
+    }
+}
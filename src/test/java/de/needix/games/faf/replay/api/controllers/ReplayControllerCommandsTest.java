@@ -0,0 +1,85 @@
+package de.needix.games.faf.replay.api.controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.api.repositories.QuarantinedReplayRepository;
+import de.needix.games.faf.replay.api.repositories.ReplayRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ReplayControllerCommandsTest {
+    private static final long REPLAY_ID = 1002;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path downloadPath;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ReplayController controller = new ReplayController();
+        ReflectionTestUtils.setField(controller, "replayDownloadPath", downloadPath.toString());
+        ReflectionTestUtils.setField(controller, "commandsMaxTicks", 600);
+        ReflectionTestUtils.setField(controller, "replayRepository", mock(ReplayRepository.class));
+        ReflectionTestUtils.setField(controller, "quarantinedReplayRepository", mock(QuarantinedReplayRepository.class));
+        ReflectionTestUtils.setField(controller, "transactionTemplate",
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+        // Where the downloader looks for the replay, so it is not fetched
+        Path replayFile = Files.createDirectories(downloadPath.resolve("subfolder-0")).resolve("replay-" + REPLAY_ID + ".fafreplay");
+        SyntheticReplays.writeZstdReplay(replayFile, REPLAY_ID, 20000, 4);
+    }
+
+    @Test
+    void returnsTheCommandsOfTheRange() throws Exception {
+        String body = mockMvc.perform(get("/api/v1/replays/{replayId}/commands", REPLAY_ID)
+                        .param("fromTick", "100")
+                        .param("toTick", "700"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        JsonNode commands = OBJECT_MAPPER.readTree(body);
+        assertFalse(commands.isEmpty());
+        for (JsonNode command : commands) {
+            int tick = command.get("tick").asInt();
+            assertTrue(tick >= 100 && tick <= 700, "tick " + tick);
+        }
+    }
+
+    @Test
+    void rejectsTooLargeRanges() throws Exception {
+        mockMvc.perform(get("/api/v1/replays/{replayId}/commands", REPLAY_ID)
+                        .param("fromTick", "100")
+                        .param("toTick", "701"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/replays/{replayId}/commands", REPLAY_ID)
+                        .param("toTick", String.valueOf(Integer.MAX_VALUE)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void rejectsInvertedRanges() throws Exception {
+        mockMvc.perform(get("/api/v1/replays/{replayId}/commands", REPLAY_ID)
+                        .param("fromTick", "700")
+                        .param("toTick", "100"))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,153 @@
+package de.needix.games.faf.replay.api.controllers;
+
+import com.sun.net.httpserver.HttpServer;
+import de.needix.games.faf.replay.api.SingleFlight;
+import de.needix.games.faf.replay.api.repositories.QuarantinedReplayRepository;
+import de.needix.games.faf.replay.api.repositories.ReplayRepository;
+import de.needix.games.faf.replay.downloader.ReplayDownloader;
+import de.needix.games.faf.replay.downloader.ReplayFetcher;
+import de.needix.games.faf.replay.downloader.ReplayFetcherOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Concurrent imports of the same replay, against a replay server which answers only once the test lets it.
+ */
+class ReplayControllerImportTest {
+    private static final long REPLAY_ID = 1022;
+
+    @TempDir
+    Path directory;
+
+    private ReplayController controller;
+    private HttpServer server;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger requests = new AtomicInteger();
+    private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        controller = new ReplayController();
+        ReplayRepository replayRepository = mock(ReplayRepository.class);
+        when(replayRepository.findById(anyLong())).thenReturn(Optional.empty());
+        QuarantinedReplayRepository quarantinedReplayRepository = mock(QuarantinedReplayRepository.class);
+        when(quarantinedReplayRepository.findById(anyLong())).thenReturn(Optional.empty());
+        ReflectionTestUtils.setField(controller, "replayDownloadPath", directory.toString());
+        ReflectionTestUtils.setField(controller, "replayRepository", replayRepository);
+        ReflectionTestUtils.setField(controller, "quarantinedReplayRepository", quarantinedReplayRepository);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        ReplayDownloader.setFetcher(new ReplayFetcher(ReplayFetcherOptions.builder()
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/")
+                .build()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executorService.shutdownNow();
+        ReplayDownloader.setFetcher(new ReplayFetcher(ReplayFetcherOptions.DEFAULT));
+        server.stop(0);
+    }
+
+    @Test
+    void concurrentImportsShareOneImport() throws Exception {
+        SingleFlight.Statistics imports = importStatistics();
+
+        Future<ResponseEntity<?>> first = getReplay(false);
+        Future<ResponseEntity<?>> second = getReplay(false);
+        awaitCondition(() -> importStatistics().coalesced() == imports.coalesced() + 1);
+        release.countDown();
+
+        assertEquals(HttpStatus.NOT_FOUND, first.get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, second.get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(imports.executions() + 1, importStatistics().executions());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void forcedImportsDoNotShareANormalImport() throws Exception {
+        SingleFlight.Statistics imports = importStatistics();
+        SingleFlight.Statistics downloads = downloadStatistics();
+
+        Future<ResponseEntity<?>> normal = getReplay(false);
+        Future<ResponseEntity<?>> forced = getReplay(true);
+        // Both run their own import, only the download of the same file is shared
+        awaitCondition(() -> importStatistics().executions() == imports.executions() + 2);
+        awaitCondition(() -> downloadStatistics().coalesced() == downloads.coalesced() + 1);
+        release.countDown();
+
+        assertEquals(HttpStatus.NOT_FOUND, normal.get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, forced.get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(imports.coalesced(), importStatistics().coalesced());
+        assertEquals(1, requests.get());
+    }
+
+    private Future<ResponseEntity<?>> getReplay(boolean force) {
+        return executorService.submit(() -> {
+            if (force) {
+                SecurityContextHolder.getContext().setAuthentication(UsernamePasswordAuthenticationToken.authenticated(
+                        "admin", null, AuthorityUtils.createAuthorityList("ROLE_ADMIN")));
+            }
+            try {
+                return controller.getReplayById(REPLAY_ID, force);
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+        });
+    }
+
+    private static SingleFlight.Statistics importStatistics() {
+        return ReplayController.getSingleFlightStatistics().get(0);
+    }
+
+    private static SingleFlight.Statistics downloadStatistics() {
+        return ReplayController.getSingleFlightStatistics().get(1);
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package de.needix.games.faf.replay.api.controllers;
+
+import com.sun.net.httpserver.HttpServer;
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.analyser.parser.ReplayByteReader.DataType;
+import de.needix.games.faf.replay.api.entities.replay.QuarantinedReplay;
+import de.needix.games.faf.replay.api.repositories.QuarantinedReplayRepository;
+import de.needix.games.faf.replay.api.repositories.ReplayRepository;
+import de.needix.games.faf.replay.downloader.ReplayDownloader;
+import de.needix.games.faf.replay.downloader.ReplayFetcher;
+import de.needix.games.faf.replay.downloader.ReplayFetcherOptions;
+import de.needix.games.faf.replay.exceptions.ReplayNotFoundException;
+import de.needix.games.faf.replay.exceptions.ReplayParseException;
+import de.needix.games.faf.replay.exceptions.UnsupportedReplayException;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ReplayControllerQuarantineTest {
+    private static final long REPLAY_ID = 1021;
+
+    @TempDir
+    Path directory;
+
+    private ReplayController controller;
+    private ReplayRepository replayRepository;
+    private QuarantinedReplayRepository quarantinedReplayRepository;
+    private HttpServer server;
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        controller = new ReplayController();
+        replayRepository = mock(ReplayRepository.class);
+        quarantinedReplayRepository = mock(QuarantinedReplayRepository.class);
+        ReflectionTestUtils.setField(controller, "replayDownloadPath", directory.toString());
+        ReflectionTestUtils.setField(controller, "replayRepository", replayRepository);
+        ReflectionTestUtils.setField(controller, "quarantinedReplayRepository", quarantinedReplayRepository);
+        ReflectionTestUtils.setField(controller, "entityManager", mock(EntityManager.class));
+
+        // The replay server knows no replay at all
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            downloads.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        ReplayDownloader.setFetcher(new ReplayFetcher(ReplayFetcherOptions.builder()
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/")
+                .build()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReplayDownloader.setFetcher(new ReplayFetcher(ReplayFetcherOptions.DEFAULT));
+        server.stop(0);
+        SecurityContextHolder.clearContext();
+    }
+
+    /**
+     * A decoded Lua callback whose argument is nothing but table type bytes, so every byte opens another table.
+     */
+    @Test
+    void deeplyNestedLuaIsQuarantinedAsParseError() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(SyntheticReplays.body(REPLAY_ID, 1000, 2));
+        byte[] payload = new byte[60000];
+        Arrays.fill(payload, (byte) DataType.TABLE);
+        byte[] name = "GiveResourcesToPlayer\0".getBytes(StandardCharsets.UTF_8);
+        int length = 3 + name.length + payload.length;
+        // Lua sim callback
+        body.write(22);
+        body.write(length);
+        body.write(length >> 8);
+        body.writeBytes(name);
+        body.writeBytes(payload);
+        File replay = SyntheticReplays.writeZstdReplay(directory.resolve("replay-" + REPLAY_ID + ".fafreplay"), REPLAY_ID,
+                body.toByteArray(), 2).toFile();
+
+        UnsupportedReplayException exception = assertThrows(UnsupportedReplayException.class,
+                () -> ReflectionTestUtils.invokeMethod(controller, "createDatabaseReplayEntity", replay, false));
+
+        assertInstanceOf(ReplayParseException.class, exception.getCause());
+        ArgumentCaptor<QuarantinedReplay> quarantined = ArgumentCaptor.forClass(QuarantinedReplay.class);
+        verify(quarantinedReplayRepository).save(quarantined.capture());
+        assertEquals(REPLAY_ID, quarantined.getValue().getId());
+        assertEquals(QuarantinedReplay.Reason.PARSE_ERROR, quarantined.getValue().getReason());
+    }
+
+    @Test
+    void quarantinedReplaysAreNotAnalysed() throws Exception {
+        File replay = writeReplay();
+        quarantine(QuarantinedReplay.Reason.PARSE_ERROR, new Date(System.currentTimeMillis() + 60_000));
+
+        UnsupportedReplayException exception = assertThrows(UnsupportedReplayException.class,
+                () -> ReflectionTestUtils.invokeMethod(controller, "createDatabaseReplayEntity", replay, false));
+
+        assertTrue(exception.getMessage().contains("quarantined"));
+        verify(replayRepository, never()).save(any());
+    }
+
+    @Test
+    void dueReplaysAreAnalysedAndLeaveTheQuarantine() throws Exception {
+        File replay = writeReplay();
+        QuarantinedReplay quarantinedReplay = quarantine(QuarantinedReplay.Reason.PARSE_ERROR,
+                new Date(System.currentTimeMillis() - 1));
+
+        ReflectionTestUtils.invokeMethod(controller, "createDatabaseReplayEntity", replay, false);
+
+        verify(replayRepository).save(any());
+        verify(quarantinedReplayRepository).delete(quarantinedReplay);
+    }
+
+    @Test
+    void exceededBudgetsStayQuarantinedUntilReleased() throws Exception {
+        File replay = writeReplay();
+        // Long ago, but without a retry
+        QuarantinedReplay quarantinedReplay = new QuarantinedReplay();
+        quarantinedReplay.setId(REPLAY_ID);
+        quarantinedReplay.recordFailure(QuarantinedReplay.Reason.BUDGET_EXCEEDED, "too many commands", new Date(0));
+        assertNull(quarantinedReplay.getRetryAfter());
+        when(quarantinedReplayRepository.findById(REPLAY_ID)).thenReturn(Optional.of(quarantinedReplay));
+
+        assertThrows(UnsupportedReplayException.class,
+                () -> ReflectionTestUtils.invokeMethod(controller, "createDatabaseReplayEntity", replay, false));
+    }
+
+    @Test
+    void missingReplaysAreQuarantined() {
+        assertThrows(ReplayNotFoundException.class,
+                () -> ReflectionTestUtils.invokeMethod(controller, "downloadReplay", REPLAY_ID));
+
+        assertEquals(1, downloads.get());
+        ArgumentCaptor<QuarantinedReplay> quarantined = ArgumentCaptor.forClass(QuarantinedReplay.class);
+        verify(quarantinedReplayRepository).save(quarantined.capture());
+        assertEquals(QuarantinedReplay.Reason.NOT_FOUND, quarantined.getValue().getReason());
+        assertEquals(1, quarantined.getValue().getFailureCount());
+    }
+
+    @Test
+    void quarantinedMissingReplaysAreNotRequested() {
+        quarantine(QuarantinedReplay.Reason.NOT_FOUND, new Date(System.currentTimeMillis() + 60_000));
+
+        assertThrows(ReplayNotFoundException.class,
+                () -> ReflectionTestUtils.invokeMethod(controller, "downloadReplay", REPLAY_ID));
+
+        assertEquals(0, downloads.get());
+    }
+
+    @Test
+    void missingReplaysAreRequestedAgainOnceDue() {
+        QuarantinedReplay quarantinedReplay = quarantine(QuarantinedReplay.Reason.NOT_FOUND,
+                new Date(System.currentTimeMillis() - 1));
+
+        assertThrows(ReplayNotFoundException.class,
+                () -> ReflectionTestUtils.invokeMethod(controller, "downloadReplay", REPLAY_ID));
+
+        assertEquals(1, downloads.get());
+        // The same entry with another failure, so the next retry is later
+        verify(quarantinedReplayRepository).save(quarantinedReplay);
+        assertEquals(2, quarantinedReplay.getFailureCount());
+    }
+
+    @Test
+    void onlyAdminsReleaseReplays() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+        when(quarantinedReplayRepository.existsById(REPLAY_ID)).thenReturn(true);
+
+        mockMvc.perform(post("/api/v1/replays/quarantined/{replayId}/release", REPLAY_ID))
+                .andExpect(status().isForbidden());
+        verify(quarantinedReplayRepository, never()).deleteById(REPLAY_ID);
+
+        SecurityContextHolder.getContext().setAuthentication(UsernamePasswordAuthenticationToken.authenticated(
+                "admin", null, AuthorityUtils.createAuthorityList("ROLE_ADMIN")));
+        mockMvc.perform(post("/api/v1/replays/quarantined/{replayId}/release", REPLAY_ID))
+                .andExpect(status().isOk());
+        verify(quarantinedReplayRepository).deleteById(REPLAY_ID);
+        mockMvc.perform(post("/api/v1/replays/quarantined/{replayId}/release", REPLAY_ID + 1))
+                .andExpect(status().isNotFound());
+    }
+
+    private File writeReplay() throws Exception {
+        Path folder = Files.createDirectories(directory.resolve("subfolder-0"));
+        return SyntheticReplays.writeZstdReplay(folder.resolve("replay-" + REPLAY_ID + ".fafreplay"), REPLAY_ID, 2000, 2)
+                .toFile();
+    }
+
+    /**
+     * @return the entry the repository returns for the replay, after one failure and with the given retry
+     */
+    private QuarantinedReplay quarantine(QuarantinedReplay.Reason reason, Date retryAfter) {
+        QuarantinedReplay quarantinedReplay = new QuarantinedReplay();
+        quarantinedReplay.setId(REPLAY_ID);
+        quarantinedReplay.recordFailure(reason, reason.name(), new Date());
+        quarantinedReplay.setRetryAfter(retryAfter);
+        when(quarantinedReplayRepository.findById(REPLAY_ID)).thenReturn(Optional.of(quarantinedReplay));
+        return quarantinedReplay;
+    }
+}
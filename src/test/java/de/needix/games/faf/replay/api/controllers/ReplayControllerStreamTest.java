@@ -0,0 +1,100 @@
+package de.needix.games.faf.replay.api.controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.api.repositories.QuarantinedReplayRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ReplayControllerStreamTest {
+    private static final long REPLAY_ID = 1001;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path downloadPath;
+
+    private ReplayController controller;
+    private MockMvc mockMvc;
+    private Path replayFile;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        controller = new ReplayController();
+        ReflectionTestUtils.setField(controller, "replayDownloadPath", downloadPath.toString());
+        ReflectionTestUtils.setField(controller, "quarantinedReplayRepository", mock(QuarantinedReplayRepository.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+        // Where the downloader looks for the replay, so it is not fetched
+        replayFile = Files.createDirectories(downloadPath.resolve("subfolder-0")).resolve("replay-" + REPLAY_ID + ".fafreplay");
+        SyntheticReplays.writeZstdReplay(replayFile, REPLAY_ID, 2000, 2);
+    }
+
+    @Test
+    void streamEndsWithCompletedStatus() throws Exception {
+        List<JsonNode> lines = streamCommands();
+
+        JsonNode status = lines.get(lines.size() - 1);
+        assertEquals("completed", status.get("status").asText());
+        assertEquals(lines.size() - 1, status.get("commands").asLong());
+        assertTrue(lines.subList(0, lines.size() - 1).stream().allMatch(line -> line.has("tick")));
+    }
+
+    @Test
+    void exceededBudgetEndsWithFailedStatus() throws Exception {
+        ReflectionTestUtils.setField(controller, "parseBudgetCommands", 100L);
+
+        List<JsonNode> lines = streamCommands();
+
+        JsonNode status = lines.get(lines.size() - 1);
+        assertEquals("failed", status.get("status").asText());
+        assertEquals(lines.size() - 1, status.get("commands").asLong());
+        assertTrue(status.get("error").asText().contains("budget"), status.toString());
+    }
+
+    @Test
+    void truncatedReplayEndsWithFailedStatus() throws Exception {
+        byte[] replay = Files.readAllBytes(replayFile);
+        Files.write(replayFile, Arrays.copyOf(replay, replay.length - 100));
+
+        List<JsonNode> lines = streamCommands();
+
+        JsonNode status = lines.get(lines.size() - 1);
+        assertEquals("failed", status.get("status").asText());
+        assertEquals(lines.size() - 1, status.get("commands").asLong());
+    }
+
+    private List<JsonNode> streamCommands() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/v1/replays/{replayId}/commands/stream", REPLAY_ID))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            lines.add(OBJECT_MAPPER.readTree(line));
+        }
+        return lines;
+    }
+}
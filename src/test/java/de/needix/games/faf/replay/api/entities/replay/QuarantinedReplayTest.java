@@ -0,0 +1,95 @@
+package de.needix.games.faf.replay.api.entities.replay;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuarantinedReplayTest {
+    private static final long HOUR = 60L * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    private static final Date NOW = new Date(1_700_000_000_000L);
+
+    @Test
+    void firstRetryDependsOnTheReason() {
+        assertEquals(6 * HOUR, firstRetryDelay(QuarantinedReplay.Reason.NOT_FOUND));
+        assertEquals(DAY, firstRetryDelay(QuarantinedReplay.Reason.PARSE_ERROR));
+        assertEquals(7 * DAY, firstRetryDelay(QuarantinedReplay.Reason.UNSUPPORTED));
+    }
+
+    @Test
+    void everyFailureDoublesTheDelay() {
+        QuarantinedReplay quarantinedReplay = new QuarantinedReplay();
+
+        for (long expected : new long[]{6 * HOUR, 12 * HOUR, DAY, 2 * DAY}) {
+            quarantinedReplay.recordFailure(QuarantinedReplay.Reason.NOT_FOUND, "not found", NOW);
+            assertEquals(expected, quarantinedReplay.getRetryAfter().getTime() - NOW.getTime());
+        }
+        assertEquals(4, quarantinedReplay.getFailureCount());
+    }
+
+    @Test
+    void delayIsCappedAtThirtyDays() {
+        QuarantinedReplay quarantinedReplay = new QuarantinedReplay();
+
+        for (int failure = 0; failure < 100; failure++) {
+            quarantinedReplay.recordFailure(QuarantinedReplay.Reason.PARSE_ERROR, "corrupt", NOW);
+        }
+
+        assertEquals(QuarantinedReplay.MAX_RETRY_DELAY_MILLIS, quarantinedReplay.getRetryAfter().getTime() - NOW.getTime());
+        assertEquals(30 * DAY, QuarantinedReplay.MAX_RETRY_DELAY_MILLIS);
+    }
+
+    @Test
+    void failuresCountAcrossReasons() {
+        QuarantinedReplay quarantinedReplay = new QuarantinedReplay();
+        quarantinedReplay.recordFailure(QuarantinedReplay.Reason.NOT_FOUND, "not found", NOW);
+
+        quarantinedReplay.recordFailure(QuarantinedReplay.Reason.PARSE_ERROR, "corrupt", NOW);
+
+        assertEquals(QuarantinedReplay.Reason.PARSE_ERROR, quarantinedReplay.getReason());
+        assertEquals("corrupt", quarantinedReplay.getMessage());
+        assertEquals(2 * DAY, quarantinedReplay.getRetryAfter().getTime() - NOW.getTime());
+    }
+
+    @Test
+    void activeUntilTheRetryIsDue() {
+        QuarantinedReplay quarantinedReplay = new QuarantinedReplay();
+        quarantinedReplay.recordFailure(QuarantinedReplay.Reason.NOT_FOUND, "not found", NOW);
+
+        assertTrue(quarantinedReplay.isActive(NOW));
+        assertTrue(quarantinedReplay.isActive(new Date(NOW.getTime() + 6 * HOUR - 1)));
+        assertFalse(quarantinedReplay.isActive(new Date(NOW.getTime() + 6 * HOUR)));
+    }
+
+    @Test
+    void exceededBudgetsAreOnlyRetriedAfterRelease() {
+        QuarantinedReplay quarantinedReplay = new QuarantinedReplay();
+        quarantinedReplay.recordFailure(QuarantinedReplay.Reason.PARSE_ERROR, "corrupt", NOW);
+
+        quarantinedReplay.recordFailure(QuarantinedReplay.Reason.BUDGET_EXCEEDED, "too many commands", NOW);
+
+        assertNull(quarantinedReplay.getRetryAfter());
+        assertTrue(quarantinedReplay.isActive(new Date(NOW.getTime() + 10 * QuarantinedReplay.MAX_RETRY_DELAY_MILLIS)));
+    }
+
+    @Test
+    void longMessagesAreTruncatedToTheColumn() {
+        QuarantinedReplay quarantinedReplay = new QuarantinedReplay();
+
+        quarantinedReplay.recordFailure(QuarantinedReplay.Reason.PARSE_ERROR, "x".repeat(5000), NOW);
+
+        assertEquals(1000, quarantinedReplay.getMessage().length());
+        assertEquals(NOW, quarantinedReplay.getQuarantineDate());
+    }
+
+    private static long firstRetryDelay(QuarantinedReplay.Reason reason) {
+        QuarantinedReplay quarantinedReplay = new QuarantinedReplay();
+        quarantinedReplay.recordFailure(reason, reason.name(), NOW);
+        return quarantinedReplay.getRetryAfter().getTime() - NOW.getTime();
+    }
+}
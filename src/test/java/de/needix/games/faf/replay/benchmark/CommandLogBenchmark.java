@@ -0,0 +1,77 @@
+package de.needix.games.faf.replay.benchmark;
+
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.analyser.ReplayAnalyser;
+import de.needix.games.faf.replay.analyser.ReplayAnalyserOptions;
+import de.needix.games.faf.replay.analyser.parser.CommandLog;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reanalysing a replay from its {@link CommandLog} compared to decompressing and parsing the replay again, with all
+ * analysers running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandLogBenchmark {
+    @Param({"20000", "400000"})
+    private int commands;
+
+    private Path directory;
+    private File replayFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("command-log-benchmark");
+        replayFile = SyntheticReplays.writeZstdReplay(directory.resolve("replay-1003.fafreplay"), 1003, commands, 8)
+                .toFile();
+        // Writes the log
+        new ReplayAnalyser(replayFile, new Replay(), options(true)).analyzeFAFReplay();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(CommandLog.getFile(replayFile).toPath());
+        Files.deleteIfExists(replayFile.toPath());
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public Replay analyseReplay() throws IOException {
+        Replay replay = new Replay();
+        new ReplayAnalyser(replayFile, replay, options(false)).analyzeFAFReplay();
+        return replay;
+    }
+
+    @Benchmark
+    public Replay analyseCommandLog() throws IOException {
+        Replay replay = new Replay();
+        new ReplayAnalyser(replayFile, replay, options(true)).analyzeFAFReplay();
+        return replay;
+    }
+
+    private static ReplayAnalyserOptions options(boolean commandLog) {
+        return ReplayAnalyserOptions.builder()
+                .commandLog(commandLog)
+                .build();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CommandLogBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
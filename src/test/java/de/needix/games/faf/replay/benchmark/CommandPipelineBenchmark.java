@@ -0,0 +1,67 @@
+package de.needix.games.faf.replay.benchmark;
+
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.analyser.ReplayAnalyser;
+import de.needix.games.faf.replay.analyser.ReplayAnalyserOptions;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analysing a replay with all analysers on the parsing thread compared to running them on their own threads, see
+ * {@link ReplayAnalyserOptions#isPipelined()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandPipelineBenchmark {
+    @Param({"20000", "400000"})
+    private int commands;
+
+    @Param({"false", "true"})
+    private boolean pipelined;
+
+    private Path directory;
+    private File replayFile;
+    private ReplayAnalyserOptions options;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("command-pipeline-benchmark");
+        replayFile = SyntheticReplays.writeZstdReplay(directory.resolve("replay-1003.fafreplay"), 1003, commands, 8)
+                .toFile();
+        options = ReplayAnalyserOptions.builder()
+                .pipelined(pipelined)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(replayFile.toPath());
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public Replay analyseReplay() throws IOException {
+        Replay replay = new Replay();
+        new ReplayAnalyser(replayFile, replay, options).analyzeFAFReplay();
+        return replay;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CommandPipelineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
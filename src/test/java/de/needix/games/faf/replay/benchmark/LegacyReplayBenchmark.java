@@ -0,0 +1,91 @@
+package de.needix.games.faf.replay.benchmark;
+
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.analyser.ReplayAnalyser;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decoding legacy (version 1) replays, which are zlib compressed and base64 encoded. Verifying a replay decodes its
+ * body without parsing it, which is compared to the same stages built from {@link Base64#getMimeDecoder()} and a plain
+ * {@link InflaterInputStream}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LegacyReplayBenchmark {
+    @Param({"20000", "400000"})
+    private int commands;
+
+    private Path directory;
+    private File replayFile;
+    private long headerLength;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("legacy-replay-benchmark");
+        replayFile = SyntheticReplays.writeZlibReplay(directory.resolve("replay-1009.fafreplay"), 1009, commands, 8)
+                .toFile();
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(replayFile.toPath()))) {
+            while (inputStream.read() != '\n') {
+                headerLength++;
+            }
+            headerLength++;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(replayFile.toPath());
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void decodeBody() throws IOException {
+        ReplayAnalyser.verifyReplayFile(replayFile.toPath());
+    }
+
+    @Benchmark
+    public long decodeBodyWithJavaUtil() throws IOException {
+        // The decoder reads single bytes, so its input has to be buffered
+        try (InputStream fileStream = new BufferedInputStream(Files.newInputStream(replayFile.toPath()))) {
+            fileStream.skipNBytes(headerLength);
+            DataInputStream decodedStream = new DataInputStream(Base64.getMimeDecoder().wrap(fileStream));
+            decodedStream.readInt();
+            try (InputStream inflaterStream = new InflaterInputStream(decodedStream)) {
+                return inflaterStream.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+    }
+
+    @Benchmark
+    public Replay analyseReplay() throws IOException {
+        Replay replay = new Replay();
+        new ReplayAnalyser(replayFile, replay).analyzeFAFReplay();
+        return replay;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LegacyReplayBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,191 @@
+package de.needix.games.faf.replay.benchmark;
+
+import de.needix.games.faf.replay.analyser.parser.ReplayByteReader;
+import de.needix.games.faf.replay.analyser.parser.ReplayByteReader.DataType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the primitives of a command stream (command headers, ids, positions, blueprint ids and small Lua tables)
+ * through {@link ReplayByteReader}, compared to the stream based reader it replaced, which allocated an array and a
+ * {@link ByteBuffer} for every number. Run it with {@code -prof gc} to compare the allocations as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplayByteReaderBenchmark {
+    private static final String[] STRINGS = {"uel0101", "ueb0101", "url0107", "xsl0201", "SpawnPing", "AttackMove"};
+
+    @Param({"100000"})
+    private int records;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1001);
+        ByteBuffer buffer = ByteBuffer.allocate(records * 64).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < records; i++) {
+            buffer.put((byte) random.nextInt(24));
+            buffer.putShort((short) random.nextInt(200));
+            buffer.putInt(random.nextInt());
+            buffer.putFloat(random.nextFloat() * 1024);
+            buffer.putFloat(random.nextFloat() * 64);
+            buffer.putFloat(random.nextFloat() * 1024);
+            putString(buffer, STRINGS[random.nextInt(STRINGS.length)]);
+
+            buffer.put((byte) DataType.TABLE);
+            buffer.put((byte) DataType.STRING);
+            putString(buffer, "Mass");
+            buffer.put((byte) DataType.NUMBER);
+            buffer.putFloat(random.nextInt(1000));
+            buffer.put((byte) DataType.STRING);
+            putString(buffer, "Name");
+            buffer.put((byte) DataType.STRING);
+            putString(buffer, STRINGS[random.nextInt(STRINGS.length)]);
+            buffer.put((byte) DataType.END);
+        }
+        data = new byte[buffer.position()];
+        buffer.flip().get(data);
+    }
+
+    @Benchmark
+    public void readByteBuffer(Blackhole blackhole) {
+        ReplayByteReader reader = new ReplayByteReader(data);
+        for (int i = 0; i < records; i++) {
+            blackhole.consume(reader.readByte());
+            blackhole.consume(reader.readUnsignedShort());
+            blackhole.consume(reader.readInt());
+            blackhole.consume(reader.readFloat());
+            blackhole.consume(reader.readFloat());
+            blackhole.consume(reader.readFloat());
+            blackhole.consume(reader.readString());
+            blackhole.consume(reader.readLua(null));
+        }
+    }
+
+    @Benchmark
+    public void readStream(Blackhole blackhole) {
+        StreamReader reader = new StreamReader(data);
+        for (int i = 0; i < records; i++) {
+            blackhole.consume(reader.readByte());
+            blackhole.consume(reader.readShort() & 0xFFFF);
+            blackhole.consume(reader.readInt());
+            blackhole.consume(reader.readFloat());
+            blackhole.consume(reader.readFloat());
+            blackhole.consume(reader.readFloat());
+            blackhole.consume(reader.readString());
+            blackhole.consume(reader.readLua(null));
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        buffer.put(value.getBytes(StandardCharsets.UTF_8));
+        buffer.put((byte) 0);
+    }
+
+    /**
+     * The reads of the former ReplayParser.
+     */
+    private static class StreamReader {
+        private final ByteArrayInputStream buffer;
+
+        private StreamReader(byte[] data) {
+            buffer = new ByteArrayInputStream(data);
+        }
+
+        private String readString() {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            while (true) {
+                int byteData = buffer.read();
+                if (byteData == -1 || byteData == 0) {
+                    break;
+                }
+                result.write(byteData);
+            }
+            return result.toString(StandardCharsets.UTF_8);
+        }
+
+        private int readInt() {
+            return readNumber(4).getInt();
+        }
+
+        private short readShort() {
+            return readNumber(2).getShort();
+        }
+
+        private float readFloat() {
+            return readNumber(4).getFloat();
+        }
+
+        private int readByte() {
+            return buffer.read() & 0xFF;
+        }
+
+        private ByteBuffer readNumber(int size) {
+            byte[] data = new byte[size];
+            try {
+                if (buffer.read(data) != size) {
+                    throw new IllegalStateException("Unexpected end of stream");
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private Map<Object, Object> readDict() {
+            Map<Object, Object> result = new HashMap<>();
+            while (true) {
+                int type = readByte();
+                if (type == DataType.END) {
+                    break;
+                }
+                Object key = readLua(type);
+                Object value = readLua(null);
+                result.put(key, value);
+            }
+            return result;
+        }
+
+        private Object readLua(Integer type) {
+            if (type == null) {
+                type = readByte();
+            }
+            return switch (type) {
+                case DataType.NUMBER -> readFloat();
+                case DataType.STRING -> readString();
+                case DataType.NIL -> {
+                    buffer.read();
+                    yield null;
+                }
+                case DataType.BOOL -> readByte() != 0;
+                case DataType.TABLE -> readDict();
+                default -> throw new IllegalArgumentException("Unknown data type: " + type);
+            };
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ReplayByteReaderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,70 @@
+package de.needix.games.faf.replay.benchmark;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.analyser.parser.ReplayParser;
+import de.needix.games.faf.replay.analyser.parser.ReplayParserOptions;
+import de.needix.games.faf.replay.api.entities.replay.Replay;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a replay while it is decompressed, compared to collecting the decompressed replay in a
+ * {@link ByteArrayOutputStream} and parsing the copy, as it was done before. The buffered variant holds the
+ * decompressed replay up to three times (the growing stream buffer and its copy), the streamed one only the window of
+ * the reader. Run it with {@code -prof gc} to compare the allocated bytes ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplayDecompressionBenchmark {
+    @Param({"20000", "400000"})
+    private int commands;
+
+    private byte[] compressedBody;
+
+    @Setup
+    public void setUp() {
+        compressedBody = Zstd.compress(SyntheticReplays.body(1002, commands, 8));
+    }
+
+    @Benchmark
+    public Replay parseStreamed() throws IOException {
+        Replay replay = new Replay();
+        try (InputStream decompressedStream = new ZstdInputStream(new ByteArrayInputStream(compressedBody))) {
+            new ReplayParser(Channels.newChannel(decompressedStream), replay, ReplayParserOptions.DEFAULT);
+        }
+        return replay;
+    }
+
+    @Benchmark
+    public Replay parseBuffered() throws IOException {
+        Replay replay = new Replay();
+        ByteArrayOutputStream decompressedData = new ByteArrayOutputStream();
+        try (InputStream decompressedStream = new ZstdInputStream(new ByteArrayInputStream(compressedBody))) {
+            decompressedStream.transferTo(decompressedData);
+        }
+        new ReplayParser(decompressedData.toByteArray(), replay, ReplayParserOptions.DEFAULT);
+        return replay;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ReplayDecompressionBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
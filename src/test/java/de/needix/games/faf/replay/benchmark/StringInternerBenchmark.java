@@ -0,0 +1,74 @@
+package de.needix.games.faf.replay.benchmark;
+
+import de.needix.games.faf.replay.analyser.parser.ReplayByteReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the short strings of a command stream, which repeat the same blueprint ids, callback names and table keys,
+ * compared to decoding a new string for each of them. The time is secondary, run it with {@code -prof gc} to compare
+ * the allocation rate ({@code gc.alloc.rate.norm}) of both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StringInternerBenchmark {
+    private static final String[] KEYS = {
+            "uel0101", "uel0201", "ueb0101", "ueb1103", "url0107", "urb0101", "ual0101", "uab0101", "xsl0201",
+            "xsb0101", "GiveResourcesToPlayer", "SpawnPing", "AttackMove", "ToggleScriptBit", "CapMex", "Type", "Name",
+            "Location", "Mass", "Energy", "From", "To", "Sender", "Msg", "Position", "Selection", "Count", "Data",
+    };
+    private static final int STRINGS = 100000;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1009);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int i = 0; i < STRINGS; i++) {
+            output.writeBytes(KEYS[random.nextInt(KEYS.length)].getBytes(StandardCharsets.UTF_8));
+            output.write(0);
+        }
+        data = output.toByteArray();
+    }
+
+    @Benchmark
+    public void readInterned(Blackhole blackhole) {
+        ReplayByteReader reader = new ReplayByteReader(data);
+        for (int i = 0; i < STRINGS; i++) {
+            blackhole.consume(reader.readString());
+        }
+    }
+
+    @Benchmark
+    public void readDecoded(Blackhole blackhole) {
+        int position = 0;
+        for (int i = 0; i < STRINGS; i++) {
+            int end = position;
+            while (data[end] != 0) {
+                end++;
+            }
+            blackhole.consume(new String(data, position, end - position, StandardCharsets.UTF_8));
+            position = end + 1;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(StringInternerBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,104 @@
+package de.needix.games.faf.replay.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+    @Test
+    void rejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimiter(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimiter(4, 2));
+    }
+
+    @Test
+    void successesIncreaseTheLimitByOnePerLimitRequests() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 8);
+
+        succeed(limiter, 2);
+
+        assertEquals(2 + 1 / 2.0 + 1 / 2.5, limiter.getLimit(), 1e-9);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void successesNeverExceedTheMaximum() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 4);
+
+        succeed(limiter, 100);
+
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void throttlingHalvesTheLimitDownToOne() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 8);
+
+        for (double expected : new double[]{4, 2, 1, 1}) {
+            limiter.acquire();
+            limiter.onThrottled(0);
+            assertEquals(expected, limiter.getLimit());
+        }
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void failuresKeepTheLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(3, 8);
+
+        limiter.acquire();
+        limiter.onFailure();
+
+        assertEquals(3, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void acquireWaitsWhileTheLimitIsReached() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 2);
+        limiter.acquire();
+        limiter.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiting = new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        limiter.onSuccess();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(2, limiter.getInFlight());
+        waiting.join();
+    }
+
+    @Test
+    void throttlingPausesAllRequests() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 4);
+        limiter.acquire();
+        limiter.onThrottled(300);
+
+        long start = System.nanoTime();
+        limiter.acquire();
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+    }
+
+    private static void succeed(AdaptiveConcurrencyLimiter limiter, int requests) throws InterruptedException {
+        for (int i = 0; i < requests; i++) {
+            limiter.acquire();
+            limiter.onSuccess();
+        }
+    }
+}
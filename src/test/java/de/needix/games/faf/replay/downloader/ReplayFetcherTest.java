@@ -0,0 +1,198 @@
+package de.needix.games.faf.replay.downloader;
+
+import com.sun.net.httpserver.HttpServer;
+import de.needix.games.faf.replay.SyntheticReplays;
+import de.needix.games.faf.replay.exceptions.ReplayNotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplayFetcherTest {
+    private static final long REPLAY_ID = 1001;
+
+    @TempDir
+    Path directory;
+
+    private HttpServer server;
+    private final Queue<StubResponse> responses = new ConcurrentLinkedQueue<>();
+    private final List<Long> requestMillis = new CopyOnWriteArrayList<>();
+    private byte[] replay;
+    private Path targetFile;
+    private Path partFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        replay = Files.readAllBytes(SyntheticReplays.writeZstdReplay(directory.resolve("source.fafreplay"), REPLAY_ID, 2000, 2));
+        targetFile = directory.resolve("replay-" + REPLAY_ID + ".fafreplay");
+        partFile = directory.resolve("replay-" + REPLAY_ID + ".fafreplay.part");
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/replays/", exchange -> {
+            requestMillis.add(System.currentTimeMillis());
+            StubResponse response = responses.size() > 1 ? responses.poll() : responses.peek();
+            response.headers().forEach((name, value) -> exchange.getResponseHeaders().add(name, value));
+            exchange.sendResponseHeaders(response.statusCode(), response.body().length == 0 ? -1 : response.body().length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(response.body());
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void downloadsAndVerifiesTheReplay() throws IOException {
+        responses.add(ok(replay));
+        ReplayFetcher fetcher = fetcher(ReplayFetcherOptions.builder());
+
+        fetcher.fetch(REPLAY_ID, targetFile);
+
+        assertArrayEquals(replay, Files.readAllBytes(targetFile));
+        assertFalse(Files.exists(partFile));
+        assertEquals(1, fetcher.getStatistics().downloads());
+        assertEquals(replay.length, fetcher.getStatistics().downloadedBytes());
+    }
+
+    @Test
+    void notFoundThrowsReplayNotFoundException() {
+        responses.add(new StubResponse(404, Map.of(), new byte[0]));
+        ReplayFetcher fetcher = fetcher(ReplayFetcherOptions.builder());
+
+        assertThrows(ReplayNotFoundException.class, () -> fetcher.fetch(REPLAY_ID, targetFile));
+
+        assertEquals(1, requestMillis.size());
+        assertEquals(1, fetcher.getStatistics().notFound());
+        assertFalse(Files.exists(targetFile));
+        assertFalse(Files.exists(partFile));
+    }
+
+    @Test
+    void throttlingHalvesTheLimitAndPausesForRetryAfter() throws IOException {
+        responses.add(new StubResponse(429, Map.of("Retry-After", "1"), new byte[0]));
+        responses.add(ok(replay));
+        ReplayFetcher fetcher = fetcher(ReplayFetcherOptions.builder()
+                .initialConcurrency(4)
+                .maxConcurrency(8));
+
+        fetcher.fetch(REPLAY_ID, targetFile);
+
+        assertEquals(2, requestMillis.size());
+        assertTrue(requestMillis.get(1) - requestMillis.get(0) >= 900,
+                "Retried after " + (requestMillis.get(1) - requestMillis.get(0)) + " ms");
+        ReplayFetcher.Statistics statistics = fetcher.getStatistics();
+        assertEquals(1, statistics.throttled());
+        // Halved to 2, then raised by 1/2 for the successful retry
+        assertEquals(2.5, statistics.concurrencyLimit());
+        assertEquals(0, statistics.inFlight());
+        assertArrayEquals(replay, Files.readAllBytes(targetFile));
+    }
+
+    @Test
+    void serverErrorsAreRetriedWithBackoff() throws IOException {
+        responses.add(new StubResponse(500, Map.of(), new byte[0]));
+        responses.add(new StubResponse(502, Map.of(), new byte[0]));
+        responses.add(ok(replay));
+        ReplayFetcher fetcher = fetcher(ReplayFetcherOptions.builder()
+                .initialConcurrency(2)
+                .backoffBase(Duration.ofMillis(100)));
+
+        fetcher.fetch(REPLAY_ID, targetFile);
+
+        assertEquals(3, requestMillis.size());
+        // At least half of the doubling backoff
+        assertTrue(requestMillis.get(1) - requestMillis.get(0) >= 50);
+        assertTrue(requestMillis.get(2) - requestMillis.get(1) >= 100);
+        ReplayFetcher.Statistics statistics = fetcher.getStatistics();
+        assertEquals(2, statistics.retries());
+        // Server errors are no throttling
+        assertEquals(2 + 1 / 2.0, statistics.concurrencyLimit());
+        assertArrayEquals(replay, Files.readAllBytes(targetFile));
+    }
+
+    @Test
+    void serverErrorsFailAfterTheLastAttempt() throws IOException {
+        Files.writeString(targetFile, "previous");
+        responses.add(new StubResponse(500, Map.of(), new byte[0]));
+        ReplayFetcher fetcher = fetcher(ReplayFetcherOptions.builder()
+                .maxAttempts(3)
+                .backoffBase(Duration.ofMillis(10)));
+
+        assertThrows(IOException.class, () -> fetcher.fetch(REPLAY_ID, targetFile));
+
+        assertEquals(3, requestMillis.size());
+        assertEquals(1, fetcher.getStatistics().failures());
+        assertEquals("previous", Files.readString(targetFile));
+    }
+
+    @Test
+    void corruptDownloadIsDiscardedAndRetried() throws IOException {
+        responses.add(ok(Arrays.copyOf(replay, replay.length - 50)));
+        responses.add(ok(replay));
+        ReplayFetcher fetcher = fetcher(ReplayFetcherOptions.builder()
+                .backoffBase(Duration.ofMillis(10)));
+
+        fetcher.fetch(REPLAY_ID, targetFile);
+
+        assertEquals(2, requestMillis.size());
+        assertEquals(1, fetcher.getStatistics().corrupt());
+        assertArrayEquals(replay, Files.readAllBytes(targetFile));
+        assertFalse(Files.exists(partFile));
+    }
+
+    @Test
+    void corruptDownloadsNeverReplaceTheTarget() throws IOException {
+        Files.writeString(targetFile, "previous");
+        responses.add(ok("<html>Maintenance</html>".getBytes(StandardCharsets.UTF_8)));
+        ReplayFetcher fetcher = fetcher(ReplayFetcherOptions.builder()
+                .maxAttempts(2)
+                .backoffBase(Duration.ofMillis(10)));
+
+        assertThrows(IOException.class, () -> fetcher.fetch(REPLAY_ID, targetFile));
+
+        assertEquals(2, fetcher.getStatistics().corrupt());
+        assertEquals("previous", Files.readString(targetFile));
+        assertFalse(Files.exists(partFile));
+    }
+
+    private ReplayFetcher fetcher(ReplayFetcherOptions.ReplayFetcherOptionsBuilder options) {
+        return new ReplayFetcher(options
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/replays/")
+                .build());
+    }
+
+    private static StubResponse ok(byte[] body) {
+        return new StubResponse(200, Map.of(), body);
+    }
+
+    /**
+     * The last response is repeated for all further requests.
+     */
+    private record StubResponse(int statusCode, Map<String, String> headers, byte[] body) {
+    }
+}